@@ -0,0 +1,185 @@
+package enigma;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Runs one input through many machine configurations in a single JVM.
+ *  The input is read once and its lines shared by all configurations,
+ *  each of which converts them with its own machine and Session, as Main
+ *  would, on a pool of threads.  The output for configuration file
+ *  DIR/NAME.conf goes to OUTDIR/NAME.out.
+ *  @author Yash Pansari
+ */
+public final class Batch {
+
+    /** Run the configurations given by ARGS: [--threads=N] INPUT OUTDIR
+     *  CONFIG...  Each configuration runs on its own thread, at most N at
+     *  a time (by default, one per processor).  An error in one
+     *  configuration is reported, prefixed by the name of its file, after
+     *  all have finished, and does not stop the others.  Exits normally
+     *  if there are no errors, and otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--threads=(\\d+) --=(.*){3,}", args);
+            List<String> words = options.get("--");
+            if (!options.ok() || words.size() < 3) {
+                throw error("Usage: java enigma.Batch [--threads=N] INPUT "
+                            + "OUTDIR CONFIG...");
+            }
+            int threads = options.contains("--threads")
+                ? Integer.parseInt(options.get("--threads").get(0))
+                : Runtime.getRuntime().availableProcessors();
+            Batch batch = new Batch(readLines(words.get(0)),
+                                    new File(words.get(1)));
+            List<String> errors =
+                batch.run(words.subList(2, words.size()), threads);
+            if (errors.isEmpty()) {
+                return;
+            }
+            for (String msg : errors) {
+                System.err.printf("Error: %s%n", msg);
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A batch converting LINES, writing its outputs into OUTDIR. */
+    Batch(List<String> lines, File outDir) {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw error("could not create %s", outDir);
+        }
+        _lines = lines;
+        _outDir = outDir;
+    }
+
+    /** Return the lines of the file named NAME, decompressed if it ends
+     *  in ".gz". */
+    static List<String> readLines(String name) {
+        Scanner input = Main.getInput(name);
+        ArrayList<String> result = new ArrayList<>();
+        while (input.hasNextLine()) {
+            result.add(input.nextLine());
+        }
+        Main.checkRead(input, name);
+        input.close();
+        return result;
+    }
+
+    /** Return the name of the output file for the configuration file
+     *  named CONFIG. */
+    File outputFile(String config) {
+        String name = new File(config).getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return new File(_outDir, name + OUTPUT_SUFFIX);
+    }
+
+    /** Convert my lines with each of the configuration files named
+     *  CONFIGS, on at most THREADS threads.  Return the errors, in the
+     *  order of CONFIGS, each prefixed by the name of its file. */
+    List<String> run(List<String> configs, int threads) {
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        HashSet<File> outputs = new HashSet<>();
+        for (String config : configs) {
+            if (!outputs.add(outputFile(config))) {
+                throw error("two configurations would write %s",
+                            outputFile(config));
+            }
+        }
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Math.min(threads, configs.size()),
+                                         task -> {
+                Thread thread = new Thread(task, "enigma-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        try {
+            ArrayList<Future<String>> results = new ArrayList<>();
+            for (String config : configs) {
+                results.add(pool.submit(() -> convert(config)));
+            }
+            ArrayList<String> errors = new ArrayList<>();
+            for (int i = 0; i < configs.size(); i += 1) {
+                String msg;
+                try {
+                    msg = results.get(i).get();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw error("interrupted");
+                } catch (ExecutionException excp) {
+                    msg = String.valueOf(excp.getCause());
+                }
+                if (msg != null) {
+                    errors.add(configs.get(i) + ": " + msg);
+                }
+            }
+            return errors;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Convert my lines with a machine configured from the file named
+     *  CONFIG, writing the results to its output file.  Return the
+     *  message of the error that stopped it, or null if none did. */
+    private String convert(String config) {
+        PrintStream out = null;
+        GroupFormatter formatter = null;
+        Session session = null;
+        try {
+            session = new Session(Main.readConfig(config));
+            out = Main.getOutput(outputFile(config).getPath());
+            formatter = new GroupFormatter(out);
+            if (_lines.isEmpty()) {
+                throw error("no input");
+            }
+            for (String line : _lines) {
+                String answer = session.processLine(line);
+                if (answer != null) {
+                    formatter.writeLine(answer);
+                }
+            }
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        } finally {
+            if (session != null) {
+                session.finish();
+            }
+            if (formatter != null) {
+                formatter.flush();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /** Suffix of the names of output files. */
+    static final String OUTPUT_SUFFIX = ".out";
+
+    /** The input lines, shared by all configurations. */
+    private final List<String> _lines;
+
+    /** Directory of output files. */
+    private final File _outDir;
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Batch class.
+ *  @author Yash Pansari
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    /** A configuration with all the rotors used by INPUT. */
+    private static final String FULL = String.join("\n",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        " 5 3",
+        " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+        " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+        " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)",
+        " V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)",
+        " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+        " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+        "           (RX) (SZ) (TV)", "");
+
+    /** Settings and message lines, the second settings line needing
+     *  rotor V. */
+    private static final List<String> INPUT = Arrays.asList(
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "FROM HIS SHOULDER HIAWATHA",
+        "TOOK THE CAMERA OF ROSEWOOD",
+        "* B Beta I II V BCDE",
+        "MADE OF SLIDING FOLDING ROSEWOOD");
+
+    /** Directory holding the configurations and outputs of a test. */
+    private File _dir;
+
+    /** Remove DIR and everything in it. */
+    private static void remove(File dir) {
+        File[] files = dir.listFiles();
+        for (int k = 0; files != null && k < files.length; k += 1) {
+            remove(files[k]);
+        }
+        dir.delete();
+    }
+
+    /** Write CONTENTS to the file NAME in _dir, and return its path. */
+    private String write(String name, String contents) throws IOException {
+        File file = new File(_dir, name);
+        Files.writeString(file.toPath(), contents);
+        return file.getPath();
+    }
+
+    /** Return the output of Main for the configuration file CONFIG and
+     *  the first N lines of INPUT. */
+    private String expected(String config, int n) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        GroupFormatter formatter = new GroupFormatter(out);
+        Session session = new Session(Main.readConfig(config));
+        for (String line : INPUT.subList(0, n)) {
+            String answer = session.processLine(line);
+            if (answer != null) {
+                formatter.writeLine(answer);
+            }
+        }
+        formatter.flush();
+        out.flush();
+        return bytes.toString();
+    }
+
+    /** Return the contents of output file NAME. */
+    private String output(String name) throws IOException {
+        return Files.readString(new File(new File(_dir, "out"),
+                                         name).toPath());
+    }
+
+    @Test
+    public void testRun() throws IOException {
+        _dir = Files.createTempDirectory("enigma-batch").toFile();
+        try {
+            checkRun();
+        } finally {
+            remove(_dir);
+        }
+    }
+
+    /** Run three configurations, two of which fail, over INPUT. */
+    private void checkRun() throws IOException {
+        String full = write("full.conf", FULL);
+        String small = write("small.conf", FULL.replaceFirst(" V MZ.*\n",
+                                                             ""));
+        String bad = write("bad.conf", "ABC\n");
+        Batch batch = new Batch(INPUT, new File(_dir, "out"));
+        List<String> errors =
+            batch.run(Arrays.asList(bad, full, small), 2);
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0), errors.get(0).startsWith(bad + ": "));
+        assertEquals(small + ": V has been misnamed.", errors.get(1));
+
+        assertEquals(expected(full, INPUT.size()), output("full.out"));
+        assertEquals(expected(small, 3), output("small.out"));
+        assertFalse(output("small.out").isEmpty());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDuplicateOutputs() throws IOException {
+        _dir = Files.createTempDirectory("enigma-batch").toFile();
+        try {
+            new File(_dir, "a").mkdir();
+            String config = write("full.conf", FULL);
+            String other = write("a/full.conf", FULL);
+            new Batch(INPUT, new File(_dir, "out"))
+                .run(Arrays.asList(config, other), 1);
+        } finally {
+            remove(_dir);
+        }
+    }
+}
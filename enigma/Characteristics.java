@@ -0,0 +1,388 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog of the "characteristics" of the start positions of a
+ *  configuration, after Rejewski: for each key of its KeySpace (without
+ *  ring settings), the cycle types of the products A4A1, A5A2 and A6A3 of
+ *  the permutations A1 .. A6 that the machine performs on the first six
+ *  key presses from that key.  Since the cycle type of a product is
+ *  unchanged by the plugboard, it identifies the rotor order and start
+ *  position behind a day's doubled message indicators whatever the
+ *  plugboard.
+ *
+ *  A catalog file is a header (MAGIC, the alphabet size, the size of the
+ *  key space and the number of records) followed by records of four longs,
+ *  big-endian: the ranks of the three cycle types (see rank) and the key.
+ *  Records are sorted, so that the file may be mapped and searched in
+ *  place.
+ *  @author Yash Pansari
+ */
+public final class Characteristics {
+
+    /** Run the command in ARGS:
+     *      [--order=R1,R2,...] CONFIG CATALOG
+     *      --lookup CONFIG CATALOG TYPE1 TYPE2 TYPE3
+     *  The first writes the catalog file CATALOG for the keys of the
+     *  configuration file CONFIG, only for rotor order R1,R2,... (reflector
+     *  first) if given.  The second prints the settings lines of the keys
+     *  in CATALOG whose characteristic is TYPE1 TYPE2 TYPE3, each a list of
+     *  cycle lengths separated by commas, such as 10,10,2,2,1,1.  A
+     *  catalog is built in memory, at 32 bytes per key, and mapped whole,
+     *  so it may hold at most about 67 million keys; the catalog of a
+     *  whole configuration of the usual size needs a file per rotor
+     *  order, written with --order.  Exits normally if there are no
+     *  errors, and otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--order=(.+) --lookup --=(.*){2,5}", args);
+            List<String> words = options.get("--");
+            boolean lookup = options.contains("--lookup");
+            if (!options.ok() || words.size() != (lookup ? 5 : 2)
+                || lookup && options.contains("--order")) {
+                throw error("Usage: java enigma.Characteristics "
+                            + "([--order=R1,R2,...] CONFIG CATALOG | --lookup "
+                            + "CONFIG CATALOG TYPE1 TYPE2 TYPE3)");
+            }
+            Characteristics catalog =
+                new Characteristics(Main.readConfig(words.get(0)));
+            Path file = Path.of(words.get(1));
+            if (lookup) {
+                for (long key : catalog.lookup(file, words.get(2),
+                                               words.get(3), words.get(4))) {
+                    System.out.println(catalog._keys.settings(key));
+                }
+            } else {
+                String[] order = options.contains("--order")
+                    ? options.get("--order").get(0).split(",") : null;
+                catalog.write(file, order);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Characteristics of the keys of MACHINE, which need not be set
+     *  up. */
+    Characteristics(Machine machine) {
+        _machine = machine;
+        _keys = new KeySpace(machine, false);
+        int n = machine.alphabet().size();
+        _partitions = new long[n + 1][n + 1];
+        for (int m = 0; m <= n; m += 1) {
+            _partitions[0][m] = 1;
+        }
+        for (int k = 1; k <= n; k += 1) {
+            for (int m = 1; m <= n; m += 1) {
+                _partitions[k][m] = _partitions[k][m - 1]
+                    + (m <= k ? _partitions[k - m][m] : 0);
+            }
+        }
+    }
+
+    /** Return the ranks of the cycle types of the characteristic of KEY,
+     *  setting MACHINE, a copy of mine, to KEY to compute them. */
+    long[] characteristic(Machine machine, long key) {
+        _keys.apply(machine, key);
+        Permutation[] presses = new Permutation[PRESSES];
+        for (int i = 0; i < PRESSES; i += 1) {
+            machine.advanceRotors();
+            presses[i] = machine.scrambler();
+        }
+        long[] result = new long[PRESSES / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] =
+                rank(presses[i + PRESSES / 2].compose(presses[i])
+                     .cycleType());
+        }
+        return result;
+    }
+
+    /** Return the rank of the cycle type TYPE (lengths, longest first,
+     *  summing to the alphabet size) among all cycle types, ordered
+     *  lexicographically from the longest cycle. */
+    long rank(int[] type) {
+        long result = 0;
+        int rest = _partitions.length - 1;
+        for (int part : type) {
+            result += _partitions[rest][part - 1];
+            rest -= part;
+        }
+        return result;
+    }
+
+    /** Write the catalog of my keys with rotor order ORDER, or all keys
+     *  if ORDER is null, to FILE.  Keys are processed, and their records
+     *  sorted, in parallel. */
+    void write(Path file, String[] order) {
+        long first = order == null ? 0 : findOrder(order);
+        long count = order == null ? _keys.size() : _keys.keysPerOrder();
+        if (count > (Integer.MAX_VALUE - HEADER) / (RECORD * Long.BYTES)) {
+            throw error("too many keys for one catalog; give --order");
+        }
+        int chunks = (int) ((count + CHUNK - 1) / CHUNK);
+        long[] records = new long[(int) count * RECORD];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            Machine machine = _machine.copy();
+            long end = Math.min(count, (long) (c + 1) * CHUNK);
+            for (long k = (long) c * CHUNK; k < end; k += 1) {
+                long[] ranks = characteristic(machine, first + k);
+                int r = (int) k * RECORD;
+                System.arraycopy(ranks, 0, records, r, ranks.length);
+                records[r + RECORD - 1] = first + k;
+            }
+        });
+        new RecordSort(records, 0, (int) count).invoke();
+        try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(
+                 Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_machine.alphabet().size());
+            out.writeLong(_keys.size());
+            out.writeLong(count);
+            for (long field : records) {
+                out.writeLong(field);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return the keys in the catalog FILE whose characteristic has the
+     *  cycle types given by TYPES, as for main. */
+    long[] lookup(Path file, String... types) {
+        long[] target = new long[PRESSES / 2];
+        for (int i = 0; i < target.length; i += 1) {
+            target[i] = rank(parseType(types[i]));
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            MappedByteBuffer map =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.limit() < HEADER || map.getInt(0) != MAGIC
+                || map.getInt(Integer.BYTES) != _machine.alphabet().size()
+                || map.getLong(2 * Integer.BYTES) != _keys.size()) {
+                throw error("%s is not a catalog for this configuration",
+                            file);
+            }
+            long count = map.getLong(2 * Integer.BYTES + Long.BYTES);
+            if (map.limit() != HEADER + count * RECORD * Long.BYTES) {
+                throw error("%s is truncated", file);
+            }
+            long lo = 0, hi = count;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (compare(map, mid, target) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            long end = lo;
+            while (end < count && compare(map, end, target) == 0) {
+                end += 1;
+            }
+            long[] result = new long[(int) (end - lo)];
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = field(map, lo + i, RECORD - 1);
+            }
+            return result;
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Return the first key with rotor order ORDER. */
+    private long findOrder(String[] order) {
+        for (long key = 0; key < _keys.size(); key += _keys.keysPerOrder()) {
+            if (Arrays.equals(_keys.rotors(key), order)) {
+                return key;
+            }
+        }
+        throw error("no rotor order %s", String.join(",", order));
+    }
+
+    /** Return the cycle type given as the lengths in TEXT, separated by
+     *  commas, sorted longest first. */
+    private int[] parseType(String text) {
+        int[] result;
+        try {
+            result = Arrays.stream(text.split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        } catch (NumberFormatException excp) {
+            throw error("bad cycle type %s", text);
+        }
+        if (Arrays.stream(result).anyMatch(x -> x <= 0)
+            || Arrays.stream(result).sum() != _partitions.length - 1) {
+            throw error("cycle type %s does not cover the alphabet", text);
+        }
+        Arrays.sort(result);
+        for (int i = 0, j = result.length - 1; i < j; i += 1, j -= 1) {
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Return the result of comparing the characteristic of record R of
+     *  the catalog in MAP with TARGET. */
+    private static int compare(ByteBuffer map, long r, long[] target) {
+        for (int i = 0; i < target.length; i += 1) {
+            int c = Long.compare(field(map, r, i), target[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return field I of record R of the catalog in MAP. */
+    private static long field(ByteBuffer map, long r, int i) {
+        return map.getLong((int) (HEADER + (r * RECORD + i) * Long.BYTES));
+    }
+
+    /** A sort of the records R of an array of records, RECORD longs each,
+     *  with LO <= R < HI, in the order of their fields.  A quicksort,
+     *  whose partitions are sorted in parallel while they are large. */
+    static final class RecordSort extends RecursiveAction {
+
+        /** A sort of records LO .. HI - 1 of RECORDS. */
+        RecordSort(long[] records, int lo, int hi) {
+            _records = records;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo <= SORT_FORK) {
+                sort(_records, _lo, _hi);
+            } else {
+                int split = partition(_records, _lo, _hi);
+                invokeAll(new RecordSort(_records, _lo, split),
+                          new RecordSort(_records, split, _hi));
+            }
+        }
+
+        /** Sort records LO .. HI - 1 of A on this thread. */
+        private static void sort(long[] a, int lo, int hi) {
+            while (hi - lo > SORT_INSERTION) {
+                int split = partition(a, lo, hi);
+                if (split - lo < hi - split) {
+                    sort(a, lo, split);
+                    lo = split;
+                } else {
+                    sort(a, split, hi);
+                    hi = split;
+                }
+            }
+            long[] record = new long[RECORD];
+            for (int i = lo + 1; i < hi; i += 1) {
+                System.arraycopy(a, i * RECORD, record, 0, RECORD);
+                int j = i;
+                while (j > lo && compare(a, j - 1, record) > 0) {
+                    System.arraycopy(a, (j - 1) * RECORD, a, j * RECORD,
+                                     RECORD);
+                    j -= 1;
+                }
+                System.arraycopy(record, 0, a, j * RECORD, RECORD);
+            }
+        }
+
+        /** Rearrange records LO .. HI - 1 of A, at least two, into two
+         *  nonempty runs, no record of the first greater than any of the
+         *  second, and return the index of the first record of the
+         *  second. */
+        private static int partition(long[] a, int lo, int hi) {
+            int mid = lo + (hi - lo - 1) / 2;
+            long[] pivot = Arrays.copyOfRange(a, mid * RECORD,
+                                              (mid + 1) * RECORD);
+            int i = lo - 1, j = hi;
+            while (true) {
+                do {
+                    i += 1;
+                } while (compare(a, i, pivot) < 0);
+                do {
+                    j -= 1;
+                } while (compare(a, j, pivot) > 0);
+                if (i >= j) {
+                    return j + 1;
+                }
+                for (int f = 0; f < RECORD; f += 1) {
+                    long t = a[i * RECORD + f];
+                    a[i * RECORD + f] = a[j * RECORD + f];
+                    a[j * RECORD + f] = t;
+                }
+            }
+        }
+
+        /** Return the result of comparing record R of A with RECORD. */
+        private static int compare(long[] a, int r, long[] record) {
+            for (int f = 0; f < RECORD; f += 1) {
+                int c = Long.compare(a[r * RECORD + f], record[f]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+
+        /** Version of the serialized form (which is never used). */
+        private static final long serialVersionUID = 1L;
+
+        /** The records. */
+        private final long[] _records;
+
+        /** The range of records to sort. */
+        private final int _lo, _hi;
+    }
+
+    /** Identifies a catalog file ("ENCH"). */
+    static final int MAGIC = 0x454e4348;
+
+    /** Size of a catalog's header in bytes. */
+    private static final int HEADER = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    /** Number of longs in a record. */
+    private static final int RECORD = 4;
+
+    /** Number of key presses in a characteristic. */
+    private static final int PRESSES = 6;
+
+    /** Number of keys processed together by one thread. */
+    private static final int CHUNK = 1 << 10;
+
+    /** Most records sorted by one thread without forking. */
+    private static final int SORT_FORK = 1 << 13;
+
+    /** Most records sorted by insertion. */
+    private static final int SORT_INSERTION = 16;
+
+    /** My configured machine. */
+    private final Machine _machine;
+
+    /** The keys I catalog. */
+    private final KeySpace _keys;
+
+    /** _partitions[k][m] is the number of partitions of k into parts of
+     *  at most m. */
+    private final long[][] _partitions;
+}
@@ -0,0 +1,179 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Characteristics class.
+ *  @author Yash Pansari
+ */
+public class CharacteristicsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    /** The rotor order cataloged. */
+    private static final String[] ORDER = {"B", "Beta", "I", "II"};
+
+    /** Return an unset four-slot machine with two rotor orders. */
+    private Machine machine() {
+        return TestUtils.navalMachine(4, 2, "B", "Beta", "I", "II");
+    }
+
+    /** Return the characteristic of the key with settings line SETTINGS,
+     *  as the arguments of a lookup, computed from the conversions of a
+     *  machine of mine. */
+    private String[] characteristic(String settings) {
+        int n = TestUtils.UPPER_STRING.length();
+        char[][] presses = new char[6][n];
+        for (int x = 0; x < n; x += 1) {
+            Machine machine = machine();
+            Main.setUp(machine, settings);
+            String out = machine.convert(
+                String.valueOf(TestUtils.UPPER_STRING.charAt(x)).repeat(6));
+            for (int i = 0; i < 6; i += 1) {
+                presses[i][x] = out.charAt(i);
+            }
+        }
+        String[] result = new String[3];
+        for (int i = 0; i < 3; i += 1) {
+            boolean[] seen = new boolean[n];
+            ArrayList<Integer> lengths = new ArrayList<>();
+            for (int x = 0; x < n; x += 1) {
+                int length = 0;
+                for (int y = x; !seen[y]; length += 1) {
+                    seen[y] = true;
+                    y = presses[i + 3][presses[i][y] - 'A'] - 'A';
+                }
+                if (length > 0) {
+                    lengths.add(length);
+                }
+            }
+            lengths.sort(null);
+            result[i] = lengths.toString().replaceAll("[\\[\\] ]", "");
+        }
+        return result;
+    }
+
+    /** Return the records of the catalog FILE, checking its header. */
+    private long[][] records(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            assertEquals(Characteristics.MAGIC, in.readInt());
+            assertEquals(26, in.readInt());
+            assertEquals(2 * 26 * 26 * 26, in.readLong());
+            long[][] result = new long[(int) in.readLong()][4];
+            for (long[] record : result) {
+                for (int i = 0; i < record.length; i += 1) {
+                    record[i] = in.readLong();
+                }
+            }
+            assertEquals(-1, in.read());
+            return result;
+        }
+    }
+
+    @Test
+    public void testCatalog() throws IOException {
+        File file = File.createTempFile("enigma", ".cat");
+        file.deleteOnExit();
+        try {
+            checkCatalog(file.toPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Write a catalog of one rotor order to FILE and look keys up in
+     *  it. */
+    private void checkCatalog(Path file) throws IOException {
+        Characteristics catalog = new Characteristics(machine());
+        catalog.write(file, ORDER);
+        long[][] records = records(file.toFile());
+        assertEquals(26 * 26 * 26, records.length);
+        for (int r = 1; r < records.length; r += 1) {
+            assertTrue("record " + r,
+                       Arrays.compare(records[r - 1], records[r]) < 0);
+        }
+
+        KeySpace keys = new KeySpace(machine(), false);
+        long first = keys.rotors(0)[2].equals("I") ? 0 : records.length;
+        for (long key : new long[] { first, first + 4321, first + 17575 }) {
+            assertArrayEquals(ORDER, keys.rotors(key));
+            String[] type = characteristic(keys.settings(key));
+            long[] found = catalog.lookup(file, type);
+            assertTrue(Arrays.toString(type),
+                       Arrays.stream(found).anyMatch(k -> k == key));
+            for (long other : found) {
+                assertArrayEquals(type,
+                                  characteristic(keys.settings(other)));
+            }
+        }
+
+        String[] none = {"26", "26", "26"};
+        assertEquals(0, catalog.lookup(file, none).length);
+        try {
+            catalog.lookup(file, "10,10", "26", "26");
+            fail("cycle type of 20 letters accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("does not cover"));
+        }
+        try {
+            catalog.lookup(file, "X", "26", "26");
+            fail("malformed cycle type accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("bad cycle type X", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testRank() {
+        Characteristics catalog = new Characteristics(machine());
+        int[] ones = new int[26];
+        Arrays.fill(ones, 1);
+        assertEquals(0, catalog.rank(ones));
+        assertEquals(1, catalog.rank(new int[] {
+            2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1 }));
+        assertEquals(2435, catalog.rank(new int[] {26}));
+        assertTrue(catalog.rank(new int[] {13, 13})
+                   < catalog.rank(new int[] {14, 12}));
+    }
+
+    @Test
+    public void testRecordSort() {
+        Random random = new Random(43);
+        for (int count : new int[] {0, 1, 2, 17, 1000, 100000}) {
+            long[] records = new long[4 * count];
+            for (int i = 0; i < records.length; i += 1) {
+                records[i] = random.nextInt(i % 4 == 3 ? 1000 : 3);
+            }
+            long[][] expected = new long[count][];
+            for (int r = 0; r < count; r += 1) {
+                expected[r] = Arrays.copyOfRange(records, 4 * r, 4 * r + 4);
+            }
+            Arrays.sort(expected, Arrays::compare);
+            new Characteristics.RecordSort(records, 0, count).invoke();
+            for (int r = 0; r < count; r += 1) {
+                assertTrue("count " + count + ", record " + r,
+                           Arrays.equals(expected[r],
+                                         Arrays.copyOfRange(records, 4 * r,
+                                                            4 * r + 4)));
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** A sidecar index to an output file, recording enough machine state to
+ *  resume conversion at points within the file without replaying
+ *  everything before them.  The index is a text file with one entry per
+ *  line:
+ *      S OFFSET SETTINGS   the settings line SETTINGS takes effect for the
+ *                          output starting at byte OFFSET;
+ *      C OFFSET POSITIONS  the character at byte OFFSET was converted
+ *                          with the rotors (other than the reflector) at
+ *                          POSITIONS, under the latest settings line.
+ *  Offsets never decrease.
+ *  @author Yash Pansari
+ */
+final class CheckpointIndex {
+
+    /** An index written to the file named NAME for output laid out by
+     *  LAYOUT, with a checkpoint after every EVERY characters. */
+    CheckpointIndex(String name, GroupFormatter layout, int every) {
+        if (every < 1) {
+            throw error("checkpoint interval must be positive");
+        }
+        try {
+            _out = new PrintStream(new File(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        _out.println(HEADER);
+        _line = layout.new Cursor();
+        _every = every;
+    }
+
+    /** Record that SETTINGS has just been applied. */
+    void settings(String settings) {
+        _out.printf("S %d %s%n", _offset, settings);
+        _count = 0;
+    }
+
+    /** Record that MACHINE is about to convert up to MAX > 0 of the
+     *  characters of a message line of N characters that follow DONE,
+     *  its first characters already converted, writing a checkpoint
+     *  first if one is due.  Returns the number of those characters that
+     *  may be converted before the next checkpoint, when this must be
+     *  called again.  The calls for one line pass increasing DONEs. */
+    int characters(Machine machine, CharSequence done, int n, int max) {
+        if (_count >= _every) {
+            _line.advance(done, n, done.length());
+            _out.printf("C %d %s%n", _offset + _line.bytes(n),
+                        positions(machine));
+            _count = 0;
+        }
+        int result = Math.min(max, _every - _count);
+        _count += result;
+        return result;
+    }
+
+    /** Record that the converted message line MSG has been output. */
+    void line(CharSequence msg) {
+        int n = msg.length();
+        _line.advance(msg, n, n);
+        _offset += _line.bytes(n);
+        _line.reset();
+    }
+
+    /** Finish writing the index. */
+    void close() {
+        _out.close();
+        if (_out.checkError()) {
+            throw error("could not write index");
+        }
+    }
+
+    /** Return the current positions of the rotors of MACHINE other than
+     *  its reflector, as for Machine.setRotors. */
+    static String positions(Machine machine) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 1; i < machine.numRotors(); i += 1) {
+            result.append(machine.getRotor(i).setting());
+        }
+        return result.toString();
+    }
+
+    /** One entry of an index. */
+    static final class Entry {
+
+        /** An entry of type TYPE ('S' or 'C') for byte OFFSET with
+         *  DATA. */
+        Entry(char type, long offset, String data) {
+            this.type = type;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        /** 'S' for a settings line and 'C' for a checkpoint. */
+        final char type;
+
+        /** The byte offset in the output to which I apply. */
+        final long offset;
+
+        /** The settings line or rotor positions. */
+        final String data;
+    }
+
+    /** Return the entries of the index file named NAME, in order. */
+    static List<Entry> read(String name) {
+        ArrayList<Entry> result = new ArrayList<>();
+        try (Scanner in = new Scanner(new File(name))) {
+            if (!in.hasNextLine() || !in.nextLine().equals(HEADER)) {
+                throw error("%s is not a checkpoint index", name);
+            }
+            while (in.hasNextLine()) {
+                String[] fields = in.nextLine().split(" ", 3);
+                if (fields.length != 3 || fields[0].length() != 1
+                    || "SC".indexOf(fields[0].charAt(0)) < 0) {
+                    throw error("malformed entry in %s", name);
+                }
+                result.add(new Entry(fields[0].charAt(0),
+                                     Long.parseLong(fields[1]), fields[2]));
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        } catch (NumberFormatException excp) {
+            throw error("malformed offset in %s", name);
+        }
+        return result;
+    }
+
+    /** First line of every index file. */
+    private static final String HEADER = "# enigma checkpoint index 1";
+
+    /** Destination of the index. */
+    private final PrintStream _out;
+
+    /** Position in the layout of the current line of output. */
+    private final GroupFormatter.Cursor _line;
+
+    /** Characters between checkpoints. */
+    private final int _every;
+
+    /** Byte offset in the output of the start of the current line. */
+    private long _offset;
+
+    /** Characters converted since the last checkpoint or settings line. */
+    private int _count;
+}
@@ -0,0 +1,379 @@
+package enigma;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A Flow.Processor that converts a stream of text with a machine, for
+ *  services that embed the cipher.  It consumes Inputs, each either text
+ *  or a settings line that sets up the machine (see Main.setUp), and
+ *  publishes to a single subscriber Chunks of converted text of at most
+ *  CHUNK_SIZE characters, omitting white space.  It publishes no more
+ *  chunks than its subscriber has requested, and asks its upstream for
+ *  no more than BUFFER inputs beyond those it has consumed.
+ *
+ *  No call into the processor blocks or converts: each records what it
+ *  was given and schedules a drain on an Executor, where one task at a
+ *  time converts text and delivers chunks, so the machine is only ever
+ *  used from one thread at a time.  Delivered chunks are reused: a chunk
+ *  is only valid until the onNext call that receives it returns.  An
+ *  error, such as text outside the alphabet or a bad settings line, is
+ *  passed to onError, and cancels the upstream subscription.
+ *  @author Yash Pansari
+ */
+final class CipherProcessor
+    implements Flow.Processor<CipherProcessor.Input, CipherProcessor.Chunk> {
+
+    /** A processor converting with MACHINE, which it uses exclusively,
+     *  that runs its drain tasks on EXECUTOR. */
+    CipherProcessor(Machine machine, Executor executor) {
+        _machine = machine;
+        _settings = new SettingsCache(machine);
+        _executor = executor;
+    }
+
+    /** A processor converting with MACHINE that runs its drain tasks in
+     *  the common fork-join pool. */
+    CipherProcessor(Machine machine) {
+        this(machine, ForkJoinPool.commonPool());
+    }
+
+    /** An item of input: text to convert or a settings line. */
+    static final class Input {
+
+        /** An input of TEXT if SETTINGS is false, and otherwise of the
+         *  settings line TEXT. */
+        private Input(CharSequence text, boolean settings) {
+            _text = text;
+            _isSettings = settings;
+        }
+
+        /** Return an input of TEXT to convert. */
+        static Input text(CharSequence text) {
+            return new Input(text, false);
+        }
+
+        /** Return an input of the settings line LINE. */
+        static Input settings(String line) {
+            return new Input(line, true);
+        }
+
+        /** The text or settings line. */
+        private final CharSequence _text;
+
+        /** True iff _text is a settings line. */
+        private final boolean _isSettings;
+    }
+
+    /** A chunk of converted text.  Valid only during the onNext call
+     *  that delivers it. */
+    static final class Chunk implements CharSequence {
+
+        @Override
+        public int length() {
+            return _length;
+        }
+
+        @Override
+        public char charAt(int k) {
+            if (k < 0 || k >= _length) {
+                throw new IndexOutOfBoundsException(k);
+            }
+            return _data[k];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(_data, 0, _length);
+        }
+
+        /** The characters, valid up to _length. */
+        private final char[] _data = new char[CHUNK_SIZE];
+
+        /** Number of valid characters. */
+        private int _length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Chunk> subscriber) {
+        if (_subscriber != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                "CipherProcessor allows only one subscriber"));
+            return;
+        }
+        _subscriber = subscriber;
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    _badRequest = new IllegalArgumentException(
+                        "request must be positive");
+                } else {
+                    _demand.getAndAccumulate(n, CipherProcessor::addCap);
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                _cancelled = true;
+                schedule();
+            }
+        });
+        schedule();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        subscription.request(BUFFER);
+    }
+
+    @Override
+    public void onNext(Input item) {
+        if (!_queue.offer(item)) {
+            _failure = new IllegalStateException("upstream exceeded demand");
+            _done = true;
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        _failure = throwable;
+        _done = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        _done = true;
+        schedule();
+    }
+
+    /** Arrange for drain to run, unless it is running already, in which
+     *  case it will run again. */
+    private void schedule() {
+        if (_work.getAndIncrement() == 0) {
+            _executor.execute(this::drain);
+        }
+    }
+
+    /** Process queued inputs and deliver chunks as demand allows, then
+     *  complete if my input is exhausted.  Runs in one task at a time. */
+    private void drain() {
+        int missed = 1;
+        do {
+            if (_subscriber != null && !_terminated) {
+                step();
+            }
+            missed = _work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /** One pass of drain, with a subscriber present. */
+    private void step() {
+        boolean done = _done;
+        if (_cancelled) {
+            terminate(null, false);
+            return;
+        }
+        if (_badRequest != null) {
+            terminate(_badRequest, true);
+            return;
+        }
+        try {
+            while (true) {
+                if (_current == null) {
+                    _current = _queue.poll();
+                    if (_current == null) {
+                        break;
+                    }
+                    _position = 0;
+                    consumed();
+                    if (_current._isSettings) {
+                        _settings.apply(_current._text.toString());
+                        _keyed = true;
+                        _current = null;
+                        continue;
+                    }
+                }
+                if (_demand.get() == 0) {
+                    return;
+                }
+                if (!fill()) {
+                    _current = null;
+                    continue;
+                }
+                _demand.decrementAndGet();
+                _subscriber.onNext(_chunk);
+                if (_cancelled) {
+                    terminate(null, false);
+                    return;
+                }
+                if (_badRequest != null) {
+                    terminate(_badRequest, true);
+                    return;
+                }
+            }
+        } catch (EnigmaException excp) {
+            terminate(excp, true);
+            return;
+        }
+        if (done) {
+            terminate(_failure, _failure != null);
+        }
+    }
+
+    /** Fill _chunk with the conversion of as much of the rest of
+     *  _current, from _position, as fits, skipping white space.  Return
+     *  false iff _current had no more to convert. */
+    private boolean fill() {
+        CharSequence text = _current._text;
+        Alphabet alphabet = _machine.alphabet();
+        int n = 0;
+        char[] data = _chunk._data;
+        while (n < data.length && _position < text.length()) {
+            char ch = text.charAt(_position);
+            _position += 1;
+            if (Character.isWhitespace(ch)) {
+                continue;
+            }
+            if (!alphabet.contains(ch)) {
+                throw new EnigmaException("message not in alphabet");
+            }
+            data[n] = ch;
+            n += 1;
+        }
+        if (n == 0) {
+            return false;
+        }
+        if (!_keyed) {
+            throw new EnigmaException("no rotors in machine");
+        }
+        _machine.convert(data, 0, n);
+        _chunk._length = n;
+        return true;
+    }
+
+    /** Record that an input has been taken from _queue, asking upstream
+     *  for more every BUFFER / 2 inputs. */
+    private void consumed() {
+        _consumed += 1;
+        if (_consumed == BUFFER / 2) {
+            _consumed = 0;
+            _upstream.request(BUFFER / 2);
+        }
+    }
+
+    /** Stop processing: tell my subscriber about FAILURE (or of completion
+     *  if null) unless it cancelled, and cancel my upstream iff
+     *  CANCEL. */
+    private void terminate(Throwable failure, boolean cancel) {
+        _terminated = true;
+        _current = null;
+        if (cancel || _cancelled) {
+            if (_upstream != null) {
+                _upstream.cancel();
+            }
+        }
+        if (_cancelled) {
+            return;
+        }
+        if (failure != null) {
+            _subscriber.onError(failure);
+        } else {
+            _subscriber.onComplete();
+        }
+    }
+
+    /** Return A + B, or Long.MAX_VALUE if that overflows. */
+    private static long addCap(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /** Maximum number of characters in a chunk. */
+    static final int CHUNK_SIZE = 1 << 12;
+
+    /** Number of inputs requested from upstream in advance. */
+    static final int BUFFER = 16;
+
+    /** The machine converting my input. */
+    private final Machine _machine;
+
+    /** Settings lines applied to _machine. */
+    private final SettingsCache _settings;
+
+    /** Runs my drain tasks. */
+    private final Executor _executor;
+
+    /** Inputs received and not yet taken. */
+    private final RingBuffer<Input> _queue = new RingBuffer<>(BUFFER);
+
+    /** Number of requests for drain outstanding. */
+    private final AtomicInteger _work = new AtomicInteger();
+
+    /** Number of chunks requested and not yet delivered. */
+    private final AtomicLong _demand = new AtomicLong();
+
+    /** The chunk delivered to my subscriber, reused each time. */
+    private final Chunk _chunk = new Chunk();
+
+    /** My subscriber, or null. */
+    private volatile Flow.Subscriber<? super Chunk> _subscriber;
+
+    /** My upstream subscription, or null. */
+    private volatile Flow.Subscription _upstream;
+
+    /** True once my input is complete or has failed. */
+    private volatile boolean _done;
+
+    /** The failure ending my input, or null. */
+    private volatile Throwable _failure;
+
+    /** The error for a non-positive request by my subscriber, which
+     *  stops me at once, queued input or not; or null. */
+    private volatile Throwable _badRequest;
+
+    /** True once my subscriber has cancelled. */
+    private volatile boolean _cancelled;
+
+    /** True once I have stopped.  Used only by drain. */
+    private boolean _terminated;
+
+    /** True once a settings line has been applied.  Used only by
+     *  drain. */
+    private boolean _keyed;
+
+    /** The input being converted, or null.  Used only by drain. */
+    private Input _current;
+
+    /** Position of the next character of _current to convert.  Used only
+     *  by drain. */
+    private int _position;
+
+    /** Inputs taken since upstream was last asked for more.  Used only by
+     *  drain. */
+    private int _consumed;
+}
@@ -0,0 +1,154 @@
+package enigma;
+
+import java.util.concurrent.Flow;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the CipherProcessor class.
+ *  @author Yash Pansari
+ */
+public class CipherProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return an unset machine with the rotors B, Beta, III, IV and I. */
+    private Machine machine() {
+        return TestUtils.navalMachine(5, 3, "B", "Beta", "III", "IV", "I");
+    }
+
+    /** A subscriber that requests one chunk at a time and records what it
+     *  receives. */
+    private static class Collector implements Flow.Subscriber<CharSequence> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(CharSequence chunk) {
+            text.append(chunk);
+            chunks += 1;
+            _subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable excp) {
+            error = excp;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+
+        /** Text received. */
+        final StringBuilder text = new StringBuilder();
+        /** Number of chunks received. */
+        int chunks;
+        /** Error received, or null. */
+        Throwable error;
+        /** True once complete. */
+        boolean complete;
+        /** My subscription. */
+        private Flow.Subscription _subscription;
+    }
+
+    /** An upstream subscription recording cancellation. */
+    private static class Upstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /** Total requested. */
+        long requested;
+        /** True once cancelled. */
+        boolean cancelled;
+    }
+
+    @Test
+    public void testConvert() {
+        String msg = "FROMHISSHOULDERHIAWATHA".repeat(400);
+        Machine ref = machine();
+        Main.setUp(ref, SETTINGS);
+        String expected = ref.convert(msg);
+        Main.setUp(ref, SETTINGS);
+        expected += ref.convert("HELLO");
+
+        CipherProcessor processor =
+            new CipherProcessor(machine(), Runnable::run);
+        Collector collector = new Collector();
+        Upstream upstream = new Upstream();
+        processor.subscribe(collector);
+        processor.onSubscribe(upstream);
+        assertEquals(CipherProcessor.BUFFER, upstream.requested);
+        processor.onNext(CipherProcessor.Input.settings(SETTINGS));
+        processor.onNext(CipherProcessor.Input.text(msg.substring(0, 100)));
+        processor.onNext(CipherProcessor.Input.text(msg.substring(100)
+                                                    + "\n"));
+        processor.onNext(CipherProcessor.Input.settings(SETTINGS));
+        processor.onNext(CipherProcessor.Input.text("HEL LO"));
+        processor.onComplete();
+        assertTrue(collector.complete);
+        assertNull(collector.error);
+        assertEquals(expected, collector.text.toString());
+        assertEquals(5, collector.chunks);
+    }
+
+    @Test
+    public void testError() {
+        CipherProcessor processor =
+            new CipherProcessor(machine(), Runnable::run);
+        Collector collector = new Collector();
+        Upstream upstream = new Upstream();
+        processor.subscribe(collector);
+        processor.onSubscribe(upstream);
+        processor.onNext(CipherProcessor.Input.settings(SETTINGS));
+        processor.onNext(CipherProcessor.Input.text("hello"));
+        assertTrue(collector.error instanceof EnigmaException);
+        assertTrue(upstream.cancelled);
+        assertFalse(collector.complete);
+    }
+
+    @Test
+    public void testBadRequest() {
+        CipherProcessor processor =
+            new CipherProcessor(machine(), Runnable::run);
+        Collector collector = new Collector() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                _bad = subscription;
+            }
+        };
+        Upstream upstream = new Upstream();
+        processor.subscribe(collector);
+        processor.onSubscribe(upstream);
+        processor.onNext(CipherProcessor.Input.settings(SETTINGS));
+        processor.onNext(CipherProcessor.Input.text("HELLO"));
+        assertNull(collector.error);
+        _bad.request(0);
+        assertTrue(collector.error instanceof IllegalArgumentException);
+        assertTrue(upstream.cancelled);
+        assertFalse(collector.complete);
+        assertEquals(0, collector.chunks);
+    }
+
+    /** The subscription given to the subscriber of testBadRequest. */
+    private Flow.Subscription _bad;
+}
@@ -0,0 +1,152 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A thin client for Server: sends the standard input to a server and
+ *  copies its replies to the standard output, as if running Main locally
+ *  on the server's configuration.
+ *  @author Yash Pansari
+ */
+public final class Client {
+
+    /** Connect to the server given by ARGS: --port=N for TCP port N on
+     *  this host, or --socket=PATH for the Unix-domain socket PATH.  The
+     *  option --config=NAME selects one of the server's configurations.
+     *  Exits normally if the server reports no error, and otherwise with
+     *  code 1. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--port=(\\d+) --socket=(.+) --config=(.+)",
+                                args);
+            if (!options.ok()
+                || options.contains("--port") == options.contains("--socket")) {
+                throw error("Usage: java enigma.Client (--port=N | "
+                            + "--socket=PATH) [--config=NAME]");
+            }
+            SocketAddress address;
+            SocketChannel connection;
+            if (options.contains("--port")) {
+                address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), Server.port(options));
+                connection = SocketChannel.open();
+            } else {
+                address = UnixDomainSocketAddress.of(
+                    options.get("--socket").get(0));
+                connection = SocketChannel.open(StandardProtocolFamily.UNIX);
+            }
+            String config = null;
+            if (options.contains("--config")) {
+                config = options.get("--config").get(0);
+            }
+            if (run(connection, address, config, System.in, System.out,
+                    System.err)) {
+                return;
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Connect CONNECTION to ADDRESS, select configuration CONFIG (if
+     *  non-null), send IN to the server, and copy its replies to OUT, or
+     *  to ERR for an error, until it closes the connection.  Returns false
+     *  iff the server reported an error. */
+    static boolean run(SocketChannel connection, SocketAddress address,
+                       String config, InputStream in, PrintStream out,
+                       PrintStream err)
+        throws IOException {
+        try (connection) {
+            connection.connect(address);
+            Charset charset = Charset.defaultCharset();
+            if (config != null) {
+                write(connection, (Server.SELECT + " " + config + "\n")
+                      .getBytes(charset), 0);
+            }
+            Thread sender = new Thread(() -> send(connection, in),
+                                       "enigma-send");
+            sender.setDaemon(true);
+            sender.start();
+
+            BufferedReader replies =
+                new BufferedReader(new InputStreamReader(new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        byte[] b = new byte[1];
+                        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len)
+                        throws IOException {
+                        return connection.read(ByteBuffer.wrap(b, off, len));
+                    }
+                }, charset), BUFFER_SIZE);
+            boolean ok = true;
+            String line;
+            while ((line = replies.readLine()) != null) {
+                if (line.startsWith(ERROR)) {
+                    err.println(line);
+                    ok = false;
+                } else {
+                    out.print(line);
+                    out.print("\r\n");
+                }
+                if (!replies.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+            return ok;
+        }
+    }
+
+    /** Copy IN to CONNECTION, and then close its output side. */
+    private static void send(SocketChannel connection, InputStream in) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                write(connection, buffer, n);
+            }
+            connection.shutdownOutput();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Write the first N bytes of DATA to CONNECTION (all of DATA if
+     *  N is 0). */
+    private static void write(SocketChannel connection, byte[] data, int n)
+        throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, n == 0 ? data.length : n);
+        while (buffer.hasRemaining()) {
+            connection.write(buffer);
+        }
+    }
+
+    /** Prefix of a line reporting an error from the server. */
+    private static final String ERROR = "Error: ";
+
+    /** Size of I/O buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+}
@@ -0,0 +1,326 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** The conversion loop of a Machine specialized to the rotors currently
+ *  inserted in it.  The wiring, notches and plugboard of the machine are
+ *  flattened into int tables when the engine is built, and the rotors
+ *  that never move are folded with the reflector into one table, so that
+ *  converting a character involves no calls on Rotor or Permutation.
+ *  Rotors advance according to the machine's compiled Stepping.
+ *  An engine must be rebuilt whenever its machine's rotors, plugboard,
+ *  rotating rotors' ring settings or the settings of the rotors folded
+ *  into its reflector change (see current()); the other rotor settings
+ *  are read from and written back to the machine by each call to
+ *  convert.
+ *
+ *  When its machine uses Engine.KEYSTREAM, an engine that has converted
+ *  enough characters to pay for it (see EngineSelector.keystreamAfter)
+ *  materializes its Keystream, the substitution it performs at every
+ *  step from the current rotor settings until they repeat, which it
+ *  then uses instead of stepping the rotors whenever their settings are
+ *  on it.
+ *  @author Yash Pansari
+ */
+final class CompiledEngine {
+
+    /** An engine for MACHINE in its current configuration. */
+    CompiledEngine(Machine machine) {
+        Alphabet alphabet = machine.alphabet();
+        int size = alphabet.size();
+        int n = machine.numRotors();
+        _machine = machine;
+        _size = size;
+        _slots = n;
+        _chars = alphabet.getChars().clone();
+        int limit = 0;
+        for (char ch : _chars) {
+            limit = Math.max(limit, ch + 1);
+        }
+        _codes = new int[limit];
+        Arrays.fill(_codes, -1);
+        for (int i = 0; i < size; i += 1) {
+            _codes[_chars[i]] = i;
+        }
+
+        int fixed = 1;
+        while (fixed < n && !machine.getRotor(fixed).rotates()) {
+            fixed += 1;
+        }
+        _fixed = fixed;
+        _reflector = new int[size];
+        for (int c = 0; c < size; c += 1) {
+            int e = c;
+            for (int i = fixed - 1; i >= 0; i -= 1) {
+                e = machine.getRotor(i).convertForward(e);
+            }
+            for (int i = 1; i < fixed; i += 1) {
+                e = machine.getRotor(i).convertBackward(e);
+            }
+            _reflector[c] = e;
+        }
+        _built = new int[n];
+        for (int i = 1; i < n; i += 1) {
+            Rotor rotor = machine.getRotor(i);
+            _built[i] = i < fixed ? rotor.posn() : rotor.ring();
+        }
+
+        _forward = new int[n * 2 * size];
+        _backward = new int[n * 2 * size];
+        _notch = new boolean[n * size];
+        for (int i = 0; i < n; i += 1) {
+            Rotor rotor = machine.getRotor(i);
+            Permutation perm = rotor.permutation();
+            for (int x = 0; x < 2 * size; x += 1) {
+                _forward[i * 2 * size + x] = perm.permute(x % size);
+                _backward[i * 2 * size + x] = perm.invert(x % size);
+            }
+            Rotor probe = rotor.copy();
+            for (int p = 0; p < size && rotor.rotates(); p += 1) {
+                probe.set(p);
+                _notch[i * size + p] = probe.atNotch();
+            }
+        }
+        _plugIn = new int[size];
+        _plugOut = new int[size];
+        Permutation plugboard = machine.plugboard();
+        for (int c = 0; c < size; c += 1) {
+            _plugIn[c] = plugboard.permute(c);
+            _plugOut[c] = plugboard.invert(c);
+        }
+        _program = machine.program();
+        _posns = new int[n];
+
+        long states = 1;
+        for (int k = 0; k < _program.pawls() && states <= Integer.MAX_VALUE;
+             k += 1) {
+            states *= size;
+        }
+        _states = states <= Integer.MAX_VALUE ? (int) states : -1;
+        if (machine.engine() == Engine.KEYSTREAM) {
+            _keystreamAfter = EngineSelector.keystreamAfter(machine, _states);
+        } else {
+            _keystreamAfter = Long.MAX_VALUE;
+        }
+    }
+
+    /** Replace TEXT[START .. END - 1], whose characters must all be in my
+     *  machine's alphabet, by its conversion, advancing the machine's
+     *  rotors accordingly. */
+    void convert(char[] text, int start, int end) {
+        for (int i = 1; i < _slots; i += 1) {
+            _posns[i] = _machine.getRotor(i).posn();
+        }
+        findNotches();
+        if (_keystream != null) {
+            int t = _keystream.index(state());
+            if (t >= 0) {
+                setState(_keystream.state(_keystream.convert(text, start,
+                                                             end, t)));
+                store();
+                return;
+            }
+        }
+        for (int k = start; k < end; k += 1) {
+            char ch = text[k];
+            int c = ch < _codes.length ? _codes[ch] : -1;
+            if (c < 0) {
+                throw new EnigmaException("message not in alphabet");
+            }
+            advance();
+            text[k] = _chars[substitute(c)];
+        }
+        store();
+        _converted += end - start;
+        if (_keystream == null && _converted >= _keystreamAfter) {
+            _keystreamAfter = Long.MAX_VALUE;
+            _keystream = Keystream.build(this);
+        }
+    }
+
+    /** Return true iff I still describe my machine, whose rotors must be
+     *  those I was built for: iff the rotors I fold into my reflector
+     *  have the settings, and the rotating rotors the ring settings, that
+     *  they had when I was built. */
+    boolean current() {
+        for (int i = 1; i < _slots; i += 1) {
+            Rotor rotor = _machine.getRotor(i);
+            if (i < _fixed) {
+                if (rotor.posn() != _built[i]) {
+                    return false;
+                }
+            } else if (rotor.rotates() && rotor.ring() != _built[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the characters of my alphabet, by index. */
+    char[] chars() {
+        return _chars;
+    }
+
+    /** Return the indices of characters in my alphabet, or -1 for
+     *  characters not in it. */
+    int[] codes() {
+        return _codes;
+    }
+
+    /** Return the number of distinct settings of my rotating rotors, or
+     *  -1 if that is more than Integer.MAX_VALUE. */
+    int states() {
+        return _states;
+    }
+
+    /** Return the current settings of my rotating rotors, as a number
+     *  less than states(). */
+    int state() {
+        int result = 0;
+        for (int k = _program.pawls() - 1; k >= 0; k -= 1) {
+            result = result * _size + _posns[_program.slot(k)];
+        }
+        return result;
+    }
+
+    /** Set my rotating rotors to the settings STATE, as returned by
+     *  state(). */
+    void setState(int state) {
+        for (int k = 0; k < _program.pawls(); k += 1) {
+            _posns[_program.slot(k)] = state % _size;
+            state /= _size;
+        }
+        findNotches();
+    }
+
+    /** Return the index of the conversion of C, an index into my
+     *  alphabet, by my rotors at their current settings, without
+     *  advancing them. */
+    int substitute(int c) {
+        int n = _slots, size = _size;
+        int[] posns = _posns;
+        c = _plugIn[c];
+        for (int i = n - 1; i >= _fixed; i -= 1) {
+            int p = posns[i];
+            c = _forward[i * 2 * size + c + p] - p;
+            c += c < 0 ? size : 0;
+        }
+        c = _reflector[c];
+        for (int i = _fixed; i < n; i += 1) {
+            int p = posns[i];
+            c = _backward[i * 2 * size + c + p] - p;
+            c += c < 0 ? size : 0;
+        }
+        return _plugOut[c];
+    }
+
+    /** Advance my rotors as Machine.advanceRotors does. */
+    void advance() {
+        int size = _size;
+        int[] posns = _posns;
+        long mask = _program.steps(_notched);
+        while (mask != 0) {
+            int k = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            int slot = _program.slot(k);
+            int p = step(posns[slot]);
+            posns[slot] = p;
+            if (_notch[slot * size + p]) {
+                _notched |= 1L << k;
+            } else {
+                _notched &= ~(1L << k);
+            }
+        }
+    }
+
+    /** Set _notched from the settings in _posns. */
+    private void findNotches() {
+        _notched = 0;
+        for (int k = 0; k < _program.pawls(); k += 1) {
+            int slot = _program.slot(k);
+            if (_notch[slot * _size + _posns[slot]]) {
+                _notched |= 1L << k;
+            }
+        }
+    }
+
+    /** Set my machine's rotors to the settings in _posns. */
+    private void store() {
+        for (int i = 1; i < _slots; i += 1) {
+            _machine.getRotor(i).set(_posns[i]);
+        }
+    }
+
+    /** Return the setting following P. */
+    private int step(int p) {
+        return p + 1 == _size ? 0 : p + 1;
+    }
+
+    /** The machine I convert for. */
+    private final Machine _machine;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Number of slots, starting with the reflector, folded into
+     *  _reflector. */
+    private final int _fixed;
+
+    /** The characters of the alphabet, by index. */
+    private final char[] _chars;
+
+    /** Indices of characters in the alphabet, or -1 for characters not in
+     *  it. */
+    private final int[] _codes;
+
+    /** The permutation of the rotor in slot i applied to x (0 <= x <
+     *  2 * size) is at index i * 2 * size + x, so that a contact offset by
+     *  a rotor setting needs no wrapping. */
+    private final int[] _forward;
+
+    /** The inverses of the permutations in _forward, laid out likewise. */
+    private final int[] _backward;
+
+    /** True at index i * size + p iff the rotor in slot i is at a notch at
+     *  setting p. */
+    private final boolean[] _notch;
+
+    /** The machine's stepping rule. */
+    private final Stepping.Program _program;
+
+    /** The rotating rotors (as numbered by _program) at notches. */
+    private long _notched;
+
+    /** The fixed rotors and reflector as one permutation. */
+    private final int[] _reflector;
+
+    /** The setting, by slot, of each rotor folded into _reflector, and
+     *  the ring setting of each other rotor, when I was built. */
+    private final int[] _built;
+
+    /** The plugboard and its inverse. */
+    private final int[] _plugIn, _plugOut;
+
+    /** The current rotor settings, by slot, during convert. */
+    private final int[] _posns;
+
+    /** The value of states(). */
+    private final int _states;
+
+    /** Number of characters I have converted without a keystream. */
+    private long _converted;
+
+    /** Value of _converted at which to build my keystream. */
+    private long _keystreamAfter;
+
+    /** My keystream, or null. */
+    private Keystream _keystream;
+}
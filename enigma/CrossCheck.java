@@ -0,0 +1,162 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A check of a machine's conversions against a reference: a shadow
+ *  copy of its rotors stepped by applying its Stepping rule directly and
+ *  converting through each Rotor in turn, as the machine did before it
+ *  had compiled engines, trees or fused reflectors.  A sample of the
+ *  messages the machine converts is repeated on the shadow, and the first
+ *  character at which the two differ is reported with the full state of
+ *  the reference machine as it converted that character.  The work is
+ *  bounded by a budget: each character the machine converts earns RATE
+ *  characters of checking, up to a limit, and a message is checked only
+ *  when enough has been earned.
+ *  @author Yash Pansari
+ */
+final class CrossCheck {
+
+    /** A check of MACHINE that spends about RATE (0 < RATE <= 1) of its
+     *  conversions on checking. */
+    CrossCheck(Machine machine, double rate) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw error("cross-check rate must be in (0, 1]");
+        }
+        _machine = machine;
+        _rate = rate;
+    }
+
+    /** Return the conversion of MSG by my machine, as for
+     *  Machine.convert, checking it if my budget allows. */
+    String convert(String msg) {
+        int n = Math.min(msg.length(), LIMIT);
+        _credit = Math.min(_credit + _rate * msg.length(), LIMIT);
+        if (n == 0 || _credit < n) {
+            return _machine.convert(msg);
+        }
+        _credit -= n;
+        int slots = _machine.numRotors();
+        Rotor[] shadow = new Rotor[slots];
+        for (int i = 0; i < slots; i += 1) {
+            shadow[i] = _machine.getRotor(i).copy();
+        }
+        if (_step == null || _step.length != slots) {
+            _rotates = new boolean[slots];
+            _notched = new boolean[slots];
+            _step = new boolean[slots];
+        }
+        Permutation plugboard = _machine.plugboard();
+        String result = _machine.convert(msg);
+        Alphabet alphabet = _machine.alphabet();
+        for (int k = 0; k < n; k += 1) {
+            advance(shadow);
+            char expected =
+                alphabet.toChar(reference(shadow, plugboard,
+                                          alphabet.toInt(msg.charAt(k))));
+            if (expected != result.charAt(k)) {
+                throw error("cross-check: character %d of message "
+                            + "converted %c to %c, reference gives %c; "
+                            + "reference machine was %s", k, msg.charAt(k),
+                            result.charAt(k), expected,
+                            describe(shadow, plugboard));
+            }
+        }
+        _checked += n;
+        if (n == msg.length()) {
+            for (int i = 1; i < slots; i += 1) {
+                if (shadow[i].posn() != _machine.getRotor(i).posn()) {
+                    throw error("cross-check: after message, machine is %s; "
+                                + "reference is %s",
+                                describe(slots), describe(shadow, plugboard));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of characters checked so far. */
+    long checked() {
+        return _checked;
+    }
+
+    /** Advance ROTORS, one per slot, according to my machine's stepping
+     *  rule. */
+    private void advance(Rotor[] rotors) {
+        int n = rotors.length;
+        for (int i = 1; i < n; i += 1) {
+            _rotates[i] = rotors[i].rotates();
+            _notched[i] = rotors[i].atNotch();
+        }
+        _machine.stepping().steps(_rotates, _notched, _step);
+        for (int i = 1; i < n; i += 1) {
+            if (_step[i]) {
+                rotors[i].advance();
+            }
+        }
+    }
+
+    /** Return the conversion of C by a machine with rotors ROTORS in
+     *  their current states and plugboard PLUGBOARD, without advancing
+     *  them. */
+    private int reference(Rotor[] rotors, Permutation plugboard, int c) {
+        int n = rotors.length;
+        c = plugboard.permute(c);
+        for (int i = n - 1; i >= 0; i -= 1) {
+            c = rotors[i].convertForward(c);
+        }
+        for (int i = 1; i < n; i += 1) {
+            c = rotors[i].convertBackward(c);
+        }
+        return plugboard.invert(c);
+    }
+
+    /** Return a description of the state of my machine's first SLOTS
+     *  rotors. */
+    private String describe(int slots) {
+        Rotor[] rotors = new Rotor[slots];
+        for (int i = 0; i < slots; i += 1) {
+            rotors[i] = _machine.getRotor(i);
+        }
+        return describe(rotors, _machine.plugboard());
+    }
+
+    /** Return a description of a machine with rotors ROTORS and plugboard
+     *  PLUGBOARD: its rotors, settings, ring settings and the image of its
+     *  alphabet under the plugboard. */
+    private String describe(Rotor[] rotors, Permutation plugboard) {
+        Alphabet alphabet = _machine.alphabet();
+        StringBuilder names = new StringBuilder(),
+            posns = new StringBuilder(), rings = new StringBuilder(),
+            plugs = new StringBuilder();
+        for (int i = 0; i < rotors.length; i += 1) {
+            names.append(i == 0 ? "" : " ").append(rotors[i].name());
+            if (i > 0) {
+                posns.append(rotors[i].setting());
+                rings.append(alphabet.toChar(rotors[i].ring()));
+            }
+        }
+        for (int c = 0; c < alphabet.size(); c += 1) {
+            plugs.append(alphabet.toChar(plugboard.permute(c)));
+        }
+        return String.format("[rotors %s, settings %s, rings %s, "
+                             + "plugboard %s]", names, posns, rings, plugs);
+    }
+
+    /** Most characters of a message checked, and most credit held. */
+    static final int LIMIT = 1 << 16;
+
+    /** The machine I check. */
+    private final Machine _machine;
+
+    /** Characters of checking earned per character converted. */
+    private final double _rate;
+
+    /** Characters of checking earned and not yet spent. */
+    private double _credit;
+
+    /** Scratch arrays for advance, by slot. */
+    private boolean[] _rotates, _notched, _step;
+
+    /** Number of characters checked. */
+    private long _checked;
+}
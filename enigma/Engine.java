@@ -0,0 +1,39 @@
+package enigma;
+
+import java.util.Locale;
+
+import static enigma.EnigmaException.*;
+
+/** The ways in which a Machine can convert a message.  Each gives the
+ *  same results; which is fastest depends on the alphabet size, the
+ *  number and kind of rotors and how often the machine is set up again
+ *  (see EngineSelector).
+ *  @author Yash Pansari
+ */
+enum Engine {
+    /** Each character passes through each Rotor in turn, with the
+     *  reflector and the fixed rotors beside it fused into one
+     *  permutation. */
+    ROTORS,
+    /** The rotors other than the fast rotor are kept in a RotorTree. */
+    TREE,
+    /** A CompiledEngine converts with flattened tables. */
+    COMPILED,
+    /** A CompiledEngine that also materializes its Keystream once it has
+     *  converted enough to pay for it. */
+    KEYSTREAM;
+
+    /** Return the engine named NAME, ignoring case. */
+    static Engine forName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException excp) {
+            throw error("unknown engine %s", name);
+        }
+    }
+
+    /** Return my name, as given to --engine. */
+    String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,407 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Chooses the Engine with which a Machine converts messages, each time
+ *  rotors are inserted in it.  The choice is the engine with the least
+ *  expected cost per character, counting both the cost of converting a
+ *  character and that of preparing the engine after each change of key,
+ *  spread over the average number of characters the machine has
+ *  converted per key so far.
+ *
+ *  Costs come from a model fitted to measurements of each engine over
+ *  a range of alphabets and rotor counts, or, with --calibrate, from a
+ *  short run of each engine on a copy of the machine, made once per
+ *  shape of machine (alphabet size, slots, fixed rotors, pawls and
+ *  stepping rule) and kept for the rest of the run.  Calibration runs
+ *  when the JIT has barely started, so it is best used with inputs long
+ *  enough that the few milliseconds it takes are worthwhile.  An engine
+ *  given by --engine is used whenever it is available.
+ *
+ *  Each choice is recorded as an EngineSelect flight recorder event, and
+ *  with --calibrate is also printed on the standard error, once per
+ *  shape of machine and engine chosen.
+ *  @author Yash Pansari
+ */
+final class EngineSelector {
+
+    /** Not instantiated. */
+    private EngineSelector() {
+    }
+
+    /** Return true iff MACHINE, which has rotors inserted, can use
+     *  ENGINE. */
+    static boolean available(Machine machine, Engine engine) {
+        switch (engine) {
+        case TREE:
+            return machine.numRotors() >= MIN_TREE_SLOTS;
+        case COMPILED:
+            return machine.program() != null;
+        case KEYSTREAM:
+            long states = states(machine);
+            return machine.program() != null && states >= 0
+                && Keystream.bytes((int) states, machine.alphabet().size())
+                   <= Main.keystreamBudget();
+        default:
+            return true;
+        }
+    }
+
+    /** Return the engine MACHINE, whose rotors have just been inserted,
+     *  should use. */
+    static Engine select(Machine machine) {
+        Cost[] costs = model(machine);
+        if (CALIBRATING.get()) {
+            return cheapest(machine, costs, DEFAULT_CHARS_PER_KEY);
+        }
+        Engine forced = Main.engine();
+        boolean calibrated = false;
+        if (forced == null && Main.calibrate()) {
+            costs = CALIBRATIONS.computeIfAbsent(new Shape(machine),
+                                                 s -> calibrate(machine));
+            calibrated = true;
+        }
+        double charsPerKey = machine.charsPerKey(DEFAULT_CHARS_PER_KEY);
+        Engine result;
+        if (forced != null && available(machine, forced)) {
+            result = forced;
+        } else {
+            result = cheapest(machine, costs, charsPerKey);
+        }
+        log(machine, result, forced, costs, charsPerKey, calibrated);
+        return result;
+    }
+
+    /** Return the number of chars after which a CompiledEngine for
+     *  MACHINE, whose keystream has STATES settings of its rotors, builds
+     *  its Keystream: at once if that engine was forced or is being
+     *  calibrated, and otherwise once it has converted about as many
+     *  characters as building it costs. */
+    static long keystreamAfter(Machine machine, int states) {
+        if (Main.engine() == Engine.KEYSTREAM || CALIBRATING.get()) {
+            return 0;
+        }
+        return (long) states * machine.alphabet().size();
+    }
+
+    /** The cost of an engine: PERCHAR nanoseconds per character, plus
+     *  PERKEY nanoseconds each time the machine's key changes. */
+    private static final class Cost {
+        /** A cost of PERCHAR per character and PERKEY per key. */
+        Cost(double perChar, double perKey) {
+            this.perChar = perChar;
+            this.perKey = perKey;
+        }
+
+        /** Nanoseconds per character. */
+        final double perChar;
+        /** Nanoseconds per change of key. */
+        final double perKey;
+    }
+
+    /** Return the available engine for MACHINE with the least expected
+     *  cost per character given COSTS, indexed by Engine ordinal, and
+     *  CHARSPERKEY characters per key. */
+    private static Engine cheapest(Machine machine, Cost[] costs,
+                                   double charsPerKey) {
+        Engine result = Engine.ROTORS;
+        double best = Double.MAX_VALUE;
+        for (Engine engine : Engine.values()) {
+            if (available(machine, engine)) {
+                double cost =
+                    expected(machine, engine, costs, charsPerKey);
+                if (cost < best) {
+                    best = cost;
+                    result = engine;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the expected cost per character of ENGINE on MACHINE, given
+     *  COSTS and CHARSPERKEY characters per key.  A keystream costs what
+     *  a compiled engine does until it is built, which happens only after
+     *  that engine has converted keystreamAfter characters. */
+    private static double expected(Machine machine, Engine engine,
+                                   Cost[] costs, double charsPerKey) {
+        Cost cost = costs[engine.ordinal()];
+        if (engine != Engine.KEYSTREAM) {
+            return cost.perChar + cost.perKey / charsPerKey;
+        }
+        Cost compiled = costs[Engine.COMPILED.ordinal()];
+        double after =
+            (double) states(machine) * machine.alphabet().size();
+        if (charsPerKey <= after) {
+            return compiled.perChar + compiled.perKey / charsPerKey;
+        }
+        return (after * compiled.perChar + cost.perKey
+                + (charsPerKey - after) * cost.perChar) / charsPerKey;
+    }
+
+    /** Return the modelled costs of each engine for MACHINE, indexed by
+     *  Engine ordinal. */
+    private static Cost[] model(Machine machine) {
+        int slots = machine.numRotors();
+        int size = machine.alphabet().size();
+        int fixed = fixed(machine);
+        int moving = slots - fixed;
+        double log = Math.log(slots) / Math.log(2);
+        Cost[] result = new Cost[Engine.values().length];
+        result[Engine.ROTORS.ordinal()] =
+            new Cost(ROTORS_CHAR + ROTORS_SLOT * moving,
+                     FUSE_KEY * fixed * size);
+        result[Engine.TREE.ordinal()] =
+            new Cost(TREE_CHAR + TREE_LEVEL * log, TREE_KEY * slots * size);
+        result[Engine.COMPILED.ordinal()] =
+            new Cost(COMPILED_CHAR + COMPILED_SLOT * moving,
+                     COMPILED_KEY * slots * size);
+        long states = states(machine);
+        result[Engine.KEYSTREAM.ordinal()] =
+            new Cost(KEYSTREAM_CHAR,
+                     result[Engine.COMPILED.ordinal()].perKey
+                     + result[Engine.COMPILED.ordinal()].perChar
+                       * Math.max(states, 0) * size);
+        return result;
+    }
+
+    /** Return the measured costs of each available engine for MACHINE,
+     *  indexed by Engine ordinal, and the modelled costs of the
+     *  others. */
+    private static Cost[] calibrate(Machine machine) {
+        Cost[] result = model(machine);
+        CALIBRATING.set(true);
+        try {
+            Alphabet alphabet = machine.alphabet();
+            Random random = new Random(CALIBRATION_SEED);
+            char[] text = new char[CALIBRATION_CHARS];
+            for (int k = 0; k < text.length; k += 1) {
+                text[k] = alphabet.toChar(random.nextInt(alphabet.size()));
+            }
+            String[] keys = new String[CALIBRATION_KEYS];
+            for (int k = 0; k < keys.length; k += 1) {
+                char[] key = new char[machine.numRotors() - 1];
+                for (int i = 0; i < key.length; i += 1) {
+                    key[i] = alphabet.toChar(random.nextInt(alphabet.size()));
+                }
+                keys[k] = new String(key);
+            }
+            for (int round = 0; round < CALIBRATION_ROUNDS; round += 1) {
+                for (Engine engine : Engine.values()) {
+                    if (available(machine, engine)) {
+                        Cost cost = measure(machine, engine, text, keys);
+                        Cost old = result[engine.ordinal()];
+                        if (round == 0 || cost.perChar < old.perChar) {
+                            old = new Cost(cost.perChar, old.perKey);
+                        }
+                        if (round == 0 || cost.perKey < old.perKey) {
+                            old = new Cost(old.perChar, cost.perKey);
+                        }
+                        result[engine.ordinal()] = old;
+                    }
+                }
+            }
+        } finally {
+            CALIBRATING.set(false);
+        }
+        return result;
+    }
+
+    /** Return the cost of ENGINE on a copy of MACHINE, measured by
+     *  converting TEXT and then one character after setting each of
+     *  KEYS. */
+    private static Cost measure(Machine machine, Engine engine, char[] text,
+                                String[] keys) {
+        Machine copy = machine.copy();
+        copy.setPlugboard(new Permutation("", machine.alphabet()));
+        copy.useEngine(engine);
+        copy.convert(text, 0, 1);
+        long start = System.nanoTime();
+        copy.convert(text, 1, text.length);
+        double perChar =
+            (double) (System.nanoTime() - start) / (text.length - 1);
+        start = System.nanoTime();
+        for (String key : keys) {
+            copy.setRotors(key);
+            copy.convert(text, 0, 1);
+        }
+        double perKey = Math.max(0, (double) (System.nanoTime() - start)
+                                    / keys.length - perChar);
+        return new Cost(perChar, perKey);
+    }
+
+    /** Record the choice of ENGINE for MACHINE, given FORCED (the engine
+     *  given by --engine, or null), COSTS (measured iff CALIBRATED) and
+     *  CHARSPERKEY characters per key, unless it has been recorded for
+     *  this shape of machine already. */
+    private static void log(Machine machine, Engine engine, Engine forced,
+                            Cost[] costs, double charsPerKey,
+                            boolean calibrated) {
+        Shape shape = new Shape(machine);
+        if (LOGGED.put(shape, engine) == engine) {
+            return;
+        }
+        StringBuilder timings = new StringBuilder();
+        for (Engine e : Engine.values()) {
+            if (available(machine, e)) {
+                Cost cost = costs[e.ordinal()];
+                timings.append(String.format(" %s %.1f+%.0f/key",
+                                             e.label(), cost.perChar,
+                                             cost.perKey));
+            }
+        }
+        Events.EngineSelect event = new Events.EngineSelect();
+        if (event.shouldCommit()) {
+            event.shape = shape.toString();
+            event.engine = engine.label();
+            event.forced = forced != null;
+            event.calibrated = calibrated;
+            event.charsPerKey = charsPerKey;
+            event.costs = timings.toString().trim();
+            event.commit();
+        }
+        if (forced != null && forced != engine) {
+            System.err.printf("Warning: engine %s not available for %s; "
+                              + "using %s%n", forced.label(), shape,
+                              engine.label());
+        } else if (calibrated) {
+            System.err.printf("engine %s for %s (ns/char,%s)%n",
+                              engine.label(), shape, timings);
+        }
+    }
+
+    /** The shape of a machine, on which the costs of its engines depend.
+     *  Shapes are compared field by field and only described in words
+     *  when logged, since one is made each time rotors are inserted. */
+    private static final class Shape {
+        /** The shape of MACHINE. */
+        Shape(Machine machine) {
+            size = machine.alphabet().size();
+            slots = machine.numRotors();
+            fixed = fixed(machine);
+            pawls = machine.program() == null ? -1
+                : machine.program().pawls();
+            stepping = machine.stepping();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Shape)) {
+                return false;
+            }
+            Shape other = (Shape) obj;
+            return size == other.size && slots == other.slots
+                && fixed == other.fixed && pawls == other.pawls
+                && stepping == other.stepping;
+        }
+
+        @Override
+        public int hashCode() {
+            return (((size * 31 + slots) * 31 + fixed) * 31 + pawls) * 31
+                + stepping.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("alphabet %d, slots %d, fixed %d, "
+                                 + "pawls %d, %s stepping", size, slots,
+                                 fixed, pawls, stepping.name());
+        }
+
+        /** Alphabet size, slots, slots that do not rotate (starting
+         *  with the reflector) and compiled pawls (-1 if not compiled). */
+        final int size, slots, fixed, pawls;
+        /** The stepping rule. */
+        final Stepping stepping;
+    }
+
+    /** Return the number of slots of MACHINE, starting with its
+     *  reflector, whose rotors do not rotate. */
+    private static int fixed(Machine machine) {
+        int result = 1;
+        while (result < machine.numRotors()
+               && !machine.getRotor(result).rotates()) {
+            result += 1;
+        }
+        return result;
+    }
+
+    /** Return the number of settings of the rotating rotors of MACHINE,
+     *  or -1 if that is more than Integer.MAX_VALUE or they are too
+     *  many to compile. */
+    private static long states(Machine machine) {
+        if (machine.program() == null) {
+            return -1;
+        }
+        long result = 1;
+        for (int k = 0; k < machine.program().pawls(); k += 1) {
+            result *= machine.alphabet().size();
+            if (result > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return result;
+    }
+
+    /** Fewest slots for which a RotorTree may be used. */
+    private static final int MIN_TREE_SLOTS = 3;
+
+    /** Characters per key assumed before any have been converted. */
+    static final double DEFAULT_CHARS_PER_KEY = 1 << 12;
+
+    /* The model's constants were fitted to measurements of each engine,
+     * warmed up, on alphabets of 10, 26 and 64 characters with 3 to 20
+     * slots.  Only their ratios matter. */
+
+    /** Modelled nanoseconds per character for ROTORS: a base cost and a
+     *  cost per rotor not fused with the reflector. */
+    private static final double ROTORS_CHAR = 20, ROTORS_SLOT = 55;
+
+    /** Modelled nanoseconds per key, per fixed slot and character, to fuse
+     *  the reflector. */
+    private static final double FUSE_KEY = 15;
+
+    /** Modelled nanoseconds per character for TREE: a base cost and a
+     *  cost per level of the tree. */
+    private static final double TREE_CHAR = 95, TREE_LEVEL = 4;
+
+    /** Modelled nanoseconds per key, per slot and character, to build a
+     *  RotorTree. */
+    private static final double TREE_KEY = 9;
+
+    /** Modelled nanoseconds per character for COMPILED: a base cost and a
+     *  cost per rotor not fused with the reflector. */
+    private static final double COMPILED_CHAR = 12, COMPILED_SLOT = 8;
+
+    /** Modelled nanoseconds per key, per slot and character, to build a
+     *  CompiledEngine. */
+    private static final double COMPILED_KEY = 30;
+
+    /** Modelled nanoseconds per character for KEYSTREAM, once built. */
+    private static final double KEYSTREAM_CHAR = 3;
+
+    /** Number of characters converted by each engine to calibrate it. */
+    private static final int CALIBRATION_CHARS = 1 << 13;
+
+    /** Number of keys set for each engine to calibrate it. */
+    private static final int CALIBRATION_KEYS = 32;
+
+    /** Number of times each engine is measured, keeping the best. */
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    /** Seed for the text and keys used to calibrate. */
+    private static final long CALIBRATION_SEED = 0x454e49474d41L;
+
+    /** True while calibrating on this thread. */
+    private static final ThreadLocal<Boolean> CALIBRATING =
+        ThreadLocal.withInitial(() -> false);
+
+    /** Measured costs, by shape of machine. */
+    private static final ConcurrentHashMap<Shape, Cost[]> CALIBRATIONS =
+        new ConcurrentHashMap<>();
+
+    /** The engine last recorded, by shape of machine. */
+    private static final ConcurrentHashMap<Shape, Engine> LOGGED =
+        new ConcurrentHashMap<>();
+}
@@ -9,7 +9,22 @@ class EnigmaException extends RuntimeException {
 
     /** An exception whose getMessage() value is MSG. */
     EnigmaException(String msg) {
+        this(msg, msg);
+    }
+
+    /** An exception whose getMessage() value is MSG, formed from the
+     *  format string FORMAT. */
+    private EnigmaException(String msg, String format) {
         super(msg);
+        _format = format;
+    }
+
+    /** Return the format string from which my message was formed, or the
+     *  message itself if it was given whole.  Unlike the message, it does
+     *  not vary with the particular file, setting or character at
+     *  fault. */
+    String format() {
+        return _format;
     }
 
     /** A utility method that returns a new exception with a message
@@ -20,7 +35,11 @@ class EnigmaException extends RuntimeException {
      *  execution will terminate at that point, and avoid insistance on
      *  an explicit return in a value-returning function.)  */
     static EnigmaException error(String msgFormat, Object... arguments) {
-        return new EnigmaException(String.format(msgFormat, arguments));
+        return new EnigmaException(String.format(msgFormat, arguments),
+                                   msgFormat);
     }
 
+    /** The format string of my message. */
+    private final String _format;
+
 }
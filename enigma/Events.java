@@ -0,0 +1,142 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** The Java Flight Recorder events emitted by Main, Session,
+ *  GroupFormatter and EngineSelector, for use alongside the JDK's own
+ *  events in a recording (java -XX:StartFlightRecording ...).  Each
+ *  event is created and begun before the work it times and committed
+ *  after, when its fields are filled in only if shouldCommit() says it
+ *  will be recorded; a disabled event therefore costs an allocation that
+ *  the JIT usually removes.
+ *  Conversion is recorded in batches of at least BATCH characters, not
+ *  per line, and nothing is recorded inside Machine.
+ *  @author Yash Pansari
+ */
+final class Events {
+
+    /** Events are not instantiated. */
+    private Events() {
+    }
+
+    /** Minimum number of characters in a Convert event, other than the
+     *  last of a run of messages. */
+    static final int BATCH = 1 << 16;
+
+    /** The reading of a machine configuration. */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    @StackTrace(false)
+    static final class ConfigLoad extends Event {
+        /** Number of rotor slots. */
+        @Label("Slots")
+        int slots;
+
+        /** Number of pawls. */
+        @Label("Pawls")
+        int pawls;
+
+        /** Number of rotors available. */
+        @Label("Rotors")
+        int rotors;
+
+        /** Number of characters in the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+    }
+
+    /** The application of a settings line. */
+    @Name("enigma.Rekey")
+    @Label("Rekey")
+    @Category("Enigma")
+    @StackTrace(false)
+    static final class Rekey extends Event {
+        /** Number of rotor slots. */
+        @Label("Slots")
+        int slots;
+
+        /** True iff the line was found in the session's SettingsCache. */
+        @Label("Cached")
+        @Description("The settings line had been compiled before")
+        boolean cached;
+    }
+
+    /** A span of consecutive messages converted by one session.  The
+     *  event's duration is the whole span, including reading and writing
+     *  between messages; conversionTime is the part spent converting. */
+    @Name("enigma.Convert")
+    @Label("Convert")
+    @Category("Enigma")
+    @StackTrace(false)
+    static final class Convert extends Event {
+        /** Number of message lines. */
+        @Label("Lines")
+        long lines;
+
+        /** Number of characters converted. */
+        @Label("Characters")
+        long characters;
+
+        /** Time spent converting. */
+        @Label("Conversion Time")
+        @Timespan
+        long conversionTime;
+    }
+
+    /** The passing of buffered output to its stream. */
+    @Name("enigma.Flush")
+    @Label("Output Flush")
+    @Category("Enigma")
+    @StackTrace(false)
+    static final class Flush extends Event {
+        /** Number of bytes written. */
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+
+        /** True iff the stream itself was flushed. */
+        @Label("Forced")
+        boolean forced;
+    }
+
+    /** The choice of the engine with which a machine converts messages
+     *  (see EngineSelector). */
+    @Name("enigma.EngineSelect")
+    @Label("Engine Selection")
+    @Category("Enigma")
+    @StackTrace(false)
+    static final class EngineSelect extends Event {
+        /** The shape of machine chosen for. */
+        @Label("Shape")
+        String shape;
+
+        /** The engine chosen. */
+        @Label("Engine")
+        String engine;
+
+        /** True iff an engine was given by --engine. */
+        @Label("Forced")
+        boolean forced;
+
+        /** True iff the costs were measured. */
+        @Label("Calibrated")
+        boolean calibrated;
+
+        /** Characters converted per key assumed. */
+        @Label("Characters per Key")
+        double charsPerKey;
+
+        /** The cost of each available engine, in nanoseconds per
+         *  character plus nanoseconds per key. */
+        @Label("Costs")
+        String costs;
+    }
+}
@@ -12,4 +12,12 @@ class FixedRotor extends Rotor {
     FixedRotor(String name, Permutation perm) {
         super(name, perm);
     }
+
+    @Override
+    Rotor copy() {
+        Rotor result = new FixedRotor(name(), permutation());
+        result.set(posn());
+        result.setRing(ring());
+        return result;
+    }
 }
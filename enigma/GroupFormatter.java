@@ -0,0 +1,229 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import static enigma.EnigmaException.*;
+
+/** Writes message lines in groups of letters separated by blanks, each
+ *  line terminated by "\r\n".  Output is encoded directly into a reusable
+ *  byte buffer, which is passed to the underlying stream in large blocks,
+ *  rather than one character at a time.
+ *  @author Yash Pansari
+ */
+final class GroupFormatter {
+
+    /** A formatter writing to OUT in groups of GROUPSIZE letters, with
+     *  no more than LINEWIDTH characters on an output line (LINEWIDTH <= 0
+     *  means no limit).  A message line that is too wide is broken
+     *  between groups.  Characters outside ASCII are encoded with
+     *  CHARSET. */
+    GroupFormatter(OutputStream out, int groupSize, int lineWidth,
+                   Charset charset) {
+        if (groupSize < 1) {
+            throw error("group size must be positive");
+        }
+        _out = out;
+        _groupSize = groupSize;
+        _lineWidth = lineWidth;
+        _charset = charset;
+    }
+
+    /** A formatter writing to OUT in groups of five letters, with no limit
+     *  on line width, encoding in the platform's default charset. */
+    GroupFormatter(OutputStream out) {
+        this(out, DEFAULT_GROUP_SIZE, 0, Charset.defaultCharset());
+    }
+
+    /** Write MSG as one or more lines of groups. */
+    void writeLine(CharSequence msg) {
+        int n = msg.length();
+        int column = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (i > 0 && i % _groupSize == 0) {
+                int next = Math.min(_groupSize, n - i);
+                if (_lineWidth > 0 && column + 1 + next > _lineWidth) {
+                    putNewline();
+                    column = 0;
+                } else {
+                    putByte(' ');
+                    column += 1;
+                }
+            }
+            putChar(msg.charAt(i));
+            column += 1;
+        }
+        putNewline();
+    }
+
+    /** Return the number of bytes that writeLine would write for a line
+     *  of N characters before the character following DONE, which holds
+     *  the first DONE.length() characters of the line.  If DONE is the
+     *  entire line, the result includes the line terminator. */
+    long bytesBefore(CharSequence done, int n) {
+        Cursor cursor = new Cursor();
+        cursor.advance(done, n, done.length());
+        return cursor.bytes(n);
+    }
+
+    /** A position in a message line as writeLine lays it out, moved
+     *  forward through the line in stretches, so that finding the byte
+     *  offsets of many points in one line takes time linear in its
+     *  length. */
+    final class Cursor {
+
+        /** Move to the start of the next line. */
+        void reset() {
+            _chars = 0;
+            _bytes = 0;
+            _column = 0;
+        }
+
+        /** Move forward to character K of the line of N characters whose
+         *  first K or more characters are in LINE. */
+        void advance(CharSequence line, int n, int k) {
+            for (int i = _chars; i < k; i += 1) {
+                if (i > 0 && i % _groupSize == 0) {
+                    int next = Math.min(_groupSize, n - i);
+                    if (_lineWidth > 0 && _column + 1 + next > _lineWidth) {
+                        _bytes += 2;
+                        _column = 0;
+                    } else {
+                        _bytes += 1;
+                        _column += 1;
+                    }
+                }
+                _bytes += encodedLength(line.charAt(i));
+                _column += 1;
+            }
+            _chars = Math.max(_chars, k);
+        }
+
+        /** Return the number of bytes that writeLine writes for the line
+         *  of N characters before my character, as for bytesBefore. */
+        long bytes(int n) {
+            if (_chars == n) {
+                return _bytes + 2;
+            } else if (_chars > 0 && _chars % _groupSize == 0) {
+                int next = Math.min(_groupSize, n - _chars);
+                return _bytes
+                    + (_lineWidth > 0 && _column + 1 + next > _lineWidth
+                       ? 2 : 1);
+            }
+            return _bytes;
+        }
+
+        /** Number of characters of the line passed. */
+        private int _chars;
+
+        /** Bytes written for those characters and the separators between
+         *  them. */
+        private long _bytes;
+
+        /** Output column following them. */
+        private int _column;
+    }
+
+    /** Pass all buffered output to the underlying stream and flush it. */
+    void flush() {
+        drain(true);
+    }
+
+    /** Return the total number of bytes written so far, including those
+     *  still buffered. */
+    long written() {
+        return _drained + _size;
+    }
+
+    /** Return the number of bytes in the encoding of C. */
+    private int encodedLength(char c) {
+        if (c < ASCII_LIMIT) {
+            return 1;
+        }
+        return String.valueOf(c).getBytes(_charset).length;
+    }
+
+    /** Buffer the encoding of C. */
+    private void putChar(char c) {
+        if (c < ASCII_LIMIT) {
+            putByte(c);
+        } else {
+            for (byte b : String.valueOf(c).getBytes(_charset)) {
+                putByte(b);
+            }
+        }
+    }
+
+    /** Buffer a line terminator. */
+    private void putNewline() {
+        putByte('\r');
+        putByte('\n');
+    }
+
+    /** Buffer the byte B. */
+    private void putByte(int b) {
+        if (_size == _buffer.length) {
+            drain(false);
+        }
+        _buffer[_size] = (byte) b;
+        _size += 1;
+    }
+
+    /** Pass the contents of _buffer to _out, and flush _out iff
+     *  FLUSH. */
+    private void drain(boolean flush) {
+        if (_size == 0 && !flush) {
+            return;
+        }
+        Events.Flush event = new Events.Flush();
+        event.begin();
+        int size = _size;
+        try {
+            _out.write(_buffer, 0, size);
+            if (flush) {
+                _out.flush();
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _drained += size;
+        _size = 0;
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = size;
+            event.forced = flush;
+            event.commit();
+        }
+    }
+
+    /** Number of letters in a group by default. */
+    static final int DEFAULT_GROUP_SIZE = 5;
+
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Characters below this are written as single bytes. */
+    private static final int ASCII_LIMIT = 0x80;
+
+    /** Destination of my output. */
+    private final OutputStream _out;
+
+    /** Letters per group. */
+    private final int _groupSize;
+
+    /** Maximum characters per output line, or <= 0 for no limit. */
+    private final int _lineWidth;
+
+    /** Encoding of non-ASCII characters. */
+    private final Charset _charset;
+
+    /** Output not yet passed to _out. */
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+
+    /** Number of bytes in _buffer. */
+    private int _size;
+
+    /** Number of bytes already passed to _out. */
+    private long _drained;
+}
@@ -0,0 +1,73 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the GroupFormatter class.
+ *  @author Yash Pansari
+ */
+public class GroupFormatterTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the output of a formatter with GROUPSIZE and LINEWIDTH
+     *  given the lines MSGS. */
+    private String format(int groupSize, int lineWidth, String... msgs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GroupFormatter formatter =
+            new GroupFormatter(out, groupSize, lineWidth,
+                               StandardCharsets.UTF_8);
+        for (String msg : msgs) {
+            formatter.writeLine(msg);
+        }
+        assertEquals(0, out.size());
+        formatter.flush();
+        assertEquals(out.size(), formatter.written());
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testDefaultGroups() {
+        assertEquals("IHBDQ QMTQZ\r\nHELLO WORLD\r\n\r\nABCDE F\r\n",
+                     format(5, 0, "IHBDQQMTQZ", "HELLOWORLD", "", "ABCDEF"));
+    }
+
+    @Test
+    public void testGroupSizeAndWidth() {
+        assertEquals("ABCD EFGH\r\nIJ\r\n", format(4, 9, "ABCDEFGHIJ"));
+        assertEquals("ABC\r\nDEF\r\n", format(3, 2, "ABCDEF"));
+        assertEquals("A B C\r\n", format(1, 5, "ABC"));
+    }
+
+    @Test
+    public void testNonAscii() {
+        assertEquals("\u00e9\u00e8a\r\n", format(5, 0, "\u00e9\u00e8a"));
+    }
+
+    @Test
+    public void testBytesBefore() {
+        GroupFormatter layout =
+            new GroupFormatter(new ByteArrayOutputStream(), 4, 9,
+                               StandardCharsets.UTF_8);
+        String msg = "ABCDEFGHIJ";
+        String out = "ABCD EFGH\r\nIJ\r\n";
+        assertEquals(0, layout.bytesBefore("", 10));
+        assertEquals(out.indexOf('E'), layout.bytesBefore("ABCD", 10));
+        assertEquals(out.indexOf('I'), layout.bytesBefore("ABCDEFGH", 10));
+        assertEquals(out.indexOf('J'), layout.bytesBefore("ABCDEFGHI", 10));
+        assertEquals(out.length(), layout.bytesBefore(msg, 10));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadGroupSize() {
+        format(0, 0, "A");
+    }
+
+}
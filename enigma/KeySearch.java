@@ -0,0 +1,518 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** An exhaustive search of the KeySpace of a configuration for the keys
+ *  that best decrypt a ciphertext, split into numbered work units that
+ *  any number of local worker processes share through a job directory.
+ *  A worker claims a unit by creating its lock file, checkpoints its
+ *  progress and best keys periodically, and publishes the unit's best
+ *  keys by atomically renaming them into place.  A unit whose worker has
+ *  died is reclaimed by the next worker to find it, starting from its
+ *  last checkpoint, so a killed search resumes where it left off.  The
+ *  merge step combines the published units.
+ *
+ *  Keys are scored by the number of characters matching a crib at the
+ *  start of the message, if one is given, and otherwise by the index of
+ *  coincidence of the decryption.
+ *  @author Yash Pansari
+ */
+public final class KeySearch {
+
+    /** Run the command in ARGS:
+     *      init [--crib=TEXT] [--top=K] [--unit=N] [--rings] DIR CONFIG
+     *           CIPHERTEXT
+     *      work DIR
+     *      merge DIR
+     *  init creates the job directory DIR for a search of the keys of the
+     *  configuration CONFIG (with ring settings if --rings) for the best K
+     *  (default 10) decryptions of the file CIPHERTEXT, in units of N
+     *  keys.  work processes units of the job until none is left; run it
+     *  in as many processes as desired.  merge prints the best keys found,
+     *  as settings lines preceded by their scores.  Exits normally if there
+     *  are no errors, and otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options = new CommandArgs(OPTIONS, args);
+            List<String> words = options.get("--");
+            if (!options.ok() || words.size() != arity(words.get(0))) {
+                throw error("Usage: java enigma.KeySearch (init [--crib=TEXT] "
+                            + "[--top=K] [--unit=N] [--rings] DIR CONFIG "
+                            + "CIPHERTEXT | work DIR | merge DIR)");
+            }
+            Path dir = Path.of(words.get(1));
+            switch (words.get(0)) {
+            case "init":
+                init(dir, words.get(2), words.get(3), options);
+                break;
+            case "work":
+                new KeySearch(dir).work();
+                break;
+            default:
+                new KeySearch(dir).merge(System.out);
+                break;
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the number of words expected with COMMAND, or -1 if it is
+     *  not a command. */
+    private static int arity(String command) {
+        switch (command) {
+        case "init":
+            return 4;
+        case "work": case "merge":
+            return 2;
+        default:
+            return -1;
+        }
+    }
+
+    /** Create the job directory DIR for a search of the configuration file
+     *  CONFIG for decryptions of CIPHERTEXT, as given by OPTIONS.  The job
+     *  is checked completely before anything is written. */
+    static void init(Path dir, String config, String cipher,
+                     CommandArgs options) {
+        Properties job = new Properties();
+        job.setProperty(CONFIG, Path.of(config).toAbsolutePath().toString());
+        job.setProperty(CIPHER, Path.of(cipher).toAbsolutePath().toString());
+        job.setProperty(TOP, options.contains("--top")
+                        ? options.get("--top").get(0) : "10");
+        job.setProperty(UNIT, options.contains("--unit")
+                        ? options.get("--unit").get(0)
+                        : Long.toString(DEFAULT_UNIT));
+        job.setProperty(RINGS, Boolean.toString(options.contains("--rings")));
+        if (options.contains("--crib")) {
+            job.setProperty(CRIB, options.get("--crib").get(0));
+        }
+        KeySearch search = new KeySearch(dir, job);
+        try {
+            Files.createDirectories(dir.resolve(UNITS));
+            if (Files.exists(dir.resolve(JOB))) {
+                throw error("%s already holds a job", dir);
+            }
+            Path temp = dir.resolve(JOB + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                job.store(out, "enigma key search");
+            }
+            Files.move(temp, dir.resolve(JOB),
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not create job in %s: %s", dir,
+                        excp.getMessage());
+        }
+        System.out.printf("%d keys in %d units%n", search._space.size(),
+                          search._units);
+    }
+
+    /** The search described by the job directory DIR. */
+    KeySearch(Path dir) {
+        this(dir, load(dir));
+    }
+
+    /** The search described by JOB in the job directory DIR. */
+    private KeySearch(Path dir, Properties job) {
+        _unitDir = dir.resolve(UNITS);
+        try {
+            _top = Integer.parseInt(job.getProperty(TOP));
+            _unit = Long.parseLong(job.getProperty(UNIT));
+        } catch (NumberFormatException excp) {
+            throw error("malformed job in %s", dir);
+        }
+        if (_top < 1 || _unit < 1) {
+            throw error("top and unit must be positive");
+        }
+        _machine = Main.readConfig(job.getProperty(CONFIG));
+        _space = new KeySpace(_machine,
+                              Boolean.parseBoolean(job.getProperty(RINGS)));
+        _units = (_space.size() + _unit - 1) / _unit;
+        _cipher = readCipher(job.getProperty(CIPHER));
+        String crib = job.getProperty(CRIB);
+        if (crib != null) {
+            for (char ch : crib.toCharArray()) {
+                if (!_machine.alphabet().contains(ch)) {
+                    throw error("crib not in alphabet");
+                }
+            }
+        }
+        _crib = crib;
+    }
+
+    /** Return the job in the job directory DIR. */
+    private static Properties load(Path dir) {
+        Properties job = new Properties();
+        try (InputStream in = Files.newInputStream(dir.resolve(JOB))) {
+            job.load(in);
+        } catch (IOException excp) {
+            throw error("no job in %s", dir);
+        }
+        return job;
+    }
+
+    /** Process units of my job until none is left unclaimed. */
+    void work() {
+        long pid = ProcessHandle.current().pid();
+        long first = pid % Math.max(1, _units);
+        for (long k = 0; k < _units; k += 1) {
+            long unit = (first + k) % _units;
+            if (!Files.exists(result(unit)) && claim(unit)) {
+                try {
+                    if (!Files.exists(result(unit))) {
+                        search(unit);
+                    }
+                } finally {
+                    if (owned(lock(unit))) {
+                        delete(lock(unit));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Print the best keys in the published units on OUT, reporting how
+     *  many units are not yet published. */
+    void merge(PrintStream out) {
+        PriorityQueue<long[]> best = new PriorityQueue<>(WORST_FIRST);
+        long missing = 0;
+        for (long unit = 0; unit < _units; unit += 1) {
+            Checkpoint found = Checkpoint.read(result(unit));
+            if (found == null) {
+                missing += 1;
+            } else {
+                for (long[] entry : found.best) {
+                    offer(best, entry[0], entry[1]);
+                }
+            }
+        }
+        if (missing > 0) {
+            System.err.printf("%d of %d units not yet searched%n", missing,
+                              _units);
+        }
+        ArrayList<long[]> sorted = new ArrayList<>(best);
+        sorted.sort(WORST_FIRST.reversed());
+        for (long[] entry : sorted) {
+            out.printf("%d %s%n", entry[0], _space.settings(entry[1]));
+        }
+    }
+
+    /** Search UNIT from its last checkpoint, if any, and publish its best
+     *  keys. */
+    private void search(long unit) {
+        long from = unit * _unit;
+        long to = Math.min(_space.size(), from + _unit);
+        PriorityQueue<long[]> best = new PriorityQueue<>(WORST_FIRST);
+        Checkpoint saved = Checkpoint.read(progress(unit));
+        if (saved != null) {
+            from = Math.max(from, saved.next);
+            for (long[] entry : saved.best) {
+                offer(best, entry[0], entry[1]);
+            }
+        }
+        long checkpoint = System.currentTimeMillis();
+        for (long key = from; key < to; key += 1) {
+            _space.apply(_machine, key);
+            offer(best, score(_machine.convert(_cipher)), key);
+            if ((key & CHECK_MASK) == CHECK_MASK
+                && System.currentTimeMillis() - checkpoint
+                   >= CHECKPOINT_MILLIS) {
+                if (!owned(lock(unit))) {
+                    return;
+                }
+                write(progress(unit), key + 1, best);
+                checkpoint = System.currentTimeMillis();
+            }
+        }
+        write(result(unit), to, best);
+        delete(progress(unit));
+    }
+
+    /** Return the score of the decryption PLAIN. */
+    private long score(String plain) {
+        if (_crib != null) {
+            int n = Math.min(_crib.length(), plain.length());
+            long result = 0;
+            for (int i = 0; i < n; i += 1) {
+                if (_crib.charAt(i) == plain.charAt(i)) {
+                    result += 1;
+                }
+            }
+            return result;
+        }
+        Alphabet alphabet = _machine.alphabet();
+        int[] counts = new int[alphabet.size()];
+        for (int i = 0; i < plain.length(); i += 1) {
+            counts[alphabet.toInt(plain.charAt(i))] += 1;
+        }
+        long result = 0;
+        for (int count : counts) {
+            result += (long) count * (count - 1);
+        }
+        return result;
+    }
+
+    /** Add KEY with SCORE to BEST if it is among my _top best. */
+    private void offer(PriorityQueue<long[]> best, long score, long key) {
+        long[] entry = { score, key };
+        if (best.size() < _top) {
+            best.add(entry);
+        } else if (WORST_FIRST.compare(entry, best.peek()) > 0) {
+            best.poll();
+            best.add(entry);
+        }
+    }
+
+    /** Try to claim UNIT for this process, reclaiming it if the process
+     *  holding it has died.  Returns true iff successful.  A reclaimed
+     *  lock is moved aside and checked again, since another worker may
+     *  have reclaimed it first; if so, it is put back.  A worker that
+     *  nevertheless finds it has lost its lock stops at its next
+     *  checkpoint. */
+    private boolean claim(long unit) {
+        Path lock = lock(unit);
+        byte[] pid = Long.toString(ProcessHandle.current().pid())
+            .getBytes(StandardCharsets.US_ASCII);
+        String owner;
+        try {
+            Files.write(lock, pid, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException excp) {
+            owner = owner(lock);
+            if (owner == null || !abandoned(lock, owner)) {
+                return false;
+            }
+        } catch (IOException excp) {
+            throw error("could not lock unit %d: %s", unit,
+                        excp.getMessage());
+        }
+        Path stale = _unitDir.resolve(unit + ".stale."
+                                      + ProcessHandle.current().pid());
+        try {
+            Files.move(lock, stale, StandardCopyOption.ATOMIC_MOVE);
+            if (!owner.equals(owner(stale))) {
+                try {
+                    Files.createLink(lock, stale);
+                } finally {
+                    Files.delete(stale);
+                }
+                return false;
+            }
+            Files.delete(stale);
+            Files.write(lock, pid, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return the contents of the lock file LOCK, or null if it cannot be
+     *  read. */
+    private static String owner(Path lock) {
+        try {
+            return Files.readString(lock, StandardCharsets.US_ASCII);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Return true iff the lock file LOCK, which contains OWNER, belongs
+     *  to a process that is no longer running.  A lock that does not
+     *  (yet) name a process is abandoned only once it is STALE_MILLIS
+     *  old. */
+    private static boolean abandoned(Path lock, String owner) {
+        try {
+            return !ProcessHandle.of(Long.parseLong(owner.trim()))
+                .map(ProcessHandle::isAlive).orElse(false).booleanValue();
+        } catch (NumberFormatException excp) {
+            try {
+                return System.currentTimeMillis()
+                    - Files.getLastModifiedTime(lock).toMillis()
+                    > STALE_MILLIS;
+            } catch (IOException excp2) {
+                return false;
+            }
+        }
+    }
+
+    /** Return true iff the lock file LOCK names this process. */
+    private static boolean owned(Path lock) {
+        return Long.toString(ProcessHandle.current().pid())
+            .equals(owner(lock));
+    }
+
+    /** Atomically replace the file FILE with a Checkpoint whose next key
+     *  is NEXT and whose best keys are BEST. */
+    private void write(Path file, long next, PriorityQueue<long[]> best) {
+        StringBuilder text = new StringBuilder();
+        text.append(next).append('\n');
+        for (long[] entry : best) {
+            text.append(entry[0]).append(' ').append(entry[1]).append('\n');
+        }
+        Path temp = _unitDir.resolve(file.getFileName() + ".tmp."
+                                     + ProcessHandle.current().pid());
+        try {
+            Files.writeString(temp, text, StandardCharsets.US_ASCII);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** The contents of a unit's checkpoint or result file: a line holding
+     *  the next key to search, followed by lines "SCORE KEY" for the best
+     *  keys so far. */
+    private static final class Checkpoint {
+
+        /** Return the contents of FILE, or null if it does not exist. */
+        static Checkpoint read(Path file) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+            } catch (NoSuchFileException excp) {
+                return null;
+            } catch (IOException excp) {
+                throw error("could not read %s", file);
+            }
+            Checkpoint result = new Checkpoint();
+            try {
+                result.next = Long.parseLong(lines.get(0));
+                for (String line : lines.subList(1, lines.size())) {
+                    String[] fields = line.split(" ");
+                    result.best.add(new long[] {
+                        Long.parseLong(fields[0]), Long.parseLong(fields[1])
+                    });
+                }
+            } catch (NumberFormatException
+                     | IndexOutOfBoundsException excp) {
+                throw error("malformed %s", file);
+            }
+            return result;
+        }
+
+        /** The next key to search. */
+        private long next;
+
+        /** The best (score, key) pairs found. */
+        private final ArrayList<long[]> best = new ArrayList<>();
+    }
+
+    /** Return the message in the file NAME, omitting whitespace. */
+    private String readCipher(String name) {
+        String text;
+        try {
+            text = Files.readString(Path.of(name));
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+        StringBuilder result = new StringBuilder();
+        for (char ch : text.toCharArray()) {
+            if (Character.isWhitespace(ch)) {
+                continue;
+            }
+            if (!_machine.alphabet().contains(ch)) {
+                throw error("ciphertext not in alphabet");
+            }
+            result.append(ch);
+        }
+        return result.toString();
+    }
+
+    /** Delete FILE, if it exists. */
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException excp) {
+            throw error("could not delete %s", file);
+        }
+    }
+
+    /** Return the lock file of UNIT. */
+    private Path lock(long unit) {
+        return _unitDir.resolve(unit + ".lock");
+    }
+
+    /** Return the checkpoint file of UNIT. */
+    private Path progress(long unit) {
+        return _unitDir.resolve(unit + ".progress");
+    }
+
+    /** Return the published results of UNIT. */
+    private Path result(long unit) {
+        return _unitDir.resolve(unit + ".result");
+    }
+
+    /** Orders (score, key) pairs from worst to best: by score, and among
+     *  equal scores, larger keys first. */
+    private static final Comparator<long[]> WORST_FIRST =
+        Comparator.<long[]>comparingLong(e -> e[0])
+        .thenComparing(Comparator.<long[]>comparingLong(e -> e[1])
+                       .reversed());
+
+    /** The options accepted by main. */
+    static final String OPTIONS =
+        "--crib=(.+) --top=(\\d+) --unit=(\\d+) --rings --=(.*){2,4}";
+
+    /** Names in the job directory and job file. */
+    private static final String JOB = "job", UNITS = "units",
+        CONFIG = "config", CIPHER = "ciphertext", CRIB = "crib",
+        TOP = "top", UNIT = "unit", RINGS = "rings";
+
+    /** Default number of keys in a unit. */
+    private static final long DEFAULT_UNIT = 1 << 20;
+
+    /** Minimum time between checkpoints. */
+    private static final long CHECKPOINT_MILLIS = 5000;
+
+    /** The clock is checked after keys whose low bits are all set in
+     *  this mask. */
+    private static final long CHECK_MASK = (1 << 10) - 1;
+
+    /** Age at which a lock that names no process is abandoned. */
+    private static final long STALE_MILLIS = 60000;
+
+    /** The job's directory of unit files. */
+    private final Path _unitDir;
+
+    /** The machine tried on each key. */
+    private final Machine _machine;
+
+    /** The keys searched. */
+    private final KeySpace _space;
+
+    /** Number of keys in a unit, and number of units. */
+    private final long _unit, _units;
+
+    /** Number of best keys kept. */
+    private final int _top;
+
+    /** The ciphertext. */
+    private final String _cipher;
+
+    /** Expected start of the plaintext, or null. */
+    private final String _crib;
+}
@@ -0,0 +1,183 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import ucb.util.CommandArgs;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the KeySearch class.
+ *  @author Yash Pansari
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTS ***** */
+
+    /** A four-slot configuration with six rotor orders. */
+    private static final String CONFIG = String.join("\n",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        " 4 2",
+        " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+        " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+        " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+        " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+        "           (RX) (SZ) (TV)", "");
+
+    /** The plaintext encrypted for the search, which starts with CRIB. */
+    private static final String
+        PLAIN = "FROMHISSHOULDERHIAWATHATOOKTHECAMERA",
+        CRIB = "FROMHISSHOULDER";
+
+    /** Number of keys in a unit. */
+    private static final int UNIT = 20000;
+
+    /** Remove DIR and everything in it. */
+    private static void remove(File dir) {
+        File[] files = dir.listFiles();
+        for (int k = 0; files != null && k < files.length; k += 1) {
+            remove(files[k]);
+        }
+        dir.delete();
+    }
+
+    /** Return the options of an init command on the job directory JOB, for
+     *  the configuration file CONFIG and the ciphertext file CIPHER. */
+    private CommandArgs init(Path job, Path config, Path cipher) {
+        return new CommandArgs(KeySearch.OPTIONS, new String[] {
+                "--crib=" + CRIB, "--top=3", "--unit=" + UNIT, "init",
+                job.toString(), config.toString(), cipher.toString() });
+    }
+
+    /** Return the lines printed by merging the job in JOB. */
+    private List<String> merge(Path job) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new KeySearch(job).merge(new PrintStream(bytes));
+        ArrayList<String> result = new ArrayList<>();
+        for (String line : bytes.toString().split("\n")) {
+            if (!line.isEmpty()) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testSearch() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-search");
+        try {
+            checkSearch(dir);
+        } finally {
+            remove(dir.toFile());
+        }
+    }
+
+    /** Run a search in the directory DIR, with interruptions. */
+    private void checkSearch(Path dir) throws IOException {
+        Path config = dir.resolve("search.conf");
+        Files.writeString(config, CONFIG);
+        Machine machine = Main.readConfig(config.toString());
+        KeySpace space = new KeySpace(machine, false);
+        long key = 3 * UNIT + 1234;
+        Main.setUp(machine, space.settings(key));
+        Path cipher = dir.resolve("cipher.txt");
+        Files.writeString(cipher, machine.convert(PLAIN));
+
+        Path job = dir.resolve("job");
+        Path bad = dir.resolve("bad.conf");
+        Files.writeString(bad, "ABC\n");
+        try {
+            KeySearch.init(job, bad.toString(), cipher.toString(),
+                           init(job, bad, cipher));
+            fail("bad configuration accepted");
+        } catch (EnigmaException excp) {
+            assertFalse(Files.exists(job.resolve("job")));
+        }
+        KeySearch.init(job, config.toString(), cipher.toString(),
+                       init(job, config, cipher));
+
+        new KeySearch(job).work();
+        List<String> merged = merge(job);
+        assertEquals(3, merged.size());
+        assertEquals(CRIB.length() + " " + space.settings(key),
+                     merged.get(0));
+
+        Path units = job.resolve("units");
+        Path result = units.resolve("3.result");
+        List<String> saved = Files.readAllLines(result);
+        StringBuilder progress = new StringBuilder();
+        long middle = key - 1;
+        progress.append(middle).append('\n');
+        progress.append(CRIB.length() + 1).append(' ').append(middle - 1)
+            .append('\n');
+        for (String line : saved.subList(1, saved.size())) {
+            if (Long.parseLong(line.split(" ")[1]) < middle) {
+                progress.append(line).append('\n');
+            }
+        }
+        Files.delete(result);
+        Files.writeString(units.resolve("3.progress"), progress);
+        Files.delete(units.resolve("4.result"));
+        Files.writeString(units.resolve("4.lock"),
+                          Long.toString(deadProcess()));
+        Files.delete(units.resolve("5.result"));
+        Files.writeString(units.resolve("5.lock"),
+                          Long.toString(ProcessHandle.current().pid()));
+        new KeySearch(job).work();
+
+        assertFalse(Files.exists(units.resolve("3.progress")));
+        List<String> resumed = merge(job);
+        assertEquals((CRIB.length() + 1) + " " + space.settings(middle - 1),
+                     resumed.get(0));
+        assertEquals(merged.get(0), resumed.get(1));
+        Files.delete(result);
+        assertTrue(Files.exists(units.resolve("4.result")));
+        assertFalse(Files.exists(units.resolve("4.lock")));
+        assertFalse(Files.exists(units.resolve("5.result")));
+        assertTrue(Files.exists(units.resolve("5.lock")));
+        Files.delete(units.resolve("5.lock"));
+        new KeySearch(job).work();
+        assertEquals(merged, merge(job));
+
+        Files.writeString(units.resolve("3.progress"), "junk\n",
+                          StandardCharsets.US_ASCII);
+        Files.delete(result);
+        try {
+            new KeySearch(job).work();
+            fail("malformed checkpoint accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().startsWith("malformed"));
+        }
+    }
+
+    /** Return the process ID of a process that has exited. */
+    private static long deadProcess() throws IOException {
+        Process process = new ProcessBuilder(
+            Path.of(System.getProperty("java.home"), "bin", "java")
+            .toString(), "-version").start();
+        try {
+            process.getInputStream().transferTo(new ByteArrayOutputStream());
+            process.getErrorStream().transferTo(new ByteArrayOutputStream());
+            process.waitFor();
+        } catch (InterruptedException excp) {
+            throw new IOException(excp);
+        }
+        return process.pid();
+    }
+}
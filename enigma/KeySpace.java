@@ -0,0 +1,292 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** The keys of a configured machine, numbered 0 .. size() - 1: every
+ *  choice of rotors for its slots that Main.setUp accepts, every start
+ *  position and, optionally, every ring setting of the rotating rotors,
+ *  with an empty plugboard.  Key numbers are mixed-radix: the rotor order
+ *  is the most significant digit, then the ring settings, then the start
+ *  positions, so consecutive keys usually differ only in position.
+ *  The keys are never materialized: keys() streams their numbers, split
+ *  evenly among threads if the stream is parallel, and each thread may
+ *  rotors(), apply() (to its own Machine) or settings() any of them.
+ *  @author Yash Pansari
+ */
+final class KeySpace {
+
+    /** The key space of MACHINE, whose rotors are those of its
+     *  configuration, including ring settings iff RINGS. */
+    KeySpace(Machine machine, boolean rings) {
+        _alphabet = machine.alphabet();
+        _slots = machine.numRotors();
+        _pawls = machine.numPawls();
+        _rings = rings;
+        _plugboard = new Permutation("", _alphabet);
+        RotorCatalog catalog = machine.catalog();
+        for (String name : catalog.names()) {
+            if (catalog.reflecting(name)) {
+                _reflectors.add(name);
+            } else if (catalog.rotates(name)) {
+                _moving.add(name);
+            } else {
+                _fixed.add(name);
+            }
+        }
+        int fixedSlots = _slots - 1 - _pawls;
+        try {
+            long orders = _reflectors.size();
+            orders = Math.multiplyExact(orders,
+                                        arrangements(_fixed.size(),
+                                                     fixedSlots));
+            orders = Math.multiplyExact(orders,
+                                        arrangements(_moving.size(), _pawls));
+            _orders = orders;
+            _positions = power(_alphabet.size(), _slots - 1);
+            _ringChoices = rings ? power(_alphabet.size(), _pawls) : 1;
+            _size = Math.multiplyExact(Math.multiplyExact(_orders,
+                                                          _ringChoices),
+                                       _positions);
+        } catch (ArithmeticException excp) {
+            throw error("key space too large");
+        }
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the number of keys with each rotor order. */
+    long keysPerOrder() {
+        return _ringChoices * _positions;
+    }
+
+    /** Return a sequential stream of my keys, in order.  Calling
+     *  parallel() on it divides them evenly among the common pool. */
+    LongStream keys() {
+        return keys(0, _size);
+    }
+
+    /** Return a sequential stream of the keys FROM .. TO - 1. */
+    LongStream keys(long from, long to) {
+        return StreamSupport.longStream(spliterator(from, to), false);
+    }
+
+    /** Return a spliterator over the keys FROM .. TO - 1. */
+    Spliterator.OfLong spliterator(long from, long to) {
+        if (from < 0 || from > to || to > _size) {
+            throw error("keys %d .. %d not in key space", from, to);
+        }
+        return new Keys(from, to);
+    }
+
+    /** Return the names of the rotors, reflector first, in the rotor
+     *  order of KEY. */
+    String[] rotors(long key) {
+        long order = key / keysPerOrder();
+        String[] result = new String[_slots];
+        int fixedSlots = _slots - 1 - _pawls;
+        long perMoving = arrangements(_moving.size(), _pawls);
+        long perFixed = arrangements(_fixed.size(), fixedSlots);
+        long moving = order % perMoving;
+        order /= perMoving;
+        long fixed = order % perFixed;
+        order /= perFixed;
+        result[0] = _reflectors.get((int) order);
+        unrank(_fixed, fixed, result, 1, fixedSlots);
+        unrank(_moving, moving, result, 1 + fixedSlots, _pawls);
+        return result;
+    }
+
+    /** Set MACHINE, which must have the configuration I was made from, to
+     *  KEY.  Rotors are only re-inserted if the rotor order differs from
+     *  MACHINE's current one. */
+    void apply(Machine machine, long key) {
+        String[] names = rotors(key);
+        boolean same = machine.hasRotors();
+        for (int i = 0; same && i < _slots; i += 1) {
+            same = machine.getRotor(i).name().equals(names[i]);
+        }
+        if (!same) {
+            machine.insertRotors(names);
+        }
+        int size = _alphabet.size();
+        long rest = key % keysPerOrder();
+        long ring = rest / _positions;
+        long posn = rest % _positions;
+        for (int i = _slots - 1; i > 0; i -= 1) {
+            Rotor rotor = machine.getRotor(i);
+            if (_rings && i >= _slots - _pawls) {
+                rotor.setRing((int) (ring % size));
+                ring /= size;
+            } else {
+                rotor.setRing(0);
+            }
+        }
+        char[] setting = new char[_slots - 1];
+        for (int i = _slots - 1; i > 0; i -= 1) {
+            setting[i - 1] = _alphabet.toChar((int) (posn % size));
+            posn /= size;
+        }
+        machine.setRotors(new String(setting));
+        if (machine.plugboard() != _plugboard) {
+            machine.setPlugboard(_plugboard);
+        }
+    }
+
+    /** Return the settings line (as for Main.setUp) selecting KEY. */
+    String settings(long key) {
+        String[] names = rotors(key);
+        int size = _alphabet.size();
+        long rest = key % keysPerOrder();
+        long ring = rest / _positions;
+        long posn = rest % _positions;
+        int[] rings = new int[_slots];
+        int[] posns = new int[_slots];
+        for (int i = _slots - 1; i > 0; i -= 1) {
+            if (_rings && i >= _slots - _pawls) {
+                rings[i] = (int) (ring % size);
+                ring /= size;
+            }
+            posns[i] = (int) (posn % size);
+            posn /= size;
+        }
+        StringBuilder result = new StringBuilder("*");
+        for (String name : names) {
+            result.append(' ').append(name);
+        }
+        result.append(' ');
+        for (int i = 1; i < _slots; i += 1) {
+            result.append(_alphabet.toChar(_alphabet.wrap(posns[i]
+                                                          + rings[i])));
+        }
+        if (_rings) {
+            result.append(' ');
+            for (int i = 1; i < _slots; i += 1) {
+                result.append(_alphabet.toChar(rings[i]));
+            }
+        }
+        return result.toString();
+    }
+
+    /** A range of key numbers, which splits in half. */
+    private static final class Keys implements Spliterator.OfLong {
+
+        /** The keys FROM .. TO - 1. */
+        Keys(long from, long to) {
+            _next = from;
+            _to = to;
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            long mid = _next + (_to - _next) / 2;
+            if (mid == _next) {
+                return null;
+            }
+            Keys result = new Keys(_next, mid);
+            _next = mid;
+            return result;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (_next >= _to) {
+                return false;
+            }
+            action.accept(_next);
+            _next += 1;
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            long to = _to;
+            for (long key = _next; key < to; key += 1) {
+                action.accept(key);
+            }
+            _next = to;
+        }
+
+        @Override
+        public long estimateSize() {
+            return _to - _next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SORTED | SIZED | SUBSIZED | NONNULL
+                | IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super Long> getComparator() {
+            return null;
+        }
+
+        /** The next key, and the key following the last. */
+        private long _next, _to;
+    }
+
+    /** Store in RESULT[START .. START + K - 1] the arrangement numbered
+     *  RANK of K of the names in NAMES. */
+    private static void unrank(List<String> names, long rank, String[] result,
+                               int start, int k) {
+        ArrayList<String> left = new ArrayList<>(names);
+        for (int i = 0; i < k; i += 1) {
+            long below = arrangements(left.size() - 1, k - i - 1);
+            int j = (int) (rank / below);
+            rank %= below;
+            result[start + i] = left.remove(j);
+        }
+    }
+
+    /** Return the number of ordered choices of K of N things. */
+    private static long arrangements(int n, int k) {
+        long result = 1;
+        for (int i = 0; i < k; i += 1) {
+            result = Math.multiplyExact(result, (long) Math.max(0, n - i));
+        }
+        return result;
+    }
+
+    /** Return B to the power E. */
+    private static long power(int b, int e) {
+        long result = 1;
+        for (int i = 0; i < e; i += 1) {
+            result = Math.multiplyExact(result, (long) b);
+        }
+        return result;
+    }
+
+    /** The alphabet of my machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of slots and pawls of my machine. */
+    private final int _slots, _pawls;
+
+    /** True iff my keys include ring settings. */
+    private final boolean _rings;
+
+    /** Names of the available rotors of each kind. */
+    private final ArrayList<String> _reflectors = new ArrayList<>(),
+        _fixed = new ArrayList<>(), _moving = new ArrayList<>();
+
+    /** Number of rotor orders, ring choices and start positions. */
+    private final long _orders, _ringChoices, _positions;
+
+    /** The empty plugboard. */
+    private final Permutation _plugboard;
+
+    /** Number of keys. */
+    private final long _size;
+}
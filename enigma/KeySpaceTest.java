@@ -0,0 +1,99 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Spliterator;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the KeySpace class.
+ *  @author Yash Pansari
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    /** Return a four-slot machine with two pawls, two reflectors, one
+     *  fixed rotor and three moving rotors. */
+    private Machine machine() {
+        return TestUtils.navalMachine(4, 2, "B", "C", "Beta", "I", "II",
+                                      "III");
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(2 * 1 * 6 * 26 * 26 * 26,
+                     new KeySpace(machine(), false).size());
+        assertEquals(2L * 6 * 26 * 26 * 26 * 26 * 26,
+                     new KeySpace(machine(), true).size());
+    }
+
+    @Test
+    public void testApplyMatchesSettings() {
+        Random random = new Random(61);
+        for (boolean rings : new boolean[] {false, true}) {
+            Machine mach = machine();
+            KeySpace space = new KeySpace(mach, rings);
+            for (int k = 0; k < 50; k += 1) {
+                long key = Math.floorMod(random.nextLong(), space.size());
+                space.apply(mach, key);
+                Machine ref = machine();
+                Main.setUp(ref, space.settings(key));
+                assertEquals(space.settings(key),
+                             ref.convert("HIAWATHAMIGHTYCAMERAMAN"),
+                             mach.convert("HIAWATHAMIGHTYCAMERAMAN"));
+            }
+        }
+    }
+
+    @Test
+    public void testOrders() {
+        KeySpace space = new KeySpace(machine(), false);
+        long perOrder = space.keysPerOrder();
+        ArrayList<String> seen = new ArrayList<>();
+        for (long order = 0; order < space.size() / perOrder; order += 1) {
+            String names = String.join(" ", space.rotors(order * perOrder));
+            assertFalse(names, seen.contains(names));
+            seen.add(names);
+        }
+        assertEquals(12, seen.size());
+        assertEquals("B Beta I II", seen.get(0));
+    }
+
+    @Test
+    public void testKeys() {
+        KeySpace space = new KeySpace(machine(), false);
+        long n = space.size();
+        assertEquals(n, space.keys().parallel().count());
+        assertEquals(n * (n - 1) / 2, space.keys().parallel().sum());
+        assertEquals(n - 1, space.keys().parallel().max().getAsLong());
+        long[] first = space.keys().parallel().limit(3).toArray();
+        assertArrayEquals(new long[] {0, 1, 2}, first);
+        assertEquals(space.keysPerOrder(),
+                     space.keys(0, space.keysPerOrder()).parallel()
+                     .mapToObj(k -> space.rotors(k)[3]).filter("II"::equals)
+                     .count());
+
+        Spliterator.OfLong keys = space.spliterator(10, 21);
+        Spliterator.OfLong prefix = keys.trySplit();
+        assertEquals(5, prefix.estimateSize());
+        assertEquals(6, keys.estimateSize());
+        long[] next = new long[1];
+        assertTrue(keys.tryAdvance((long k) -> next[0] = k));
+        assertEquals(15, next[0]);
+        assertNull(space.spliterator(3, 4).trySplit());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testKeysOutOfRange() {
+        KeySpace space = new KeySpace(machine(), false);
+        space.keys(0, space.size() + 1);
+    }
+}
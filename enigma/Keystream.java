@@ -0,0 +1,117 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** The substitutions that a CompiledEngine performs at successive key
+ *  presses, materialized as a table.  Since the settings of a machine's
+ *  rotating rotors determine their next settings, the settings reached
+ *  from any start run through a tail into a cycle, which for small
+ *  alphabets and few rotors is short.  A keystream holds, for each
+ *  setting t along the tail and one period of the cycle, the output
+ *  character for every input character on the key press made at t, so
+ *  that converting a character is one table lookup with no stepping.
+ *  @author Yash Pansari
+ */
+final class Keystream {
+
+    /** Return the keystream of ENGINE from its current rotor settings,
+     *  leaving those settings unchanged. */
+    static Keystream build(CompiledEngine engine) {
+        int size = engine.size();
+        int states = engine.states();
+        char[] chars = engine.chars();
+        int[] index = new int[states];
+        Arrays.fill(index, -1);
+        int[] settings = new int[states];
+        char[] table = new char[states * size];
+        int start = engine.state();
+        int s = start, length = 0;
+        while (index[s] < 0) {
+            index[s] = length;
+            settings[length] = s;
+            engine.advance();
+            for (int c = 0; c < size; c += 1) {
+                table[length * size + c] = chars[engine.substitute(c)];
+            }
+            s = engine.state();
+            length += 1;
+        }
+        engine.setState(start);
+        return new Keystream(engine.codes(), size, index,
+                             Arrays.copyOf(settings, length),
+                             Arrays.copyOf(table, length * size), index[s]);
+    }
+
+    /** Return the most bytes used by a keystream of an engine whose
+     *  rotors have STATES settings, with an alphabet of SIZE
+     *  characters. */
+    static long bytes(int states, int size) {
+        return (long) states * (2 * Integer.BYTES + size * Character.BYTES);
+    }
+
+    /** A keystream over an alphabet of SIZE characters, whose indices
+     *  are given by CODES (-1 for characters not in it).  It visits the
+     *  settings SETTINGS, whose positions are given by INDEX (-1 for
+     *  those not visited), in order, after the last of which it
+     *  continues at position LOOP.  The conversion of input c at position
+     *  t is TABLE[t * SIZE + c]. */
+    private Keystream(int[] codes, int size, int[] index, int[] settings,
+                      char[] table, int loop) {
+        _codes = codes;
+        _size = size;
+        _index = index;
+        _settings = settings;
+        _table = table;
+        _loop = loop;
+    }
+
+    /** Return my position at which the rotors have settings STATE, as
+     *  returned by CompiledEngine.state(), or -1 if they never do. */
+    int index(int state) {
+        return _index[state];
+    }
+
+    /** Return the settings at position T. */
+    int state(int t) {
+        return _settings[t];
+    }
+
+    /** Replace TEXT[START .. END - 1], whose characters must all be in my
+     *  alphabet, by its conversion starting at position T, and return
+     *  the position following the last character converted. */
+    int convert(char[] text, int start, int end, int t) {
+        int size = _size, length = _settings.length;
+        for (int k = start; k < end; k += 1) {
+            char ch = text[k];
+            int c = ch < _codes.length ? _codes[ch] : -1;
+            if (c < 0) {
+                throw new EnigmaException("message not in alphabet");
+            }
+            text[k] = _table[t * size + c];
+            t += 1;
+            if (t == length) {
+                t = _loop;
+            }
+        }
+        return t;
+    }
+
+    /** Indices of characters in my alphabet, or -1 for characters not in
+     *  it. */
+    private final int[] _codes;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** The position of each setting, or -1. */
+    private final int[] _index;
+
+    /** The settings at each position. */
+    private final int[] _settings;
+
+    /** The conversions at each position. */
+    private final char[] _table;
+
+    /** The position following the last. */
+    private final int _loop;
+}
@@ -1,8 +1,11 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 
 import static enigma.EnigmaException.*;
+import static enigma.Metrics.METRICS;
 
 /** Class that represents a complete enigma machine.
  *  @author Yash Pansari
@@ -14,10 +17,51 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, allRotors, Stepping.ENIGMA);
+    }
+
+    /** A new machine as for Machine(ALPHA, NUMROTORS, PAWLS, ALLROTORS),
+     *  whose rotors advance according to STEPPING. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            Collection<Rotor> allRotors, Stepping stepping) {
+        this(alpha, numRotors, pawls, new RotorCatalog(alpha, allRotors),
+             stepping);
+    }
+
+    /** A new machine as for Machine(ALPHA, NUMROTORS, PAWLS, ALLROTORS,
+     *  STEPPING), whose available rotors are those in CATALOG. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorCatalog catalog,
+            Stepping stepping) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors.toArray(new Rotor[allRotors.size()]);
+        _catalog = catalog;
+        _stepping = stepping;
+    }
+
+    /** Return a new machine with my alphabet, slots, pawls and plugboard,
+     *  and copies of all my rotors in their current states and slots.  The
+     *  copy may be used independently of (and concurrently with) me. */
+    Machine copy() {
+        Machine result =
+            new Machine(_alphabet, _numRotors, _pawls, _catalog.copy(),
+                        _stepping);
+        if (_rotors != null) {
+            result._rotors = new Rotor[_numRotors];
+            for (int k = 0; k < _numRotors; k += 1) {
+                result._rotors[k] = result._catalog.get(_rotors[k].name());
+            }
+        }
+        result._plugboard = _plugboard;
+        result._plugboards.addAll(_plugboards);
+        result._plugboardHandles.putAll(_plugboardHandles);
+        if (_rotors != null) {
+            result.prepare();
+            if (_engineKind != null) {
+                result.useEngine(_engineKind);
+            }
+        }
+        return result;
     }
 
     /** Return the number of rotor slots I have. */
@@ -30,6 +74,21 @@ class Machine {
         return _pawls;
     }
 
+    /** Return my available rotors. */
+    RotorCatalog catalog() {
+        return _catalog;
+    }
+
+    /** Return the rule by which my rotors advance. */
+    Stepping stepping() {
+        return _stepping;
+    }
+
+    /** Return true iff rotors have been inserted in my slots. */
+    boolean hasRotors() {
+        return _rotors != null;
+    }
+
     /** Return Rotor #K, where Rotor #0 is the reflector, and Rotor
      *  #(numRotors()-1) is the fast Rotor.  Modifying this Rotor has
      *  undefined results. */
@@ -50,16 +109,37 @@ class Machine {
             throw new EnigmaException("wrong number of rotors");
         }
         for (int i = 0; i < rotors.length; i++) {
-            for (Rotor rotor:_allRotors) {
-                if (rotor.name().equals(rotors[i])) {
-                    _rotors[i] = rotor;
-                    rotor.setNotches(rotor.old());
-                }
-            }
+            _rotors[i] = _catalog.get(rotors[i]);
             if (_rotors[i] == null) {
-                throw new EnigmaException(rotors[i] + " has been misnamed.");
+                throw error("%s has been misnamed.", rotors[i]);
             }
+            _rotors[i].setRing(0);
+        }
+        prepare();
+    }
+
+    /** Set my rotor slots to ROTORS, which must be numRotors() of my
+     *  available rotors, as returned by getRotor.  Their ring settings
+     *  are reset to 0. */
+    void insertRotors(Rotor[] rotors) {
+        if (rotors.length != _numRotors) {
+            throw new EnigmaException("wrong number of rotors");
+        }
+        _rotors = rotors.clone();
+        for (Rotor rotor : _rotors) {
+            rotor.setRing(0);
+        }
+        prepare();
+    }
+
+    /** Set the rotor in each slot i > 0 to setting POSNS[i] and ring
+     *  setting RINGS[i], given as indices into my alphabet. */
+    void setRotors(int[] posns, int[] rings) {
+        for (int i = 1; i < _numRotors; i += 1) {
+            _rotors[i].setRing(rings[i]);
+            place(i, posns[i]);
         }
+        moved();
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -74,8 +154,261 @@ class Machine {
             if (!_alphabet.contains(settingI)) {
                 throw new EnigmaException("The setting is not on the wheel.");
             }
-            _rotors[i].set(settingI);
+            place(i, _alphabet.toInt(settingI));
+        }
+        moved();
+    }
+
+    /** Return my current state, encoded as a single value: the settings
+     *  and ring settings of my rotors and a handle on my plugboard,
+     *  combined as the digits of a mixed-radix number.  Equal machine
+     *  states (for the same inserted rotors) have equal encodings, so the
+     *  result may serve as a hash key.  Only possible if stateWords() is
+     *  1. */
+    long snapshot() {
+        if (_stateSpan < 0) {
+            throw error("machine state needs %d words", stateWords());
+        }
+        int handle = plugboardHandle();
+        if (handle > Long.MAX_VALUE / _stateSpan - 1) {
+            throw error("too many plugboards to encode machine state");
+        }
+        long result = handle;
+        int size = _alphabet.size();
+        for (int i = 1; i < _numRotors; i += 1) {
+            result = result * size + _rotors[i].posn();
+        }
+        for (int slot : _ringSlots) {
+            result = result * size + _rotors[slot].ring();
+        }
+        return result;
+    }
+
+    /** Restore the state encoded in STATE by snapshot(), which must have
+     *  been returned while my current rotors were inserted. */
+    void restore(long state) {
+        int size = _alphabet.size();
+        for (int k = _ringSlots.length - 1; k >= 0; k -= 1) {
+            _rotors[_ringSlots[k]].setRing((int) (state % size));
+            state /= size;
+        }
+        for (int i = _numRotors - 1; i > 0; i -= 1) {
+            place(i, (int) (state % size));
+            state /= size;
+        }
+        setPlugboard(_plugboards.get((int) state));
+        moved();
+    }
+
+    /** Return the number of longs needed to hold my encoded state, which
+     *  depends on my alphabet size and inserted rotors. */
+    int stateWords() {
+        if (_stateSpan >= 0) {
+            return 1;
+        }
+        return 1 + (_stateDigits + _digitsPerWord - 1) / _digitsPerWord;
+    }
+
+    /** Store my current state in the first stateWords() elements of
+     *  STATE: a plugboard handle followed by the digits of snapshot(),
+     *  packed as many to a word as fit. */
+    void snapshot(long[] state) {
+        int size = _alphabet.size();
+        state[0] = plugboardHandle();
+        int word = 1, digits = 0;
+        long value = 0;
+        for (int d = 0; d < _stateDigits; d += 1) {
+            value = value * size + stateDigit(d);
+            digits += 1;
+            if (digits == _digitsPerWord || d == _stateDigits - 1) {
+                state[word] = value;
+                word += 1;
+                digits = 0;
+                value = 0;
+            }
+        }
+    }
+
+    /** Restore the state stored in STATE by snapshot(long[]), which must
+     *  have been called while my current rotors were inserted. */
+    void restore(long[] state) {
+        int size = _alphabet.size();
+        int words = stateWords();
+        for (int word = words - 1; word > 0; word -= 1) {
+            int first = (word - 1) * _digitsPerWord;
+            int last = Math.min(first + _digitsPerWord, _stateDigits) - 1;
+            long value = state[word];
+            for (int d = last; d >= first; d -= 1) {
+                setStateDigit(d, (int) (value % size));
+                value /= size;
+            }
+        }
+        setPlugboard(_plugboards.get((int) state[0]));
+        moved();
+    }
+
+    /** Return digit D of my encoded state: the setting of rotor D + 1 for
+     *  D < numRotors() - 1, and otherwise a ring setting. */
+    private int stateDigit(int d) {
+        if (d < _numRotors - 1) {
+            return _rotors[d + 1].posn();
+        }
+        return _rotors[_ringSlots[d - _numRotors + 1]].ring();
+    }
+
+    /** Set digit D of my encoded state (see stateDigit) to VALUE. */
+    private void setStateDigit(int d, int value) {
+        if (d < _numRotors - 1) {
+            place(d + 1, value);
+        } else {
+            _rotors[_ringSlots[d - _numRotors + 1]].setRing(value);
+        }
+    }
+
+    /** Prepare the derived state that depends on which rotors are
+     *  inserted. */
+    private void prepare() {
+        layoutState();
+        _engine = null;
+        _reflector = null;
+        _fusedPosns = null;
+        boolean[] rotates = new boolean[_numRotors];
+        int pawls = 0;
+        for (int i = 1; i < _numRotors; i += 1) {
+            rotates[i] = _rotors[i].rotates();
+            pawls += rotates[i] ? 1 : 0;
+        }
+        if (pawls > Stepping.MAX_PAWLS) {
+            _program = null;
+            _rotates = rotates;
+            _notchedSlots = new boolean[_numRotors];
+            _steps = new boolean[_numRotors];
+        } else if (_program == null || !_program.compiledFor(rotates)) {
+            _program = _stepping.compile(rotates);
+        }
+        _notchedStale = true;
+        useEngine(EngineSelector.select(this));
+    }
+
+    /** Return the engine I use to convert messages. */
+    Engine engine() {
+        return _engineKind;
+    }
+
+    /** Convert messages with ENGINE until my rotors are next inserted,
+     *  if it is available for my current rotors (see
+     *  EngineSelector.available). */
+    void useEngine(Engine engine) {
+        if (!EngineSelector.available(this, engine)) {
+            throw error("engine %s is not available for this machine",
+                        engine.label());
+        }
+        _engineKind = engine;
+        _engine = null;
+        _tree = engine == Engine.TREE
+            ? new RotorTree(_rotors, _alphabet.size()) : null;
+        _notchedStale = true;
+    }
+
+    /** Return the average number of characters, at least 1, I have
+     *  converted between changes to my rotors' settings other than by
+     *  stepping, or DFLT if I have converted none. */
+    double charsPerKey(double dflt) {
+        if (_keyedChars == 0) {
+            return dflt;
+        }
+        return Math.max(1, (double) _keyedChars / Math.max(1, _keys));
+    }
+
+    /** Return my rotors' stepping rule compiled for the rotors currently
+     *  inserted, or null if there are too many rotating rotors for
+     *  that. */
+    Stepping.Program program() {
+        return _program;
+    }
+
+    /** Set the rotor in slot I to setting POSN, an index into my
+     *  alphabet, telling my RotorTree, if any, only if it moves. */
+    private void place(int i, int posn) {
+        Rotor rotor = _rotors[i];
+        if (rotor.posn() != posn) {
+            rotor.set(posn);
+            if (_tree != null && i < _numRotors - 1) {
+                _tree.moved(i);
+            }
+        }
+    }
+
+    /** Record that my rotors' settings or ring settings may have changed
+     *  other than by advanceRotors.  My CompiledEngine is kept, to be
+     *  checked before its next use, since it depends only on the ring
+     *  settings of the rotating rotors and the settings of those fused
+     *  with the reflector, which few changes of key touch. */
+    private void moved() {
+        _keys += 1;
+        _notchedStale = true;
+        _engineChecked = false;
+        _reflector = null;
+    }
+
+    /** Compute the layout of my encoded state for the current rotors:
+     *  a setting for each rotor but the reflector, then a ring setting
+     *  for each rotor that rotates (the only ones whose ring settings
+     *  matter once set up). */
+    private void layoutState() {
+        int rotating = 0;
+        for (int i = 1; i < _numRotors; i += 1) {
+            if (_rotors[i].rotates()) {
+                rotating += 1;
+            }
+        }
+        _ringSlots = new int[rotating];
+        for (int i = 1, k = 0; i < _numRotors; i += 1) {
+            if (_rotors[i].rotates()) {
+                _ringSlots[k] = i;
+                k += 1;
+            }
+        }
+        _stateDigits = _numRotors - 1 + rotating;
+        int size = _alphabet.size();
+        int base = Math.max(size, 2);
+        _digitsPerWord = 1;
+        for (long p = base; p <= Long.MAX_VALUE / base; p *= base) {
+            _digitsPerWord += 1;
+        }
+        long span = 1;
+        try {
+            for (int d = 0; d < _stateDigits; d += 1) {
+                span = Math.multiplyExact(span, (long) size);
+            }
+        } catch (ArithmeticException excp) {
+            span = -1;
+        }
+        _stateSpan = span;
+    }
+
+    /** Return the handle in _plugboards of a plugboard wired as mine,
+     *  adding mine if there is none.  Plugboards are registered by their
+     *  wiring, so that a search making a new Permutation for each state
+     *  adds only one per distinct plugboard. */
+    private int plugboardHandle() {
+        if (_plugboard == _lastPlugboard) {
+            return _lastHandle;
+        }
+        char[] wiring = new char[_alphabet.size()];
+        for (int c = 0; c < wiring.length; c += 1) {
+            wiring[c] = _alphabet.toChar(_plugboard.permute(c));
+        }
+        String key = new String(wiring);
+        Integer handle = _plugboardHandles.get(key);
+        if (handle == null) {
+            handle = _plugboards.size();
+            _plugboards.add(_plugboard);
+            _plugboardHandles.put(key, handle);
         }
+        _lastPlugboard = _plugboard;
+        _lastHandle = handle;
+        return handle;
     }
 
     /** Return the current plugboard's permutation. */
@@ -85,7 +418,10 @@ class Machine {
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
-        _plugboard = plugboard;
+        if (plugboard != _plugboard) {
+            _plugboard = plugboard;
+            _engine = null;
+        }
     }
 
     /** Returns the result of converting the input character C (as an
@@ -113,48 +449,163 @@ class Machine {
         return c;
     }
 
-    /** Advance all rotors to their next position. */
+    /** Advance all rotors to their next position, according to my
+     *  stepping rule. */
     void advanceRotors() {
-        boolean[] stepped = new boolean[numRotors()];
-        for (int rotor = 0; rotor < numRotors(); rotor++) {
-            stepped[rotor] = false;
+        if (_program == null) {
+            advanceAll();
+            return;
+        }
+        if (_notchedStale) {
+            _notched = 0;
+            for (int k = 0; k < _program.pawls(); k += 1) {
+                if (_rotors[_program.slot(k)].atNotch()) {
+                    _notched |= 1L << k;
+                }
+            }
+            _notchedStale = false;
+        }
+        long mask = _program.steps(_notched);
+        while (mask != 0) {
+            int k = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            Rotor rotor = _rotors[_program.slot(k)];
+            rotor.advance();
+            if (rotor.atNotch()) {
+                _notched |= 1L << k;
+            } else {
+                _notched &= ~(1L << k);
+            }
+            if (_tree != null && _program.slot(k) < _numRotors - 1) {
+                _tree.moved(_program.slot(k));
+            }
+        }
+    }
+
+    /** Advance my rotors by applying my stepping rule directly, for
+     *  machines with too many rotating rotors to compile it. */
+    private void advanceAll() {
+        boolean[] notched = _notchedSlots;
+        boolean[] step = _steps;
+        for (int i = 1; i < _numRotors; i += 1) {
+            notched[i] = _rotors[i].atNotch();
         }
-        for (int i = 1; i < _numRotors - 1; i++) {
-            if (_rotors[i + 1].atNotch() && !stepped[i]
-                    && _rotors[i].rotates()) {
+        _stepping.steps(_rotates, notched, step);
+        for (int i = 1; i < _numRotors; i += 1) {
+            if (step[i]) {
                 _rotors[i].advance();
-                stepped[i] = true;
-                if (i != _numRotors - 2 && !stepped[i + 1]
-                        && _rotors[i + 1].rotates()) {
-                    _rotors[i + 1].advance();
-                    stepped[i + 1] = true;
+                if (_tree != null && i < _numRotors - 1) {
+                    _tree.moved(i);
                 }
             }
         }
-        _rotors[_numRotors - 1].advance();
     }
 
     /** Return the result of applying the rotors to the character C (as an
      *  index in the range 0..alphabet size - 1). */
     private int applyRotors(int c) {
-        for (int i = _numRotors - 1; i > -1; i--) {
+        if (Main.verbose()) {
+            for (int i = _numRotors - 1; i > -1; i--) {
+                c = _rotors[i].convertForward(c);
+            }
+            for (int i = 1; i < _numRotors; i++) {
+                c = _rotors[i].convertBackward(c);
+            }
+            return c;
+        }
+        if (_tree != null) {
+            Rotor fast = _rotors[_numRotors - 1];
+            return fast.convertBackward(_tree.reflect(fast.convertForward(c)));
+        }
+        if (_reflector == null) {
+            fuse();
+        }
+        int fixed = _fusedPosns.length;
+        for (int i = _numRotors - 1; i >= fixed; i--) {
             c = _rotors[i].convertForward(c);
         }
-        for (int i = 1; i < _numRotors; i++) {
+        c = _reflector.permute(c);
+        for (int i = fixed; i < _numRotors; i++) {
             c = _rotors[i].convertBackward(c);
         }
         return c;
     }
 
+    /** Set _reflector to the effective reflector formed by my reflector
+     *  and the contiguous rotors next to it that do not rotate, at their
+     *  current settings: a character passing forward through those rotors,
+     *  off the reflector, and back through them undergoes the single
+     *  permutation _reflector.  Reuses the previous effective reflector
+     *  if those rotors have not moved since it was computed. */
+    private void fuse() {
+        int fixed = 1;
+        while (fixed < _numRotors && !_rotors[fixed].rotates()) {
+            fixed += 1;
+        }
+        if (_fusedPosns != null && _fusedPosns.length == fixed) {
+            boolean same = true;
+            for (int i = 0; i < fixed; i += 1) {
+                same &= _fusedPosns[i] == _rotors[i].posn();
+            }
+            if (same) {
+                _reflector = _fusedReflector;
+                return;
+            }
+        }
+        int[] posns = new int[fixed];
+        Permutation result =
+            _rotors[0].permutation().shift(_rotors[0].posn());
+        for (int i = 1; i < fixed; i += 1) {
+            posns[i] = _rotors[i].posn();
+            Permutation wheel = _rotors[i].permutation().shift(posns[i]);
+            result = wheel.inverse().compose(result.compose(wheel));
+        }
+        posns[0] = _rotors[0].posn();
+        _fusedPosns = posns;
+        _fusedReflector = _reflector = result;
+    }
+
+    /** Return the permutation I currently perform on a character,
+     *  including my plugboard, without advancing my rotors. */
+    Permutation scrambler() {
+        Permutation result =
+            _rotors[0].permutation().shift(_rotors[0].posn());
+        for (int i = 1; i < _numRotors; i += 1) {
+            Permutation wheel =
+                _rotors[i].permutation().shift(_rotors[i].posn());
+            result = wheel.inverse().compose(result.compose(wheel));
+        }
+        return _plugboard.inverse().compose(result.compose(_plugboard));
+    }
+
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String cypherText = "";
-        for (int i = 0; i < msg.length(); i++) {
-            int temp = convert(_alphabet.toInt(msg.charAt(i)));
-            cypherText += _alphabet.toChar(temp);
+        char[] cypherText = msg.toCharArray();
+        convert(cypherText, 0, cypherText.length);
+        return new String(cypherText);
+    }
+
+    /** Replace TEXT[START .. END - 1] by its encoding/decoding, updating
+     *  the state of the rotors accordingly. */
+    void convert(char[] text, int start, int end) {
+        METRICS.converted(end - start);
+        _keyedChars += end - start;
+        if ((_engineKind == Engine.COMPILED || _engineKind == Engine.KEYSTREAM)
+            && !Main.verbose()) {
+            if (_engine == null
+                || (!_engineChecked && !_engine.current())) {
+                _engine = new CompiledEngine(this);
+            }
+            _engineChecked = true;
+            _notchedStale = true;
+            _engine.convert(text, start, end);
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            int temp = convert(_alphabet.toInt(text[i]));
+            text[i] = _alphabet.toChar(temp);
         }
-        return cypherText;
     }
 
     /** Common alphabet of my rotors. */
@@ -170,8 +621,88 @@ class Machine {
     private int _pawls;
 
     /** All available rotors. */
-    private Rotor[] _allRotors;
+    private RotorCatalog _catalog;
 
     /** Rotors used in machine. */
     private Rotor[] _rotors;
+
+    /** The effective reflector formed by my reflector and the fixed rotors
+     *  next to it (see fuse()), or null if it must be recomputed. */
+    private Permutation _reflector;
+
+    /** The last effective reflector computed by fuse(). */
+    private Permutation _fusedReflector;
+
+    /** Settings of the rotors in _fusedReflector, indexed by slot.  Its
+     *  length is the number of slots fused. */
+    private int[] _fusedPosns;
+
+    /** The rule by which my rotors advance. */
+    private final Stepping _stepping;
+
+    /** _stepping compiled for my current rotors, or null. */
+    private Stepping.Program _program;
+
+    /** The rotating rotors (as numbered by _program) at notches. */
+    private long _notched;
+
+    /** Scratch arrays for advanceAll, by slot, when _program is null:
+     *  which rotors rotate, which are at notches and which step. */
+    private boolean[] _rotates, _notchedSlots, _steps;
+
+    /** True iff _notched must be recomputed from the rotors. */
+    private boolean _notchedStale;
+
+    /** The conversion loop specialized to my current rotors, ring settings
+     *  and plugboard, used to convert messages, or null if it must be
+     *  rebuilt. */
+    private CompiledEngine _engine;
+
+    /** False iff my rotors may have changed in a way that requires
+     *  _engine to be rebuilt since it was last checked. */
+    private boolean _engineChecked;
+
+    /** The engine I use to convert messages. */
+    private Engine _engineKind;
+
+    /** The rotors other than the fast rotor as a tree, or null if my
+     *  engine is not Engine.TREE. */
+    private RotorTree _tree;
+
+    /** Number of times my rotors' settings have changed other than by
+     *  stepping. */
+    private long _keys;
+
+    /** Number of characters converted by convert(char[], int, int). */
+    private long _keyedChars;
+
+    /** Slots of the rotating rotors, whose ring settings are part of my
+     *  encoded state. */
+    private int[] _ringSlots;
+
+    /** Number of digits in my encoded state. */
+    private int _stateDigits;
+
+    /** Number of state digits packed into each word by snapshot(long[]),
+     *  chosen so that a word never overflows. */
+    private int _digitsPerWord;
+
+    /** Number of distinct encodings of my rotor settings and ring settings,
+     *  or -1 if that does not fit in a long. */
+    private long _stateSpan;
+
+    /** Plugboards that have appeared in encoded states, by handle. */
+    private final ArrayList<Permutation> _plugboards = new ArrayList<>();
+
+    /** Handles of the plugboards in _plugboards, by the image of each
+     *  character of my alphabet. */
+    private final HashMap<String, Integer> _plugboardHandles =
+        new HashMap<>();
+
+    /** The plugboard whose handle was last returned by plugboardHandle,
+     *  or null. */
+    private Permutation _lastPlugboard;
+
+    /** The handle of _lastPlugboard. */
+    private int _lastHandle;
 }
@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
 
@@ -154,4 +155,380 @@ public class MachineTest {
         machine.setRotors("MAA");
         assertEquals(machine.convert("AJC"), "WOS");
     }
+
+    @Test
+    public void testCopy() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        Machine copy = mach.copy();
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                mach.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals('E', copy.getRotor(4).setting());
+        assertNotSame(mach.getRotor(4), copy.getRotor(4));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                copy.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(mach.getRotor(4).setting(), copy.getRotor(4).setting());
+    }
+
+    @Test
+    public void testSnapshotRestore() {
+        Machine mach = mach1();
+        Permutation plugboard1 = new Permutation("(HQ) (EX)", AZ);
+        mach.setPlugboard(plugboard1);
+        mach.getRotor(3).setRing(5);
+        long state = mach.snapshot();
+        assertEquals(1, mach.stateWords());
+        String first = mach.convert("FROMHISSHOULDERHIAWATHA");
+        long after = mach.snapshot();
+        assertNotEquals(state, after);
+        mach.setPlugboard(new Permutation("(AB)", AZ));
+        mach.getRotor(3).setRing(0);
+        mach.restore(state);
+        assertSame(plugboard1, mach.plugboard());
+        assertEquals(5, mach.getRotor(3).ring());
+        assertEquals("AXLE", CheckpointIndex.positions(mach));
+        assertEquals(first, mach.convert("FROMHISSHOULDERHIAWATHA"));
+        assertEquals(after, mach.snapshot());
+    }
+
+    @Test
+    public void testSnapshotPlugboards() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX)", AZ));
+        long state = mach.snapshot();
+        String first = mach.convert("FROMHISSHOULDERHIAWATHA");
+        mach.restore(state);
+        for (int k = 0; k < 100; k += 1) {
+            mach.setPlugboard(new Permutation("(HQ) (EX)", AZ));
+            assertEquals(state, mach.snapshot());
+        }
+        mach.setPlugboard(new Permutation("(AB)", AZ));
+        assertNotEquals(state, mach.snapshot());
+        mach.convert("FROMHISSHOULDERHIAWATHA");
+        mach.restore(state);
+        assertEquals(first, mach.convert("FROMHISSHOULDERHIAWATHA"));
+    }
+
+    @Test
+    public void testSnapshotWords() {
+        Machine mach = TestUtils.wideMachine(20, 19, "Q");
+        mach.setRotors("QWERTYUIOPASDFGHJKL");
+        mach.setPlugboard(new Permutation("", AZ));
+        mach.getRotor(7).setRing(3);
+        assertTrue(mach.stateWords() > 1);
+        long[] state = new long[mach.stateWords()];
+        mach.snapshot(state);
+        String first = mach.convert("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        mach.restore(state);
+        assertEquals("QWERTYUIOPASDFGHJKL", CheckpointIndex.positions(mach));
+        assertEquals(3, mach.getRotor(7).ring());
+        assertEquals(first, mach.convert("ABCDEFGHIJKLMNOPQRSTUVWXYZ"));
+    }
+
+    @Test
+    public void testFixedRotorsFused() {
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+        mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String first = mach.convert("FROMHISSHOULDERHIAWATHA");
+        mach.setRotors("XXLE");
+        mach.setRotors("AXLE");
+        assertEquals(first, mach.convert("FROMHISSHOULDERHIAWATHA"));
+        mach.setRotors("BXLE");
+        assertNotEquals(first.substring(0, 5), mach.convert("FROMH"));
+    }
+
+    @Test
+    public void testManySlots() {
+        Machine mach = TestUtils.wideMachine(30, 27, "AEIMQUY");
+        mach.useEngine(Engine.TREE);
+        assertEquals(Engine.TREE, mach.engine());
+        mach.setRotors("QWERTYUIOPASDFGHJKLZXCVBNMQWE");
+        mach.setPlugboard(new Permutation("(AQ) (EX)", AZ));
+        Machine ref = mach.copy();
+        String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG".repeat(20);
+        String result = mach.convert(msg);
+        for (int k = 0; k < msg.length(); k += 1) {
+            ref.advanceRotors();
+            int c = ref.plugboard().permute(AZ.toInt(msg.charAt(k)));
+            for (int i = ref.numRotors() - 1; i >= 0; i -= 1) {
+                c = ref.getRotor(i).convertForward(c);
+            }
+            for (int i = 1; i < ref.numRotors(); i += 1) {
+                c = ref.getRotor(i).convertBackward(c);
+            }
+            c = ref.plugboard().invert(c);
+            assertEquals("at " + k, AZ.toChar(c), result.charAt(k));
+        }
+    }
+
+    @Test
+    public void testTooManyPawlsToCompile() {
+        int n = Stepping.MAX_PAWLS + 3;
+        Machine mach = TestUtils.wideMachine(n, n - 1, "AN");
+        assertNull(mach.program());
+        Rotor[] ref = new Rotor[n];
+        boolean[] rotates = new boolean[n], notched = new boolean[n],
+            step = new boolean[n];
+        for (int i = 1; i < n; i += 1) {
+            ref[i] = mach.getRotor(i).copy();
+            rotates[i] = true;
+        }
+        for (int k = 0; k < 200; k += 1) {
+            mach.advanceRotors();
+            for (int i = 1; i < n; i += 1) {
+                notched[i] = ref[i].atNotch();
+            }
+            Stepping.ENIGMA.steps(rotates, notched, step);
+            for (int i = 1; i < n; i += 1) {
+                if (step[i]) {
+                    ref[i].advance();
+                }
+            }
+            for (int i = 1; i < n; i += 1) {
+                assertEquals("rotor " + i + " at " + k, ref[i].posn(),
+                             mach.getRotor(i).posn());
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledEngine() {
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+        mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        mach.getRotor(3).setRing(7);
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        Machine ref = mach.copy();
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        String result = mach.convert(msg.repeat(30));
+        StringBuilder expected = new StringBuilder();
+        for (char c : msg.repeat(30).toCharArray()) {
+            expected.append(AZ.toChar(ref.convert(AZ.toInt(c))));
+        }
+        assertEquals(expected.toString(), result);
+        assertEquals(CheckpointIndex.positions(ref),
+                     CheckpointIndex.positions(mach));
+        mach.setPlugboard(new Permutation("", AZ));
+        ref.setPlugboard(new Permutation("", AZ));
+        assertEquals(AZ.toChar(ref.convert(AZ.toInt('F'))) + "",
+                     mach.convert("F"));
+    }
+
+    @Test
+    public void testEngines() {
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+        mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        Machine ref = mach.copy();
+        ref.useEngine(Engine.ROTORS);
+        String expected = ref.convert(msg.repeat(30));
+        for (Engine engine : Engine.values()) {
+            if (EngineSelector.available(mach, engine)) {
+                Machine copy = mach.copy();
+                copy.useEngine(engine);
+                assertEquals(engine, copy.engine());
+                assertEquals(engine.label(), expected,
+                             copy.convert(msg.repeat(30)));
+            }
+        }
+        assertEquals(Engine.TREE, Engine.forName("Tree"));
+    }
+
+    @Test
+    public void testRekeyKeepsEngineCurrent() {
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        for (Engine engine : new Engine[] {Engine.COMPILED,
+                                           Engine.KEYSTREAM}) {
+            Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+            mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+            mach.setPlugboard(new Permutation("(HQ) (EX)", AZ));
+            mach.useEngine(engine);
+            Machine ref = mach.copy();
+            ref.useEngine(Engine.ROTORS);
+            int[][] posns = { {0, 0, 23, 11, 4}, {0, 5, 23, 11, 4},
+                              {0, 5, 1, 2, 3}, {0, 5, 1, 2, 3} };
+            int[][] rings = { {0, 0, 0, 0, 0}, {0, 0, 0, 0, 0},
+                              {0, 0, 0, 0, 0}, {0, 0, 3, 0, 7} };
+            for (int round = 0; round < 3; round += 1) {
+                for (int k = 0; k < posns.length; k += 1) {
+                    mach.setRotors(posns[k], rings[k]);
+                    ref.setRotors(posns[k], rings[k]);
+                    assertEquals(engine + " key " + k, ref.convert(msg),
+                                 mach.convert(msg));
+                    long state = mach.snapshot();
+                    String next = mach.convert(msg);
+                    mach.restore(state);
+                    assertEquals(next, mach.convert(msg));
+                    ref.convert(msg);
+                }
+            }
+        }
+    }
+
+    /** Return the positions of a five-slot machine with stepping RULE,
+     *  set to SETTING, after one character. */
+    private String stepOnce(Stepping rule, String setting) {
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values(), rule);
+        mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        mach.setRotors(setting);
+        mach.setPlugboard(new Permutation("", AZ));
+        mach.convert("A");
+        return CheckpointIndex.positions(mach);
+    }
+
+    @Test
+    public void testStepping() {
+        assertEquals("ABKB", stepOnce(Stepping.ENIGMA, "AAJA"));
+        assertEquals("AAJB", stepOnce(Stepping.ODOMETER, "AAJA"));
+        assertEquals("ABJB", stepOnce(Stepping.CAM, "AAJA"));
+        assertEquals("ABKR", stepOnce(Stepping.ENIGMA, "AAJQ"));
+        assertEquals("ABKR", stepOnce(Stepping.ODOMETER, "AAJQ"));
+        assertEquals("ABKR", stepOnce(Stepping.CAM, "AAJQ"));
+        assertEquals("AABR", stepOnce(Stepping.ODOMETER, "AAAQ"));
+        assertSame(Stepping.CAM, Stepping.forName("cam"));
+        try {
+            Stepping.forName("hebern");
+            fail("unknown stepping accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testSettingsCache() {
+        Machine mach = new Machine(AZ, 5, 3, ROTORS.values());
+        SettingsCache cache = new SettingsCache(mach);
+        String line1 = "* B Beta III IV I AXLE HBCD (HQ) (EX) (IP) (TR) (BY)";
+        String line2 = "* B Beta I IV III ZZZZ (AB)";
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        cache.apply(line1);
+        String first = mach.convert(msg);
+        cache.apply(line2);
+        String second = mach.convert(msg);
+        cache.apply("*  B Beta III IV I  AXLE HBCD (HQ) (EX) (IP) (TR) (BY) ");
+        assertEquals(first, mach.convert(msg));
+        cache.apply(line2);
+        assertEquals(second, mach.convert(msg));
+        cache.apply(line2);
+        assertEquals(second, mach.convert(msg));
+        assertEquals("* B I AA", SettingsCache.normalize("* B  I   AA  "));
+        assertEquals("*\tB I", SettingsCache.normalize("*\tB I"));
+    }
+
+    @Test
+    public void testRotorCatalog() {
+        HashMap<String, String> nav = TestUtils.NAVALA;
+        RotorCatalog catalog = new RotorCatalog(AZ);
+        catalog.add("B", 'R', "", nav.get("B"));
+        catalog.add("Beta", 'N', "", nav.get("Beta"));
+        catalog.add("III", 'M', "V", nav.get("III"));
+        catalog.add("IV", 'M', "J", nav.get("IV"));
+        catalog.add("I", 'M', "Q", nav.get("I"));
+        catalog.add("BAD", 'M', "A", "(AB) (BC)");
+        assertEquals(6, catalog.size());
+        assertTrue(catalog.reflecting("B"));
+        assertTrue(catalog.rotates("BAD"));
+        Machine mach = new Machine(AZ, 5, 3, catalog, Stepping.ENIGMA);
+        mach.insertRotors(ROTORS1);
+        mach.setRotors(SETTING1);
+        mach.setPlugboard(new Permutation("", AZ));
+        Machine copy = mach.copy();
+        Machine ref = mach1();
+        ref.setPlugboard(new Permutation("", AZ));
+        String expected = ref.convert("HELLOWORLD");
+        assertEquals(expected, mach.convert("HELLOWORLD"));
+        assertEquals(expected, copy.convert("HELLOWORLD"));
+        assertNotSame(mach.getRotor(4), copy.getRotor(4));
+        assertSame(mach.getRotor(4).permutation(),
+                   copy.getRotor(4).permutation());
+        try {
+            mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "BAD"});
+            fail("bad cycles not reported");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testCrossCheck() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        CrossCheck check = new CrossCheck(mach, 1.0);
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        for (int k = 0; k < 40; k += 1) {
+            check.convert(msg);
+        }
+        assertEquals(40 * msg.length(), check.checked());
+        Machine broken = new Machine(AZ, 5, 3, ROTORS.values()) {
+            @Override
+            String convert(String text) {
+                String result = super.convert(text);
+                return result.substring(0, 3) + "?" + result.substring(4);
+            }
+        };
+        broken.insertRotors(ROTORS1);
+        broken.setRotors(SETTING1);
+        broken.setPlugboard(new Permutation("", AZ));
+        try {
+            new CrossCheck(broken, 1.0).convert(msg);
+            fail("divergence not reported");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("character 3"));
+        }
+    }
+
+    @Test
+    public void testScrambler() {
+        Machine mach = mach1();
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", AZ));
+        for (int k = 0; k < 30; k += 1) {
+            int[] expected = new int[AZ.size()];
+            for (int c = 0; c < expected.length; c += 1) {
+                expected[c] = mach.copy().convert(c);
+            }
+            mach.advanceRotors();
+            Permutation scrambler = mach.scrambler();
+            for (int c = 0; c < expected.length; c += 1) {
+                assertEquals(expected[c], scrambler.permute(c));
+            }
+        }
+    }
+
+    @Test
+    public void testKeystream() {
+        Alphabet alpha = new Alphabet("HIJKLMNOPQ");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("RF", new Permutation("(HI) (JK) (LM) "
+                                                       + "(NO) (PQ)", alpha)));
+        rotors.add(new MovingRotor("Rot1",
+                                   new Permutation("(HIJK) (LMNOPQ)", alpha),
+                                   "J"));
+        rotors.add(new MovingRotor("Rot2",
+                                   new Permutation("(IHKJMLONQP)", alpha),
+                                   "N"));
+        Machine mach = new Machine(alpha, 3, 2, rotors);
+        mach.insertRotors(new String[] {"RF", "Rot1", "Rot2"});
+        mach.setRotors("HQ");
+        mach.setPlugboard(new Permutation("(HI) (KQ)", alpha));
+        Machine ref = mach.copy();
+        String msg = "MILLIONLOLLIPOPJILLHIJKLMNOPQQPONM";
+        for (int k = 0; k < 100; k += 1) {
+            String result = mach.convert(msg);
+            StringBuilder expected = new StringBuilder();
+            for (char c : msg.toCharArray()) {
+                expected.append(alpha.toChar(ref.convert(alpha.toInt(c))));
+            }
+            assertEquals("at " + k, expected.toString(), result);
+            assertEquals(CheckpointIndex.positions(ref),
+                         CheckpointIndex.positions(mach));
+            if (k % 7 == 0) {
+                mach.advanceRotors();
+                ref.advanceRotors();
+            }
+        }
+    }
 }
@@ -1,12 +1,19 @@
 package enigma;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import java.util.List;
 import java.util.Scanner;
-import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 
@@ -14,6 +21,7 @@ import java.util.NoSuchElementException;
 import ucb.util.CommandArgs;
 
 import static enigma.EnigmaException.*;
+import static enigma.Metrics.METRICS;
 
 /** Enigma simulator.
  *  @author Yash Pansari
@@ -28,25 +36,124 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  The option --metrics publishes Metrics
+     *  over JMX for the life of the run.  The option --pipeline reads,
+     *  converts and writes on separate threads (see Pipeline).  The
+     *  options --group=N and --width=N set the number of letters in each
+     *  output group (default 5) and the maximum output line width.  The
+     *  option --index=FILE writes a CheckpointIndex of the output to FILE,
+     *  with a checkpoint every N characters as given by --every=N.  The
+     *  option --check=RATE checks about RATE of all conversions against a
+     *  reference implementation (see CrossCheck).  The option
+     *  --parallel converts the segments begun by settings lines
+     *  concurrently (see Segments), on N threads as given by --threads=N
+     *  or else one per processor.  The option --keystream=KB sets the
+     *  memory each machine may use for a Keystream (default 4096; 0 for
+     *  none).  The option --engine=NAME makes each machine convert with
+     *  the named Engine where it can, rather than the one EngineSelector
+     *  chooses; --calibrate makes that choice by timing each engine, and
+     *  reports it on the standard error.
+     *  Input and output files whose names end in ".gz" are read and
+     *  written gzip-compressed; with --pipeline, decompression runs on
+     *  its own thread (see ReadAhead).  Input and output files whose
+     *  names end in ".epk" (before any ".gz") are read and written in the
+     *  packed format of PackedWriter; a packed input file holds only
+     *  messages, so the option --keys=FILE gives the settings line for
+     *  each of its segments, one per line. */
     public static void main(String... args) {
         try {
             CommandArgs options =
-                new CommandArgs("--verbose --=(.*){1,3}", args);
+                new CommandArgs("--verbose --metrics --pipeline "
+                                + "--group=(\\d+) --width=(\\d+) "
+                                + "--index=(.+) --every=(\\d+) "
+                                + "--check=(.+) --parallel --threads=(\\d+) "
+                                + "--keys=(.+) --keystream=(\\d+) "
+                                + "--engine=(.+) --calibrate "
+                                + "--=(.*){1,3}", args);
             if (!options.ok()) {
-                throw error("Usage: java enigma.Main [--verbose] "
-                            + "[INPUT [OUTPUT]]");
+                throw error("Usage: java enigma.Main [--verbose] [--metrics] "
+                            + "[--pipeline] [--group=N] [--width=N] "
+                            + "[--index=FILE [--every=N]] [--check=RATE] "
+                            + "[--parallel [--threads=N]] [--keys=FILE] "
+                            + "[--keystream=KB] [--engine=NAME | --calibrate] "
+                            + "CONFIG [INPUT [OUTPUT]]");
+            }
+            if (options.contains("--parallel")
+                && (options.contains("--pipeline")
+                    || options.contains("--index"))) {
+                throw error("--parallel cannot be combined with --pipeline "
+                            + "or --index");
             }
 
             _verbose = options.contains("--verbose");
+            _pipelined = options.contains("--pipeline");
+            _groupSize = intOption(options, "--group", _groupSize);
+            _lineWidth = intOption(options, "--width", _lineWidth);
+            if (options.contains("--parallel")) {
+                _threads = intOption(options, "--threads",
+                                     Runtime.getRuntime()
+                                     .availableProcessors());
+            }
+            if (options.contains("--index")) {
+                _indexName = options.get("--index").get(0);
+            }
+            if (options.contains("--keys")) {
+                _keysName = options.get("--keys").get(0);
+            }
+            if (options.contains("--keystream")) {
+                try {
+                    _keystreamBudget = Math.multiplyExact(1024L,
+                        Long.parseLong(options.get("--keystream").get(0)));
+                } catch (NumberFormatException | ArithmeticException excp) {
+                    throw error("--keystream is too large");
+                }
+            }
+            if (options.contains("--engine")) {
+                if (options.contains("--calibrate")) {
+                    throw error("--engine cannot be combined with "
+                                + "--calibrate");
+                }
+                _engine = Engine.forName(options.get("--engine").get(0));
+            }
+            _calibrate = options.contains("--calibrate");
+            _checkpointEvery =
+                intOption(options, "--every", _checkpointEvery);
+            if (options.contains("--check")) {
+                try {
+                    _crossCheck =
+                        Double.parseDouble(options.get("--check").get(0));
+                } catch (NumberFormatException excp) {
+                    throw error("--check rate must be a number");
+                }
+                if (!(_crossCheck > 0 && _crossCheck <= 1)) {
+                    throw error("--check rate must be in (0, 1]");
+                }
+            }
+            if (options.contains("--metrics")) {
+                Metrics.register();
+            }
             new Main(options.get("--")).process();
             return;
         } catch (EnigmaException excp) {
+            METRICS.reported(excp);
             System.err.printf("Error: %s%n", excp.getMessage());
         }
         System.exit(1);
     }
 
+    /** Return the value of the integer option NAME in OPTIONS, or DFLT if
+     *  it is absent. */
+    private static int intOption(CommandArgs options, String name, int dflt) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        try {
+            return Integer.parseInt(options.get(name).get(0));
+        } catch (NumberFormatException excp) {
+            throw error("%s is too large", name);
+        }
+    }
+
     /** Open the necessary files for non-option arguments ARGS (see comment
       *  on main). */
     Main(List<String> args) {
@@ -54,33 +161,127 @@ public final class Main {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args.get(0));
+        _configName = args.get(0);
+        _config = getInput(_configName);
+
+        boolean packedInput = args.size() > 1 && packed(args.get(1));
+        _packedOutput = args.size() > 2 && packed(args.get(2));
+        if ((packedInput || _packedOutput)
+            && (_pipelined || _threads > 0 || _indexName != null)) {
+            throw error("packed files cannot be used with --pipeline, "
+                        + "--parallel or --index");
+        }
+        if (packedInput != (_keysName != null)) {
+            throw error("--keys must be given exactly when input is packed");
+        }
 
-        if (args.size() > 1) {
-            _input = getInput(args.get(1));
+        if (packedInput) {
+            _packedInput = getPackedInput(args.get(1));
+            _keys = getInput(_keysName);
+        } else if (args.size() > 1) {
+            _inputName = args.get(1);
+            _input = getInput(_inputName);
         } else {
+            _inputName = "standard input";
             _input = new Scanner(System.in);
         }
 
         if (args.size() > 2) {
+            if (_indexName != null && args.get(2).endsWith(GZIP_SUFFIX)) {
+                throw error("cannot index compressed output");
+            }
             _output = getOutput(args.get(2));
         } else {
             _output = System.out;
         }
+        if (!_packedOutput) {
+            _formatter = new GroupFormatter(_output, _groupSize, _lineWidth,
+                                            Charset.defaultCharset());
+        }
+    }
+
+    /** A Main that reads only the configuration CONFIG, from the file
+     *  named NAME. */
+    private Main(Scanner config, String name) {
+        _config = config;
+        _configName = name;
+    }
+
+    /** Return a machine, not yet set up, configured from the
+     *  configuration file named NAME. */
+    static Machine readConfig(String name) {
+        long start = System.nanoTime();
+        Machine result = new Main(getInput(name), name).readConfig();
+        METRICS.record(Metrics.Stage.PARSE, start);
+        return result;
+    }
+
+    /** Return a Scanner reading from the file named NAME.  A file whose
+     *  name ends in ".gz" is decompressed as it is read, on a separate
+     *  thread when pipelining. */
+    static Scanner getInput(String name) {
+        try {
+            if (!name.endsWith(GZIP_SUFFIX)) {
+                return new Scanner(new File(name));
+            }
+            return new Scanner(getCompressed(name), Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Throw an error if INPUT, reading the file named NAME, stopped
+     *  before its end because reading failed, as it does when a
+     *  compressed file is truncated or corrupt.  Scanner reports such a
+     *  failure only as the end of its input. */
+    static void checkRead(Scanner input, String name) {
+        IOException excp = input.ioException();
+        if (excp != null) {
+            throw error("could not read %s: %s", name, excp.getMessage());
+        }
+    }
+
+    /** Return a stream of the decompressed contents of the file named
+     *  NAME, decompressed on a separate thread when pipelining. */
+    private static InputStream getCompressed(String name)
+        throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(name),
+                                             GZIP_BUFFER);
+        if (_pipelined) {
+            return new ReadAhead(in, "enigma-inflate");
+        }
+        return new BufferedInputStream(in, GZIP_BUFFER);
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return a reader of the packed file named NAME, decompressing it
+     *  if NAME ends in ".gz". */
+    private static PackedReader getPackedInput(String name) {
         try {
-            return new Scanner(new File(name));
+            InputStream in = name.endsWith(GZIP_SUFFIX)
+                ? getCompressed(name) : new FileInputStream(name);
+            return new PackedReader(in, name);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return true iff NAME is that of a packed file. */
+    private static boolean packed(String name) {
+        if (name.endsWith(GZIP_SUFFIX)) {
+            name = name.substring(0, name.length() - GZIP_SUFFIX.length());
+        }
+        return name.endsWith(PACKED_SUFFIX);
+    }
+
+    /** Return a PrintStream writing to the file named NAME, compressed if
+     *  NAME ends in ".gz". */
+    static PrintStream getOutput(String name) {
         try {
+            if (name.endsWith(GZIP_SUFFIX)) {
+                return new PrintStream(
+                    new GZIPOutputStream(new FileOutputStream(name),
+                                         GZIP_BUFFER));
+            }
             return new PrintStream(new File(name));
         } catch (IOException excp) {
             throw error("could not open %s", name);
@@ -91,39 +292,108 @@ public final class Main {
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        Machine enigma = readConfig();
-        String temp = _input.nextLine();
-        if (!temp.startsWith("*")) {
-            throw new EnigmaException("no rotors in machine");
-        }
-        setUp(enigma, temp);
-        while (_input.hasNextLine()) {
-            String answer = "";
-            String nextLine = _input.nextLine();
-            if (nextLine.startsWith("*")) {
-                setUp(enigma, nextLine);
-                if (_input.hasNextLine()) {
-                    nextLine = _input.nextLine();
+        long start = System.nanoTime();
+        Session session = new Session(readConfig());
+        METRICS.record(Metrics.Stage.PARSE, start);
+        CheckpointIndex index = null;
+        if (_indexName != null) {
+            index = new CheckpointIndex(_indexName, _formatter,
+                                        _checkpointEvery);
+            session.setIndex(index);
+        }
+        if (_packedOutput) {
+            _packer = new PackedWriter(_output, session.machine().alphabet());
+        }
+        try {
+            if (_packedInput != null) {
+                processPacked(session);
+                return;
+            }
+            if (_threads > 0) {
+                new Segments(_input, session, _threads,
+                             this::printMessageLine).run();
+            } else {
+                checkRead(_input, _inputName);
+                segment(session.processLine(_input.nextLine()));
+                if (_pipelined) {
+                    new Pipeline(_input, session::processLine,
+                                 this::printMessageLine).run();
                 } else {
-                    break;
+                    while (_input.hasNextLine()) {
+                        String answer =
+                            session.processLine(_input.nextLine());
+                        if (answer != null) {
+                            printMessageLine(answer);
+                        } else {
+                            segment(null);
+                        }
+                    }
                 }
             }
-            String[] words = nextLine.split("\s+");
-            for (String word : words) {
-                for (char ch : word.toCharArray()) {
-                    if (!_alphabet.contains(ch)) {
-                        throw new EnigmaException("message not in alphabet");
-                    }
+            checkRead(_input, _inputName);
+        } finally {
+            session.finish();
+            if (_packer != null) {
+                _packer.flush();
+            } else {
+                _formatter.flush();
+            }
+            if (_output != System.out) {
+                _output.close();
+            }
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+
+    /** Convert the messages of _packedInput with SESSION, setting up its
+     *  machine with the next line of _keys at the start of each
+     *  segment. */
+    private void processPacked(Session session) {
+        String alphabet = new String(session.machine().alphabet().getChars());
+        if (!_packedInput.alphabet().equals(alphabet)) {
+            throw error("packed input has alphabet %s, not %s",
+                        _packedInput.alphabet(), alphabet);
+        }
+        int segments = 0;
+        while (true) {
+            int kind = _packedInput.next();
+            if (kind == PackedReader.END) {
+                return;
+            } else if (kind == PackedReader.SEGMENT) {
+                segments += 1;
+                if (!_keys.hasNextLine()) {
+                    checkRead(_keys, _keysName);
+                    throw error("no settings line for segment %d", segments);
                 }
-                answer += enigma.convert(word);
+                String line = _keys.nextLine();
+                if (!line.startsWith("*")) {
+                    throw error("%s is not a settings line", line);
+                }
+                segment(session.processLine(line));
+            } else {
+                char[] text = _packedInput.text();
+                int n = _packedInput.length();
+                session.processMessage(text, n);
+                printMessageLine(CharBuffer.wrap(text, 0, n));
             }
-            printMessageLine(answer);
+        }
+    }
+
+    /** Mark the start of a segment in packed output, given that ANSWER
+     *  is the result of a settings line, which is null. */
+    private void segment(String answer) {
+        if (_packer != null && answer == null) {
+            _packer.segment();
         }
     }
 
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
     private Machine readConfig() {
+        Events.ConfigLoad event = new Events.ConfigLoad();
+        event.begin();
         try {
             if (!_config.hasNext()) {
                 throw new EnigmaException("Format Missing Alphabet.");
@@ -143,7 +413,12 @@ public final class Main {
                 throw new EnigmaException("Format Missing Pawls.");
             }
             int pawls = _config.nextInt();
-            ArrayList<Rotor> allRotors = new ArrayList<>();
+            Stepping stepping = Stepping.ENIGMA;
+            if (_config.hasNext(STEPPING + "\\S*")) {
+                stepping = Stepping.forName(
+                    _config.next().substring(STEPPING.length()));
+            }
+            RotorCatalog catalog = new RotorCatalog(_alphabet);
             while (_config.hasNext()) {
                 rotorName = _config.next();
                 if (!_config.hasNext()) {
@@ -160,56 +435,52 @@ public final class Main {
                 } else if (rotorSetting.length() != 1) {
                     throw new EnigmaException("only movingRotor has notches.");
                 }
-                allRotors.add(readRotor());
+                readRotor(catalog);
             }
-            return new Machine(_alphabet, numRotors, pawls, allRotors);
+            checkRead(_config, _configName);
+            Machine result = new Machine(_alphabet, numRotors, pawls,
+                                         catalog, stepping);
+            event.end();
+            if (event.shouldCommit()) {
+                event.slots = numRotors;
+                event.pawls = pawls;
+                event.rotors = catalog.size();
+                event.alphabetSize = _alphabet.size();
+                event.commit();
+            }
+            return result;
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Add a rotor to CATALOG, reading the rest of its description
+     *  from _config.  Its cycles are checked only when it is first
+     *  used. */
+    private void readRotor(RotorCatalog catalog) {
         try {
-            String rotorConfig = "";
+            StringBuilder rotorConfig = new StringBuilder();
             while (_config.hasNext("\\(.*\\)")) {
-                rotorConfig +=  _config.next() + " ";
+                rotorConfig.append(_config.next()).append(' ');
             }
-            Permutation rotorPerm = new Permutation(rotorConfig, _alphabet);
             if (rotorType.equals("M")) {
                 for (char i : notch.toCharArray()) {
                     if (!_alphabet.contains(i)) {
                         throw new EnigmaException("notch not on wheel");
                     }
                 }
-                return new MovingRotor(rotorName, rotorPerm, notch);
-            } else if (rotorType.equals("N")) {
-                return new FixedRotor(rotorName, rotorPerm);
-            } else if (rotorType.equals("R")) {
-                if (!rotorPerm.derangement()) {
-                    throw new EnigmaException("R always derangement");
-                }
-                return new Reflector(rotorName, rotorPerm);
-            } else {
-                throw new EnigmaException("type invalid");
             }
+            catalog.add(rotorName, rotorType.charAt(0), notch,
+                        rotorConfig.toString());
         } catch (NoSuchElementException excp) {
             throw error("bad rotor description");
         }
     }
 
-    private String ringstellung(Machine M, String initial, String temp) {
+    private static String ringstellung(Machine M, String initial,
+                                       String temp) {
         for (int i = 1; i < M.numRotors(); i++) {
-            Rotor rotor = M.getRotor(i);
-            String notches = rotor.notches();
-            String nn = "";
-            for (char ch : notches.toCharArray()) {
-                int j = M.alphabet().toInt(ch);
-                j -= M.alphabet().toInt(temp.charAt(i - 1));
-                j = M.alphabet().wrap(j);
-                nn += M.alphabet().toChar(j);
-            }
-            rotor.setNotches(nn);
+            M.getRotor(i).setRing(M.alphabet().toInt(temp.charAt(i - 1)));
         }
         String result = "";
         for (int i = 0; i < initial.length(); i++) {
@@ -224,7 +495,8 @@ public final class Main {
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
+    static void setUp(Machine M, String settings) {
+        long start = System.nanoTime();
         if (!settings.startsWith("*")) {
             throw new EnigmaException("no rotors in machine.");
         }
@@ -282,7 +554,31 @@ public final class Main {
             throw new EnigmaException("Wrong no. of settings");
         }
         M.setRotors(initial);
-        M.setPlugboard(new Permutation(cyclesPb, _alphabet));
+        M.setPlugboard(new Permutation(cyclesPb, M.alphabet()));
+        METRICS.rekeyed();
+        METRICS.record(Metrics.Stage.SETUP, start);
+    }
+
+    /** Return the fraction of conversions checked against the reference
+     *  implementation, as given by --check=RATE, or 0 for none. */
+    static double crossCheck() {
+        return _crossCheck;
+    }
+
+    /** Return the most bytes a machine may use for a Keystream, as
+     *  given by --keystream. */
+    static long keystreamBudget() {
+        return _keystreamBudget;
+    }
+
+    /** Return the engine given by --engine, or null. */
+    static Engine engine() {
+        return _engine;
+    }
+
+    /** Return true iff --calibrate specified. */
+    static boolean calibrate() {
+        return _calibrate;
     }
 
     /** Return true iff verbose option specified. */
@@ -291,29 +587,64 @@ public final class Main {
     }
 
     /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        for (int ch = 1; ch <= msg.length(); ch++) {
-            _output.print(msg.charAt(ch - 1));
-            if (!(ch == msg.length()) && (ch % 5 == 0)) {
-                _output.print(" ");
-            }
+     *  have fewer letters), or as set by --group and --width, or as a
+     *  packed message if output is packed. */
+    private void printMessageLine(CharSequence msg) {
+        long start = System.nanoTime();
+        if (_packer != null) {
+            _packer.writeLine(msg);
+        } else {
+            _formatter.writeLine(msg);
         }
-        _output.print("\r\n");
+        METRICS.record(Metrics.Stage.OUTPUT, start);
     }
 
+    /** Suffix of the names of compressed input and output files. */
+    static final String GZIP_SUFFIX = ".gz";
+
+    /** Suffix of the names of packed input and output files. */
+    static final String PACKED_SUFFIX = ".epk";
+
+    /** Size of the buffers used for compressed files. */
+    private static final int GZIP_BUFFER = 1 << 16;
+
+    /** Prefix of the optional configuration item following the number
+     *  of pawls that names the stepping rule, as in "stepping=odometer". */
+    static final String STEPPING = "stepping=";
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
     private Scanner _input;
 
+    /** Name of the file _input reads. */
+    private String _inputName;
+
     /** Source of machine configuration. */
     private Scanner _config;
 
+    /** Name of the file _config reads. */
+    private String _configName;
+
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
+    /** Formats messages onto _output, unless it is packed. */
+    private GroupFormatter _formatter;
+
+    /** True iff _output is packed. */
+    private boolean _packedOutput;
+
+    /** Writes packed messages onto _output, or null. */
+    private PackedWriter _packer;
+
+    /** Source of packed input messages, or null. */
+    private PackedReader _packedInput;
+
+    /** Settings lines for the segments of _packedInput. */
+    private Scanner _keys;
+
     /** Type of rotor. */
     private String rotorType;
 
@@ -323,6 +654,45 @@ public final class Main {
     /** Name of rotor. */
     private String rotorName;
 
+    /** Letters per output group, as given by --group. */
+    private static int _groupSize = GroupFormatter.DEFAULT_GROUP_SIZE;
+
+    /** Maximum output line width, as given by --width (0 for none). */
+    private static int _lineWidth;
+
+    /** Name of the file of settings lines given by --keys, or null. */
+    private static String _keysName;
+
+    /** Name of the checkpoint index file given by --index, or null. */
+    private static String _indexName;
+
+    /** Characters between checkpoints by default. */
+    private static final int DEFAULT_CHECKPOINT_EVERY = 4096;
+
+    /** Characters between checkpoints, as given by --every. */
+    private static int _checkpointEvery = DEFAULT_CHECKPOINT_EVERY;
+
+    /** True if --pipeline specified. */
+    private static boolean _pipelined;
+
+    /** Number of threads converting segments with --parallel, or 0. */
+    private static int _threads;
+
+    /** Keystream budget in bytes by default. */
+    private static final long DEFAULT_KEYSTREAM_BUDGET = 4 << 20;
+
+    /** Keystream budget in bytes, as given by --keystream. */
+    private static long _keystreamBudget = DEFAULT_KEYSTREAM_BUDGET;
+
+    /** Engine given by --engine, or null. */
+    private static Engine _engine;
+
+    /** True if --calibrate specified. */
+    private static boolean _calibrate;
+
+    /** Rate given by --check, or 0. */
+    private static double _crossCheck;
+
     /** True if --verbose specified. */
     private static boolean _verbose;
 }
@@ -0,0 +1,345 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Counters and latency histograms describing the work done by Main and
+ *  Machine.  Updates are cheap enough to leave on in the conversion loop:
+ *  counters are striped LongAdders, and latencies are recorded into a
+ *  fixed set of histogram stripes, chosen by thread, which are only
+ *  merged when read.
+ *  @author Yash Pansari
+ */
+final class Metrics implements MetricsMBean {
+
+    /** The single set of metrics shared by every machine in this JVM. */
+    static final Metrics METRICS = new Metrics();
+
+    /** Name under which METRICS is registered with the platform MBean
+     *  server. */
+    static final String OBJECT_NAME = "enigma:type=Metrics";
+
+    /** The stages of processing whose latencies are recorded. */
+    enum Stage {
+        PARSE, SETUP, CONVERT, OUTPUT
+    }
+
+    /** Metrics are only created as METRICS. */
+    private Metrics() {
+        for (Stage stage : Stage.values()) {
+            _latencies[stage.ordinal()] = new Histogram();
+        }
+        _start = System.nanoTime();
+    }
+
+    /** Register METRICS with the platform MBean server, unless it is
+     *  already there. */
+    static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(METRICS, name);
+            }
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s", excp.getMessage());
+        }
+    }
+
+    /** Record that N characters were converted. */
+    void converted(long n) {
+        _characters.add(n);
+    }
+
+    /** Record that a message line was processed. */
+    void lineProcessed() {
+        _lines.increment();
+    }
+
+    /** Record that a settings line was applied. */
+    void rekeyed() {
+        _rekeys.increment();
+    }
+
+    /** Record that EXCP was reported. */
+    void reported(EnigmaException excp) {
+        _errors.increment();
+        String category = category(excp.format());
+        LongAdder count = _errorCategories.get(category);
+        if (count == null) {
+            if (_errorCategories.size() >= MAX_CATEGORIES) {
+                category = OTHER;
+            }
+            count = _errorCategories.computeIfAbsent(category,
+                k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /** Record that STAGE ran from time START (as given by
+     *  System.nanoTime()) until now, and return the current time. */
+    long record(Stage stage, long start) {
+        long now = System.nanoTime();
+        long elapsed = now - start;
+        _latencies[stage.ordinal()].record(elapsed);
+        if (stage == Stage.PARSE) {
+            _parseNanos.add(elapsed);
+        }
+        return now;
+    }
+
+    @Override
+    public long getCharactersConverted() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long getLinesProcessed() {
+        return _lines.sum();
+    }
+
+    @Override
+    public long getRekeys() {
+        return _rekeys.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return _errors.sum();
+    }
+
+    @Override
+    public double getCharactersPerSecond() {
+        return rate(_characters.sum());
+    }
+
+    @Override
+    public double getLinesPerSecond() {
+        return rate(_lines.sum());
+    }
+
+    @Override
+    public long getConfigParseNanos() {
+        return _parseNanos.sum();
+    }
+
+    @Override
+    public String[] getErrorCategories() {
+        ArrayList<String> result = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> e : _errorCategories.entrySet()) {
+            result.add(e.getKey() + "=" + e.getValue().sum());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public String[] getStageLatencies() {
+        Stage[] stages = Stage.values();
+        String[] result = new String[stages.length];
+        for (Stage stage : stages) {
+            long[] h = _latencies[stage.ordinal()].merged();
+            long count = h[COUNT];
+            result[stage.ordinal()] =
+                String.format("%s count=%d mean=%d p50=%d p99=%d max=%d",
+                              stage.name().toLowerCase(Locale.ROOT), count,
+                              count == 0 ? 0 : h[SUM] / count,
+                              percentile(h, 0.50), percentile(h, 0.99),
+                              h[MAX]);
+        }
+        return result;
+    }
+
+    @Override
+    public long[] latencyHistogram(String stage) {
+        long[] merged;
+        try {
+            Stage s = Stage.valueOf(stage.toUpperCase(Locale.ROOT));
+            merged = _latencies[s.ordinal()].merged();
+        } catch (IllegalArgumentException excp) {
+            throw error("unknown stage: %s", stage);
+        }
+        long[] result = new long[BUCKETS];
+        System.arraycopy(merged, 0, result, 0, BUCKETS);
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        _characters.reset();
+        _lines.reset();
+        _rekeys.reset();
+        _errors.reset();
+        _parseNanos.reset();
+        _errorCategories.clear();
+        for (Histogram h : _latencies) {
+            h.reset();
+        }
+        _start = System.nanoTime();
+    }
+
+    /** Return COUNT divided by the number of seconds since the last
+     *  reset. */
+    private double rate(long count) {
+        double seconds = (System.nanoTime() - _start) / 1e9;
+        return seconds <= 0 ? 0.0 : count / seconds;
+    }
+
+    /** Return the category under which an error whose message was formed
+     *  from the format string FORMAT is counted.  Messages that differ
+     *  only in the file or setting they name thus share a category. */
+    private static String category(String format) {
+        if (format == null) {
+            return OTHER;
+        }
+        String result = format.trim().toLowerCase(Locale.ROOT);
+        while (result.endsWith(".")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result.isEmpty() ? OTHER : result;
+    }
+
+    /** Return an upper bound, in nanoseconds, on the fraction P of the
+     *  samples in merged histogram H. */
+    private static long percentile(long[] h, double p) {
+        long target = (long) Math.ceil(h[COUNT] * p);
+        long seen = 0;
+        for (int k = 0; k < BUCKETS; k += 1) {
+            seen += h[k];
+            if (seen >= target && h[k] > 0) {
+                return Math.min(1L << Math.min(k, 62), h[MAX]);
+            }
+        }
+        return 0;
+    }
+
+    /** A latency histogram with power-of-two buckets.  Its buckets are
+     *  divided into a fixed number of stripes, each thread recording into
+     *  the stripe given by its probe, so that threads seldom contend and
+     *  the histogram does not grow however many threads record into it.
+     *  Readers sum the stripes. */
+    private static final class Histogram {
+
+        /** An empty histogram. */
+        Histogram() {
+            for (int k = 0; k < STRIPES; k += 1) {
+                _stripes[k] = new AtomicLongArray(SLOTS);
+            }
+        }
+
+        /** Add the sample NANOS to the current thread's stripe. */
+        void record(long nanos) {
+            AtomicLongArray buckets = _stripes[PROBE.get()];
+            int k = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+            buckets.getAndIncrement(Math.min(k, BUCKETS - 1));
+            buckets.getAndAdd(SUM, nanos);
+            long max = buckets.get(MAX);
+            while (nanos > max && !buckets.compareAndSet(MAX, max, nanos)) {
+                max = buckets.get(MAX);
+            }
+        }
+
+        /** Return the sum of all stripes' buckets, followed by the SUM,
+         *  MAX and COUNT entries. */
+        long[] merged() {
+            long[] result = new long[SLOTS + 1];
+            for (AtomicLongArray buckets : _stripes) {
+                for (int k = 0; k < BUCKETS; k += 1) {
+                    long n = buckets.get(k);
+                    result[k] += n;
+                    result[COUNT] += n;
+                }
+                result[SUM] += buckets.get(SUM);
+                result[MAX] = Math.max(result[MAX], buckets.get(MAX));
+            }
+            return result;
+        }
+
+        /** Clear all stripes' buckets. */
+        void reset() {
+            for (AtomicLongArray buckets : _stripes) {
+                for (int k = 0; k < SLOTS; k += 1) {
+                    buckets.set(k, 0);
+                }
+            }
+        }
+
+        /** Number of stripes: a power of two, at least twice the number
+         *  of processors, up to 64. */
+        private static final int STRIPES =
+            Math.min(64, Integer.highestOneBit(
+                2 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+
+        /** Source of the probes of new threads. */
+        private static final AtomicInteger NEXT_PROBE = new AtomicInteger();
+
+        /** The index of the stripe into which the current thread records,
+         *  assigned to threads in turn as they first record. */
+        private static final ThreadLocal<Integer> PROBE =
+            ThreadLocal.withInitial(() ->
+                NEXT_PROBE.getAndIncrement() & (STRIPES - 1));
+
+        /** The stripes of buckets. */
+        private final AtomicLongArray[] _stripes =
+            new AtomicLongArray[STRIPES];
+    }
+
+    /** Number of histogram buckets. */
+    private static final int BUCKETS = 64;
+
+    /** Index of the sum of samples in a histogram. */
+    private static final int SUM = BUCKETS;
+
+    /** Index of the largest sample in a histogram. */
+    private static final int MAX = BUCKETS + 1;
+
+    /** Number of entries in a thread's histogram. */
+    private static final int SLOTS = BUCKETS + 2;
+
+    /** Index of the total number of samples in a merged histogram. */
+    private static final int COUNT = SLOTS;
+
+    /** Most error categories tracked individually. */
+    private static final int MAX_CATEGORIES = 32;
+
+    /** Category of errors beyond the first MAX_CATEGORIES. */
+    private static final String OTHER = "other";
+
+    /** Characters converted. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Message lines processed. */
+    private final LongAdder _lines = new LongAdder();
+
+    /** Settings lines applied. */
+    private final LongAdder _rekeys = new LongAdder();
+
+    /** Errors reported. */
+    private final LongAdder _errors = new LongAdder();
+
+    /** Time spent parsing configurations. */
+    private final LongAdder _parseNanos = new LongAdder();
+
+    /** Errors reported, by category. */
+    private final ConcurrentHashMap<String, LongAdder> _errorCategories =
+        new ConcurrentHashMap<>();
+
+    /** Latency histograms, indexed by Stage ordinal. */
+    private final Histogram[] _latencies =
+        new Histogram[Stage.values().length];
+
+    /** Time of creation or last reset, as given by System.nanoTime(). */
+    private volatile long _start;
+}
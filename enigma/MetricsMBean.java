@@ -0,0 +1,49 @@
+package enigma;
+
+/** The management interface through which Metrics is exposed over JMX.
+ *  Standard MBeans must be described by a public interface whose name is
+ *  that of the implementing class followed by "MBean".
+ *  @author Yash Pansari
+ */
+public interface MetricsMBean {
+
+    /** Return the number of characters converted by all machines. */
+    long getCharactersConverted();
+
+    /** Return the number of message lines processed. */
+    long getLinesProcessed();
+
+    /** Return the number of '*' settings lines applied. */
+    long getRekeys();
+
+    /** Return the number of errors reported. */
+    long getErrors();
+
+    /** Return the average number of characters converted per second
+     *  since the metrics were last reset. */
+    double getCharactersPerSecond();
+
+    /** Return the average number of lines processed per second since the
+     *  metrics were last reset. */
+    double getLinesPerSecond();
+
+    /** Return the total time spent parsing configurations, in
+     *  nanoseconds. */
+    long getConfigParseNanos();
+
+    /** Return the reported errors, one "CATEGORY=COUNT" entry per
+     *  message category. */
+    String[] getErrorCategories();
+
+    /** Return one summary line (count, mean, p50, p99, max in
+     *  nanoseconds) per stage: parse, setup, convert and output. */
+    String[] getStageLatencies();
+
+    /** Return the latency histogram of the stage named STAGE: entry K
+     *  counts the samples taking less than 2**K nanoseconds (and at
+     *  least 2**(K-1)). */
+    long[] latencyHistogram(String stage);
+
+    /** Clear all counters and histograms. */
+    void reset();
+}
@@ -0,0 +1,109 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.Metrics.METRICS;
+
+/** The suite of all JUnit tests for the Metrics class.
+ *  @author Yash Pansari
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void testCounters() {
+        METRICS.reset();
+        METRICS.converted(5);
+        METRICS.converted(7);
+        METRICS.lineProcessed();
+        METRICS.rekeyed();
+        METRICS.reported(new EnigmaException("Repeated Rotor"));
+        METRICS.reported(new EnigmaException("repeated rotor."));
+        assertEquals(12, METRICS.getCharactersConverted());
+        assertEquals(1, METRICS.getLinesProcessed());
+        assertEquals(1, METRICS.getRekeys());
+        assertEquals(2, METRICS.getErrors());
+        assertArrayEquals(new String[] { "repeated rotor=2" },
+                          METRICS.getErrorCategories());
+    }
+
+    @Test
+    public void testCategoriesByFormat() {
+        METRICS.reset();
+        for (int k = 0; k < 100; k += 1) {
+            METRICS.reported(EnigmaException.error("file%d is corrupt", k));
+        }
+        METRICS.reported(EnigmaException.error("%s is not a settings line",
+                                               "* B III"));
+        assertEquals(101, METRICS.getErrors());
+        String[] categories = METRICS.getErrorCategories();
+        Arrays.sort(categories);
+        assertArrayEquals(new String[] { "%s is not a settings line=1",
+                                         "file%d is corrupt=100" },
+                          categories);
+    }
+
+    @Test
+    public void testHistogram() throws InterruptedException {
+        METRICS.reset();
+        long start = System.nanoTime();
+        METRICS.record(Metrics.Stage.CONVERT, start);
+        Thread other = new Thread(() ->
+            METRICS.record(Metrics.Stage.CONVERT, System.nanoTime()));
+        other.start();
+        other.join();
+        long total = 0;
+        for (long n : METRICS.latencyHistogram("convert")) {
+            total += n;
+        }
+        assertEquals(2, total);
+        assertTrue(METRICS.getStageLatencies()[2].startsWith("convert "
+                                                            + "count=2"));
+    }
+
+    @Test
+    public void testHistogramManyThreads() throws InterruptedException {
+        METRICS.reset();
+        Thread[] threads = new Thread[500];
+        for (int k = 0; k < threads.length; k += 1) {
+            threads[k] = new Thread(() -> {
+                for (int i = 0; i < 40; i += 1) {
+                    METRICS.record(Metrics.Stage.OUTPUT, System.nanoTime());
+                }
+            });
+            threads[k].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (long n : METRICS.latencyHistogram("output")) {
+            total += n;
+        }
+        assertEquals(500 * 40, total);
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        Metrics.register();
+        Metrics.register();
+        METRICS.reset();
+        METRICS.converted(3);
+        Object chars = ManagementFactory.getPlatformMBeanServer()
+            .getAttribute(new ObjectName(Metrics.OBJECT_NAME),
+                          "CharactersConverted");
+        assertEquals(3L, chars);
+    }
+
+}
@@ -15,12 +15,10 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
-        _old = _notches;
-    }
-    @Override
-    void setNotches(String notches) {
-        _old = _notches;
-        _notches = notches;
+        _notchAt = new boolean[perm.size()];
+        for (char ch : notches.toCharArray()) {
+            _notchAt[perm.alphabet().toInt(ch)] = true;
+        }
     }
 
     @Override
@@ -30,28 +28,38 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        return _notches.contains("" + setting());
+        return _notchAt[permutation().wrap(posn() + ring())];
     }
 
     @Override
     void advance() {
-        set(permutation().alphabet().toInt(setting()) + 1);
+        set(posn() + 1);
     }
 
     @Override
-    String notches() {
-        return _notches;
+    Rotor copy() {
+        MovingRotor result = new MovingRotor(name(), permutation(), _notches);
+        result.set(posn());
+        result.setRing(ring());
+        return result;
     }
 
     @Override
-    String old() {
-        return _old;
+    String notches() {
+        Alphabet alphabet = alphabet();
+        String result = "";
+        for (char ch : _notches.toCharArray()) {
+            result += alphabet.toChar(permutation().wrap(alphabet.toInt(ch)
+                                                         - ring()));
+        }
+        return result;
     }
 
-    /** The notches pf this rotor. */
-    private String _notches;
+    /** The notches of this rotor at ring setting 0. */
+    private final String _notches;
 
-    /** The original notches pf this rotor. */
-    private String _old;
+    /** _notchAt[K] is true iff this rotor has a notch at setting K under
+     *  ring setting 0. */
+    private final boolean[] _notchAt;
 
 }
@@ -0,0 +1,190 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Reads the records of a file in the packed format written by
+ *  PackedWriter.  Messages are unpacked into a reusable character array,
+ *  ready to be converted in place by Machine.convert.
+ *  @author Yash Pansari
+ */
+final class PackedReader {
+
+    /** A reader of the packed file NAME, whose contents are IN.  Reads
+     *  the header. */
+    PackedReader(InputStream in, String name) {
+        _in = in;
+        _name = name;
+        int magic = 0;
+        for (int k = 0; k < Integer.BYTES; k += 1) {
+            magic = (magic << Byte.SIZE) | readByte(true);
+        }
+        if (magic != PackedWriter.MAGIC) {
+            throw error("%s is not a packed file", name);
+        }
+        if (readByte(true) != PackedWriter.VERSION) {
+            throw error("%s has an unknown packed format version", name);
+        }
+        _bits = readByte(true);
+        long length = readNumber(true);
+        if (length > MAX_ALPHABET) {
+            throw error("%s is corrupt", name);
+        }
+        byte[] chars = new byte[(int) length];
+        for (int k = 0; k < chars.length; k += 1) {
+            chars[k] = (byte) readByte(true);
+        }
+        _alphabet = new String(chars, StandardCharsets.UTF_8);
+        if (_alphabet.isEmpty()
+            || _bits != PackedWriter.bits(_alphabet.length())) {
+            throw error("%s is corrupt", name);
+        }
+    }
+
+    /** Return the characters of the alphabet of my messages, in
+     *  order. */
+    String alphabet() {
+        return _alphabet;
+    }
+
+    /** Read my next record, and return its kind: MESSAGE, SEGMENT, or END
+     *  if there are no more.  The characters of a message are then
+     *  text()[0 .. length()). */
+    int next() {
+        long tag = readNumber(false);
+        if (tag < 0) {
+            return END;
+        }
+        if (tag == 0) {
+            return SEGMENT;
+        }
+        if (tag > Integer.MAX_VALUE) {
+            throw error("%s is corrupt", _name);
+        }
+        int n = (int) (tag - 1);
+        int mask = (1 << _bits) - 1;
+        long acc = 0;
+        int held = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (i == _text.length) {
+                grow(n);
+            }
+            while (held < _bits) {
+                acc = (acc << Byte.SIZE) | readByte(true);
+                held += Byte.SIZE;
+            }
+            held -= _bits;
+            int code = (int) (acc >>> held) & mask;
+            if (code >= _alphabet.length()) {
+                throw error("%s is corrupt", _name);
+            }
+            _text[i] = _alphabet.charAt(code);
+        }
+        _length = n;
+        return MESSAGE;
+    }
+
+    /** Return the array holding the message last read. */
+    char[] text() {
+        return _text;
+    }
+
+    /** Return the length of the message last read. */
+    int length() {
+        return _length;
+    }
+
+    /** Enlarge _text, keeping its contents, toward room for N characters.
+     *  It grows only as characters arrive, so that a corrupt length costs
+     *  no more memory than the data actually in the file. */
+    private void grow(int n) {
+        if (_text.length >= MAX_TEXT) {
+            throw error("%s has a message too long to read", _name);
+        }
+        _text = Arrays.copyOf(_text, (int) Math.min(Math.min(n, MAX_TEXT),
+                                                     2L * _text.length));
+    }
+
+    /** Return a variable-length integer read from _in, or -1 if _in is
+     *  exhausted before it and not REQUIRED. */
+    private long readNumber(boolean required) {
+        long result = 0;
+        for (int shift = 0; shift < Long.SIZE - 1; shift += 7) {
+            int b = readByte(required || shift > 0);
+            if (b < 0) {
+                return -1;
+            }
+            result |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+        }
+        throw error("%s is corrupt", _name);
+    }
+
+    /** Return the next byte of _in, or -1 if it is exhausted and not
+     *  REQUIRED. */
+    private int readByte(boolean required) {
+        if (_pos == _limit) {
+            try {
+                _limit = _in.read(_buffer);
+            } catch (IOException excp) {
+                throw error("could not read %s", _name);
+            }
+            _pos = 0;
+            if (_limit <= 0) {
+                _limit = 0;
+                if (required) {
+                    throw error("%s is truncated", _name);
+                }
+                return -1;
+            }
+        }
+        int result = _buffer[_pos] & 0xff;
+        _pos += 1;
+        return result;
+    }
+
+    /** Kinds of record returned by next. */
+    static final int END = 0, SEGMENT = 1, MESSAGE = 2;
+
+    /** Most bytes in the alphabet of a valid file. */
+    private static final int MAX_ALPHABET = 1 << 18;
+
+    /** Most characters in a message that can be held. */
+    private static final int MAX_TEXT = Integer.MAX_VALUE - 8;
+
+    /** Size of the input buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Source of my records. */
+    private final InputStream _in;
+
+    /** Name of my file. */
+    private final String _name;
+
+    /** Characters of my alphabet. */
+    private final String _alphabet;
+
+    /** Bits per character. */
+    private final int _bits;
+
+    /** Input read from _in and not yet used. */
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+
+    /** Position of the next byte in _buffer. */
+    private int _pos;
+
+    /** Number of valid bytes in _buffer. */
+    private int _limit;
+
+    /** Holds the message last read. */
+    private char[] _text = new char[BUFFER_SIZE];
+
+    /** Length of the message last read. */
+    private int _length;
+}
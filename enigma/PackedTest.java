@@ -0,0 +1,134 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the PackedWriter and PackedReader
+ *  classes.
+ *  @author Yash Pansari
+ */
+public class PackedTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return the packed form of MSGS in ALPHABET, with a segment marked
+     *  before each null. */
+    private byte[] pack(Alphabet alphabet, String... msgs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PackedWriter writer = new PackedWriter(out, alphabet);
+        for (String msg : msgs) {
+            if (msg == null) {
+                writer.segment();
+            } else {
+                writer.writeLine(msg);
+            }
+        }
+        writer.flush();
+        assertEquals(out.size(), writer.written());
+        return out.toByteArray();
+    }
+
+    /** Return a reader of DATA. */
+    private PackedReader reader(byte[] data) {
+        return new PackedReader(new ByteArrayInputStream(data), "test");
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Alphabet alphabet = new Alphabet(TestUtils.UPPER_STRING);
+        String[] msgs = { null, "HELLOWORLD", "", "Z", null,
+                          "FROMHISSHOULDERHIAWATHA".repeat(5000) };
+        PackedReader reader = reader(pack(alphabet, msgs));
+        assertEquals(TestUtils.UPPER_STRING, reader.alphabet());
+        for (String msg : msgs) {
+            if (msg == null) {
+                assertEquals(PackedReader.SEGMENT, reader.next());
+            } else {
+                assertEquals(PackedReader.MESSAGE, reader.next());
+                assertEquals(msg, new String(reader.text(), 0,
+                                             reader.length()));
+            }
+        }
+        assertEquals(PackedReader.END, reader.next());
+    }
+
+    @Test
+    public void testSize() {
+        String msg = "FROMHISSHOULDERHIAWATHA".repeat(100);
+        byte[] data = pack(new Alphabet(TestUtils.UPPER_STRING), msg);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        GroupFormatter formatter = new GroupFormatter(text);
+        formatter.writeLine(msg);
+        formatter.flush();
+        assertTrue(data.length < 0.6 * text.size());
+        assertEquals(5, PackedWriter.bits(26));
+        assertEquals(1, PackedWriter.bits(2));
+        assertEquals(7, PackedWriter.bits(100));
+    }
+
+    @Test
+    public void testOddAlphabet() {
+        Alphabet alphabet = new Alphabet("\u00c4\u00d6\u00dc.");
+        PackedReader reader = reader(pack(alphabet, "\u00c4.\u00dc\u00d6."));
+        assertEquals("\u00c4\u00d6\u00dc.", reader.alphabet());
+        assertEquals(PackedReader.MESSAGE, reader.next());
+        assertEquals("\u00c4.\u00dc\u00d6.",
+                     new String(reader.text(), 0, reader.length()));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNotPacked() {
+        reader("HELLO WORLD\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testTruncated() {
+        byte[] data = pack(new Alphabet(TestUtils.UPPER_STRING),
+                           "HELLOWORLD");
+        PackedReader reader =
+            reader(Arrays.copyOf(data, data.length - 1));
+        reader.next();
+    }
+
+    /** Return DATA followed by N as a variable-length number, and then by
+     *  the bytes MORE. */
+    private byte[] append(byte[] data, long n, int... more) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(data);
+        for (; n >= 0x80; n >>>= 7) {
+            out.write((int) (n & 0x7f) | 0x80);
+        }
+        out.write((int) n);
+        for (int b : more) {
+            out.write(b);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCorruptLength() {
+        byte[] header = pack(new Alphabet(TestUtils.UPPER_STRING));
+        long[] tags = { Integer.MAX_VALUE, 1L << 40 };
+        String[] msgs = { "test is truncated", "test is corrupt" };
+        for (int k = 0; k < tags.length; k += 1) {
+            PackedReader reader =
+                reader(append(header, tags[k], 0, 0, 0));
+            try {
+                reader.next();
+                fail("message of " + tags[k] + " characters accepted");
+            } catch (EnigmaException excp) {
+                assertEquals(msgs[k], excp.getMessage());
+            }
+            assertTrue(reader.text().length < 1 << 20);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.EnigmaException.*;
+
+/** Writes message lines in the packed format read by PackedReader, in
+ *  which each character takes only as many bits as its alphabet needs
+ *  (five for 26 letters) rather than a byte, and no group separators or
+ *  line terminators are written.
+ *
+ *  A packed file is a header (MAGIC, VERSION, the bits per character and
+ *  the alphabet in UTF-8, preceded by its length in bytes) followed by
+ *  records, each introduced by an unsigned variable-length integer
+ *  (seven bits per byte, least significant first, with the high bit set
+ *  on all but the last byte).  A value of 0 marks the start of a
+ *  segment, in which the machine was set up by a settings line.  A value
+ *  of N + 1 is a message of N characters, which follows as the indices
+ *  of its characters in the alphabet, packed most significant bit first
+ *  and padded to a whole byte.
+ *  @author Yash Pansari
+ */
+final class PackedWriter {
+
+    /** A writer of messages in ALPHABET to OUT.  Writes the header. */
+    PackedWriter(OutputStream out, Alphabet alphabet) {
+        _out = out;
+        _bits = bits(alphabet.size());
+        int max = 0;
+        for (char c : alphabet.getChars()) {
+            max = Math.max(max, c);
+        }
+        _codes = new int[max + 1];
+        for (int i = 0; i < alphabet.size(); i += 1) {
+            _codes[alphabet.toChar(i)] = i;
+        }
+        byte[] chars = new String(alphabet.getChars())
+            .getBytes(StandardCharsets.UTF_8);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            putByte(MAGIC >>> shift);
+        }
+        putByte(VERSION);
+        putByte(_bits);
+        putNumber(chars.length);
+        for (byte b : chars) {
+            putByte(b);
+        }
+    }
+
+    /** Return the number of bits needed for each character of an
+     *  alphabet of SIZE characters. */
+    static int bits(int size) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(size
+                                                                       - 1));
+    }
+
+    /** Mark the start of a segment. */
+    void segment() {
+        putNumber(0);
+    }
+
+    /** Write MSG, whose characters must all be in my alphabet, as a
+     *  message. */
+    void writeLine(CharSequence msg) {
+        int n = msg.length();
+        putNumber(n + 1L);
+        long acc = 0;
+        int held = 0;
+        for (int i = 0; i < n; i += 1) {
+            acc = (acc << _bits) | _codes[msg.charAt(i)];
+            held += _bits;
+            while (held >= Byte.SIZE) {
+                held -= Byte.SIZE;
+                putByte((int) (acc >>> held));
+            }
+        }
+        if (held > 0) {
+            putByte((int) (acc << (Byte.SIZE - held)));
+        }
+    }
+
+    /** Pass all buffered output to the underlying stream and flush it. */
+    void flush() {
+        drain();
+        try {
+            _out.flush();
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the total number of bytes written so far, including those
+     *  still buffered. */
+    long written() {
+        return _drained + _size;
+    }
+
+    /** Buffer N as a variable-length integer. */
+    private void putNumber(long n) {
+        while (n >= 0x80) {
+            putByte((int) (n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        putByte((int) n);
+    }
+
+    /** Buffer the low-order byte of B. */
+    private void putByte(int b) {
+        if (_size == _buffer.length) {
+            drain();
+        }
+        _buffer[_size] = (byte) b;
+        _size += 1;
+    }
+
+    /** Pass the contents of _buffer to _out. */
+    private void drain() {
+        if (_size == 0) {
+            return;
+        }
+        try {
+            _out.write(_buffer, 0, _size);
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        _drained += _size;
+        _size = 0;
+    }
+
+    /** Identifies a packed file ("ENPK"). */
+    static final int MAGIC = 0x454e504b;
+
+    /** Version of the packed format. */
+    static final int VERSION = 1;
+
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Destination of my output. */
+    private final OutputStream _out;
+
+    /** Bits per character. */
+    private final int _bits;
+
+    /** _codes[c] is the index of character c in my alphabet. */
+    private final int[] _codes;
+
+    /** Output not yet passed to _out. */
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+
+    /** Number of bytes in _buffer. */
+    private int _size;
+
+    /** Number of bytes already passed to _out. */
+    private long _drained;
+}
@@ -27,13 +27,36 @@ class Permutation {
             }
             usedLetters += cycle;
         }
+        int size = alphabet.size();
+        _forward = new int[size];
+        _inverse = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            _forward[i] = _inverse[i] = i;
+        }
+        for (String cycle : _cycles) {
+            for (int j = 0; j < cycle.length(); j += 1) {
+                char from = cycle.charAt(j);
+                char to = cycle.charAt((j + 1) % cycle.length());
+                if (!alphabet.contains(from)) {
+                    throw error("cycle character %c not in alphabet", from);
+                }
+                _forward[alphabet.toInt(from)] = alphabet.toInt(to);
+                _inverse[alphabet.toInt(to)] = alphabet.toInt(from);
+            }
+        }
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        _cycles = Arrays.copyOf(_cycles, _cycles.length + 1);
-        _cycles[_cycles.length - 1] = cycle;
+    /** A permutation of the indices of ALPHABET mapping each index K to
+     *  FORWARD[K], which must be a permutation of 0 .. ALPHABET.size()-1.
+     *  Takes ownership of FORWARD. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = new int[forward.length];
+        for (int k = 0; k < forward.length; k += 1) {
+            _inverse[forward[k]] = k;
+        }
+        _cycles = null;
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -57,38 +80,77 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return _alphabet.toInt(permute(_alphabet.toChar(wrap(p))));
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return _alphabet.toInt(invert(_alphabet.toChar(wrap(c))));
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        p = _alphabet.toChar(wrap(_alphabet.toInt(p)));
-        for (String cycle : _cycles) {
-            if (cycle.contains("" + p)) {
-                int ans = wrap((cycle.indexOf("" + p) + 1), cycle.length());
-                return cycle.charAt(ans);
-            }
-        }
-        return p;
+        return _alphabet.toChar(permute(_alphabet.toInt(p)));
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        c = _alphabet.toChar(wrap(_alphabet.toInt(c)));
-        for (String cycle : _cycles) {
-            if (cycle.contains("" + c)) {
-                int ans = wrap((cycle.indexOf("" + c) - 1), cycle.length());
-                return cycle.charAt(ans);
+        return _alphabet.toChar(invert(_alphabet.toInt(c)));
+    }
+
+    /** Return the composition of this permutation with P: the permutation
+     *  that applies P and then this permutation. */
+    Permutation compose(Permutation p) {
+        int[] result = new int[size()];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = _forward[p._forward[k]];
+        }
+        return new Permutation(result, _alphabet);
+    }
+
+    /** Return the inverse of this permutation. */
+    Permutation inverse() {
+        return new Permutation(_inverse.clone(), _alphabet);
+    }
+
+    /** Return this permutation as seen through a rotor at setting K: the
+     *  permutation taking each P to permute(P + K) - K, modulo the
+     *  alphabet size. */
+    Permutation shift(int k) {
+        int[] result = new int[size()];
+        for (int p = 0; p < result.length; p += 1) {
+            result[p] = wrap(_forward[wrap(p + k)] - k);
+        }
+        return new Permutation(result, _alphabet);
+    }
+
+    /** Return the lengths of my cycles, longest first, counting each
+     *  fixed point as a cycle of length 1. */
+    int[] cycleType() {
+        boolean[] seen = new boolean[size()];
+        int[] lengths = new int[size()];
+        int n = 0;
+        for (int k = 0; k < seen.length; k += 1) {
+            int length = 0;
+            for (int p = k; !seen[p]; p = _forward[p]) {
+                seen[p] = true;
+                length += 1;
             }
+            if (length > 0) {
+                lengths[n] = length;
+                n += 1;
+            }
+        }
+        int[] result = Arrays.copyOf(lengths, n);
+        Arrays.sort(result);
+        for (int i = 0, j = n - 1; i < j; i += 1, j -= 1) {
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
         }
-        return c;
+        return result;
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -99,6 +161,14 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
+        if (_cycles == null) {
+            for (int k = 0; k < _forward.length; k += 1) {
+                if (_forward[k] == k) {
+                    return false;
+                }
+            }
+            return true;
+        }
         int sUm = Arrays.stream(_cycles).mapToInt(String::length).sum();
         if (sUm < _alphabet.size()) {
             return false;
@@ -109,6 +179,13 @@ class Permutation {
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** All of the parsed cycles. */
+    /** All of the parsed cycles, or null if I was not created from
+     *  cycles. */
     private String[] _cycles;
+
+    /** _forward[K] is the result of applying me to K. */
+    private final int[] _forward;
+
+    /** _inverse[K] is the result of applying my inverse to K. */
+    private final int[] _inverse;
 }
@@ -57,4 +57,41 @@ public class PermutationTest {
         checkPerm("Rotor 1 checkpoint", lowerString, mapped);
     }
 
+    @Test
+    public void checkCompose() {
+        Permutation p = new Permutation("(ABC)(DE)", UPPER);
+        Permutation q = new Permutation("(AD)(BZ)", UPPER);
+        perm = q.compose(p);
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(q.permute(p.permute(i)), perm.permute(i));
+            assertEquals(i, perm.invert(perm.permute(i)));
+        }
+        perm = p.inverse();
+        checkPerm("inverse", UPPER_STRING, "CABEDFGHIJKLMNOPQRSTUVWXYZ");
+    }
+
+    @Test
+    public void checkShift() {
+        Permutation p = new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
+                                        + "(IV) (JZ) (S)", UPPER);
+        perm = p.shift(3);
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(p.wrap(p.permute(p.wrap(i + 3)) - 3),
+                         perm.permute(i));
+        }
+        perm = p.shift(0);
+        checkPerm("shift 0", UPPER_STRING, "EKMFLGDQVZNTOWYHXUSPAIBRCJ");
+    }
+
+    @Test
+    public void checkCycleType() {
+        Permutation p = new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
+                                        + "(IV) (JZ) (S)", UPPER);
+        assertArrayEquals(new int[] {10, 4, 4, 3, 2, 2, 1},
+                          p.cycleType());
+        assertArrayEquals(new int[] {26},
+                          new Permutation("(" + UPPER_STRING + ")", UPPER)
+                          .cycleType());
+    }
+
 }
@@ -0,0 +1,161 @@
+package enigma;
+
+import java.util.Scanner;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/** Runs the processing of an input in three overlapping stages: a reader
+ *  thread that collects input lines into chunks, a cipher thread that
+ *  converts them, and the calling thread, which writes the results.  The
+ *  stages are connected by RingBuffers, and a fixed pool of chunks
+ *  circulates among them, so that no chunk is allocated after start-up.
+ *  Lines are converted and written strictly in input order.
+ *  @author Yash Pansari
+ */
+final class Pipeline {
+
+    /** A pipeline that reads lines from INPUT, converts each with CIPHER,
+     *  and passes each non-null result to OUTPUT.  CIPHER is only ever
+     *  called from one thread, in input order. */
+    Pipeline(Scanner input, Function<String, String> cipher,
+             Consumer<String> output) {
+        _input = input;
+        _cipher = cipher;
+        _output = output;
+        for (int i = 0; i < CHUNKS; i += 1) {
+            _free.offer(new Chunk());
+        }
+    }
+
+    /** Process all remaining input.  Any exception thrown while reading
+     *  or converting is rethrown here, after the results of all
+     *  preceding lines have been written. */
+    void run() {
+        Thread reader = new Thread(this::read, "enigma-reader");
+        Thread cipher = new Thread(this::convert, "enigma-cipher");
+        reader.setDaemon(true);
+        cipher.setDaemon(true);
+        reader.start();
+        cipher.start();
+        try {
+            write();
+        } finally {
+            _free.cancel();
+            _read.cancel();
+            _converted.cancel();
+        }
+    }
+
+    /** The reader stage: fill free chunks with input lines. */
+    private void read() {
+        Chunk chunk;
+        while ((chunk = _free.take()) != null) {
+            chunk.clear();
+            try {
+                while (chunk.size < CHUNK_LINES && _input.hasNextLine()) {
+                    chunk.lines[chunk.size] = _input.nextLine();
+                    chunk.size += 1;
+                }
+                chunk.last = !_input.hasNextLine();
+            } catch (RuntimeException excp) {
+                chunk.error = excp;
+                chunk.last = true;
+            }
+            if (!_read.put(chunk) || chunk.last) {
+                return;
+            }
+        }
+    }
+
+    /** The cipher stage: replace the lines of each chunk by their
+     *  conversions. */
+    private void convert() {
+        Chunk chunk;
+        while ((chunk = _read.take()) != null) {
+            for (int i = 0; i < chunk.size; i += 1) {
+                try {
+                    chunk.results[i] = _cipher.apply(chunk.lines[i]);
+                } catch (RuntimeException excp) {
+                    chunk.size = i;
+                    chunk.error = excp;
+                    chunk.last = true;
+                }
+            }
+            if (!_converted.put(chunk) || chunk.last) {
+                return;
+            }
+        }
+    }
+
+    /** The writer stage: write the results of each chunk and return it to
+     *  the free pool. */
+    private void write() {
+        Chunk chunk;
+        while ((chunk = _converted.take()) != null) {
+            for (int i = 0; i < chunk.size; i += 1) {
+                if (chunk.results[i] != null) {
+                    _output.accept(chunk.results[i]);
+                }
+            }
+            if (chunk.error != null) {
+                throw chunk.error;
+            }
+            if (chunk.last) {
+                return;
+            }
+            _free.put(chunk);
+        }
+    }
+
+    /** A reusable batch of consecutive input lines and their
+     *  conversions. */
+    private static final class Chunk {
+
+        /** Make me empty. */
+        void clear() {
+            size = 0;
+            last = false;
+            error = null;
+        }
+
+        /** The input lines. */
+        final String[] lines = new String[CHUNK_LINES];
+
+        /** The conversions of LINES (null for lines with no output). */
+        final String[] results = new String[CHUNK_LINES];
+
+        /** Number of valid entries in LINES and RESULTS. */
+        int size;
+
+        /** True iff this is the final chunk of the input. */
+        boolean last;
+
+        /** The exception that ended processing after the first SIZE
+         *  lines, or null. */
+        RuntimeException error;
+    }
+
+    /** Number of lines in each chunk. */
+    static final int CHUNK_LINES = 256;
+
+    /** Number of chunks in circulation. */
+    private static final int CHUNKS = 8;
+
+    /** Source of input lines. */
+    private final Scanner _input;
+
+    /** Conversion applied to each line. */
+    private final Function<String, String> _cipher;
+
+    /** Destination of converted lines. */
+    private final Consumer<String> _output;
+
+    /** Chunks available to the reader. */
+    private final RingBuffer<Chunk> _free = new RingBuffer<>(CHUNKS);
+
+    /** Chunks waiting to be converted. */
+    private final RingBuffer<Chunk> _read = new RingBuffer<>(CHUNKS);
+
+    /** Chunks waiting to be written. */
+    private final RingBuffer<Chunk> _converted = new RingBuffer<>(CHUNKS);
+}
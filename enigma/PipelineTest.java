@@ -0,0 +1,143 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Pipeline and RingBuffer
+ *  classes.
+ *  @author Yash Pansari
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    /** Return a five-slot machine with three pawls, not yet set up. */
+    private Machine machine() {
+        return TestUtils.navalMachine(5, 3, "B", "C", "Beta", "I", "II",
+                                      "III", "IV", "V");
+    }
+
+    /** Return the results of converting the lines of INPUT with a Pipeline
+     *  on a Session of MACHINE, followed by the message of the error that
+     *  stopped it, if any. */
+    private List<String> pipeline(Machine machine, Scanner input) {
+        ArrayList<String> result = new ArrayList<>();
+        Session session = new Session(machine);
+        try {
+            new Pipeline(input, session::processLine, result::add).run();
+        } catch (EnigmaException excp) {
+            result.add("error: " + excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Return LINES as the text of a file, each ended by a newline. */
+    private String text(List<String> lines) {
+        return String.join("\n", lines) + "\n";
+    }
+
+    /** Check that a Pipeline converts LINES as a single Session does. */
+    private void checkPipeline(List<String> lines) {
+        assertEquals(TestUtils.serial(machine(), lines),
+                     pipeline(machine(), new Scanner(text(lines))));
+    }
+
+    @Test
+    public void testMatchesSerial() {
+        Random random = new Random(27);
+        checkPipeline(TestUtils.input(random, 5000, 3));
+        checkPipeline(TestUtils.input(random, 3000, 500));
+        checkPipeline(TestUtils.input(random, 3, 3));
+        checkPipeline(TestUtils.input(random, Pipeline.CHUNK_LINES, 10));
+    }
+
+    @Test
+    public void testErrorAfterOutput() {
+        Random random = new Random(28);
+        List<String> lines = TestUtils.input(random, 4000, 5);
+        int bad = 3 * Pipeline.CHUNK_LINES + 17;
+        lines.set(bad, lines.get(bad) + "?");
+        List<String> expected = TestUtils.serial(machine(), lines);
+        assertEquals("error: message not in alphabet",
+                     expected.get(expected.size() - 1));
+        assertTrue(expected.size() > 2 * Pipeline.CHUNK_LINES);
+        checkPipeline(lines);
+
+        lines.set(1, "* B Beta I II VI AAAA");
+        expected = TestUtils.serial(machine(), lines);
+        assertEquals(1, expected.size());
+        checkPipeline(lines);
+    }
+
+    @Test
+    public void testReadError() {
+        List<String> lines = TestUtils.input(new Random(29), 3000, 5);
+        String text = text(lines);
+        int limit = text.length() / 2;
+        Readable failing = new Readable() {
+            @Override
+            public int read(CharBuffer buffer) {
+                int n = Math.min(buffer.remaining(), limit - _position);
+                if (n == 0) {
+                    throw new EnigmaException("read failed");
+                }
+                buffer.put(text, _position, _position + n);
+                _position += n;
+                return n;
+            }
+
+            /** Number of characters read. */
+            private int _position;
+        };
+        List<String> results = pipeline(machine(), new Scanner(failing));
+        assertEquals("error: read failed", results.get(results.size() - 1));
+        List<String> expected = TestUtils.serial(machine(), lines);
+        assertTrue(results.size() > expected.size() / 4);
+        assertEquals(expected.subList(0, results.size() - 1),
+                     results.subList(0, results.size() - 1));
+    }
+
+    @Test
+    public void testRingBuffer() throws InterruptedException {
+        RingBuffer<Integer> ring = new RingBuffer<>(5);
+        assertEquals(8, ring.capacity());
+        for (int i = 0; i < 8; i += 1) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(8));
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(8));
+
+        int n = 200000;
+        RingBuffer<Integer> queue = new RingBuffer<>(4);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < n; i += 1) {
+                queue.put(i);
+            }
+        });
+        producer.start();
+        for (int i = 0; i < n; i += 1) {
+            assertEquals(Integer.valueOf(i), queue.take());
+        }
+        producer.join();
+        assertNull(queue.poll());
+        queue.cancel();
+        assertNull(queue.take());
+        for (int i = 0; i < queue.capacity(); i += 1) {
+            queue.offer(i);
+        }
+        assertFalse(queue.put(-1));
+    }
+}
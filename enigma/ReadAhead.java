@@ -0,0 +1,122 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** An input stream that reads its source on a separate thread, in large
+ *  blocks, ahead of its consumer.  Used to decompress input while the
+ *  machine converts what has already been decompressed.  Blocks circulate
+ *  between the two threads through a pair of RingBuffers, so no block is
+ *  allocated after construction.
+ *  @author Yash Pansari
+ */
+final class ReadAhead extends InputStream {
+
+    /** A stream delivering the contents of SOURCE, read by a daemon thread
+     *  named NAME. */
+    ReadAhead(InputStream source, String name) {
+        _source = source;
+        for (int k = 0; k < BLOCKS; k += 1) {
+            _empty.offer(new Block());
+        }
+        Thread reader = new Thread(this::fill, name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (_current == null || _pos == _current.length) {
+            if (_current != null) {
+                if (_current.last) {
+                    return -1;
+                }
+                _empty.put(_current);
+            }
+            _current = _full.take();
+            _pos = 0;
+            if (_current == null) {
+                throw new IOException("stream closed");
+            }
+            if (_current.failure != null) {
+                throw _current.failure;
+            }
+        }
+        int n = Math.min(len, _current.length - _pos);
+        System.arraycopy(_current.data, _pos, b, off, n);
+        _pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _full.cancel();
+        _empty.cancel();
+        _source.close();
+    }
+
+    /** Read my source into empty blocks until it is exhausted or fails,
+     *  passing each block to my consumer. */
+    private void fill() {
+        while (true) {
+            Block block = _empty.take();
+            if (block == null) {
+                return;
+            }
+            try {
+                block.length = _source.readNBytes(block.data, 0,
+                                                  block.data.length);
+                block.last = block.length < block.data.length;
+            } catch (IOException excp) {
+                block.length = 0;
+                block.failure = excp;
+                block.last = true;
+            }
+            if (!_full.put(block) || block.last) {
+                return;
+            }
+        }
+    }
+
+    /** A block of data read from my source. */
+    private static final class Block {
+        /** The data. */
+        private final byte[] data = new byte[BLOCK_SIZE];
+        /** Number of valid bytes in data. */
+        private int length;
+        /** True iff this is the last block of the source. */
+        private boolean last;
+        /** The failure that ended the source, or null. */
+        private IOException failure;
+    }
+
+    /** Size of a block. */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /** Number of blocks. */
+    private static final int BLOCKS = 8;
+
+    /** The stream I read ahead. */
+    private final InputStream _source;
+
+    /** Blocks filled by the reader, awaiting the consumer. */
+    private final RingBuffer<Block> _full = new RingBuffer<>(BLOCKS);
+
+    /** Blocks consumed, awaiting the reader. */
+    private final RingBuffer<Block> _empty = new RingBuffer<>(BLOCKS);
+
+    /** The block being consumed, or null. */
+    private Block _current;
+
+    /** Position of the next byte in _current. */
+    private int _pos;
+}
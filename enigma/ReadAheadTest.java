@@ -0,0 +1,130 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the ReadAhead class and for reading
+ *  compressed input.
+ *  @author Yash Pansari
+ */
+public class ReadAheadTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return LINES numbered lines of text. */
+    private String text(int lines) {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < lines; k += 1) {
+            result.append("LINE ").append(k).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return DATA compressed with gzip. */
+    private byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream zip = new GZIPOutputStream(out);
+        zip.write(data);
+        zip.close();
+        return out.toByteArray();
+    }
+
+    /** Return the first half of the gzip compression of LINES lines of
+     *  text. */
+    private byte[] truncated(int lines) throws IOException {
+        byte[] zipped = gzip(text(lines).getBytes(StandardCharsets.UTF_8));
+        return Arrays.copyOf(zipped, zipped.length / 2);
+    }
+
+    @Test
+    public void testContents() throws IOException {
+        byte[] data = new byte[1_000_003];
+        new Random(38).nextBytes(data);
+        InputStream in =
+            new ReadAhead(new ByteArrayInputStream(data), "test-read");
+        assertEquals(data[0] & 0xff, in.read());
+        byte[] rest = in.readAllBytes();
+        assertArrayEquals(Arrays.copyOfRange(data, 1, data.length), rest);
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void testFailurePassedOn() throws IOException {
+        InputStream in = new ReadAhead(
+            new GZIPInputStream(new ByteArrayInputStream(truncated(20000))),
+            "test-read");
+        try {
+            in.readAllBytes();
+            fail("truncated input read without error");
+        } catch (IOException excp) {
+            /* Expected. */
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testTruncatedScanner() throws IOException {
+        Scanner input = new Scanner(
+            new ReadAhead(new GZIPInputStream(
+                new ByteArrayInputStream(truncated(20000))), "test-read"),
+            StandardCharsets.UTF_8);
+        int lines = 0;
+        while (input.hasNextLine()) {
+            String line = input.nextLine();
+            assertTrue(line, ("LINE " + lines).startsWith(line));
+            lines += 1;
+        }
+        assertTrue(lines > 0 && lines < 20000);
+        try {
+            Main.checkRead(input, "test.gz");
+            fail("truncated input not reported");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().startsWith("could not read test.gz"));
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException {
+        File file = File.createTempFile("enigma", ".in.gz");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(truncated(20000));
+        }
+        try {
+            Batch.readLines(file.getPath());
+            fail("truncated input not reported");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().startsWith("could not read"));
+        } finally {
+            file.delete();
+        }
+        file = File.createTempFile("enigma", ".in.gz");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(gzip(text(20000).getBytes(StandardCharsets.UTF_8)));
+        }
+        assertEquals(20000, Batch.readLines(file.getPath()).size());
+        file.delete();
+    }
+}
@@ -20,6 +20,11 @@ class Reflector extends FixedRotor {
         }
     }
 
+    @Override
+    Rotor copy() {
+        return new Reflector(name(), permutation());
+    }
+
     /** Return true iff I reflect. */
     @Override
     boolean reflecting() {
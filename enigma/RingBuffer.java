@@ -0,0 +1,122 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** A bounded, lock-free queue connecting exactly one producer thread to
+ *  exactly one consumer thread.  The producer publishes an item by
+ *  advancing the tail with a release store; the consumer sees it once it
+ *  reads that tail, so no locks are taken on either side.
+ *  @author Yash Pansari
+ */
+final class RingBuffer<T> {
+
+    /** A ring holding up to CAPACITY items.  CAPACITY is rounded up to a
+     *  power of two. */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        _items = new Object[size];
+        _mask = size - 1;
+    }
+
+    /** Return the number of items I can hold. */
+    int capacity() {
+        return _items.length;
+    }
+
+    /** Append ITEM if there is room, returning true iff it was
+     *  appended.  Only the producer thread may call this. */
+    boolean offer(T item) {
+        long tail = _tail.get();
+        if (tail - _head.get() == _items.length) {
+            return false;
+        }
+        _items[(int) (tail & _mask)] = item;
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /** Remove and return my oldest item, or null if I am empty.  Only the
+     *  consumer thread may call this. */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long head = _head.get();
+        if (head == _tail.get()) {
+            return null;
+        }
+        int k = (int) (head & _mask);
+        T item = (T) _items[k];
+        _items[k] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** Append ITEM, waiting for room.  Returns false without appending
+     *  if I am cancelled while waiting. */
+    boolean put(T item) {
+        for (int tries = 0; !offer(item); tries += 1) {
+            if (_cancelled) {
+                return false;
+            }
+            idle(tries);
+        }
+        return true;
+    }
+
+    /** Remove and return my oldest item, waiting for one to arrive.
+     *  Returns null if I am cancelled while waiting. */
+    T take() {
+        T item;
+        for (int tries = 0; (item = poll()) == null; tries += 1) {
+            if (_cancelled) {
+                return null;
+            }
+            idle(tries);
+        }
+        return item;
+    }
+
+    /** Cause all current and future waits in put and take to give up. */
+    void cancel() {
+        _cancelled = true;
+    }
+
+    /** Back off after TRIES unsuccessful attempts: spin briefly, then
+     *  yield, then sleep for short intervals. */
+    private static void idle(int tries) {
+        if (tries < SPINS) {
+            Thread.onSpinWait();
+        } else if (tries < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Number of busy-wait attempts before yielding. */
+    private static final int SPINS = 100;
+
+    /** Number of yields before parking. */
+    private static final int YIELDS = 100;
+
+    /** Length of each park, in nanoseconds. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** The slots of the ring. */
+    private final Object[] _items;
+
+    /** Mask reducing a position to a slot index. */
+    private final int _mask;
+
+    /** Position of the next item to remove. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Position of the next item to add. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** True once cancel() has been called. */
+    private volatile boolean _cancelled;
+}
@@ -11,7 +11,6 @@ class Rotor {
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
-        _setting = _permutation.alphabet().toChar(0);
     }
 
     /** Return my name. */
@@ -19,10 +18,6 @@ class Rotor {
         return _name;
     }
 
-    /** Change notches.
-     * @param notches */
-    void setNotches(String notches) { }
-
     /** Return my alphabet. */
     Alphabet alphabet() {
         return _permutation.alphabet();
@@ -50,23 +45,40 @@ class Rotor {
 
     /** Return my current setting. */
     char setting() {
-        return _setting;
+        return alphabet().toChar(_posn);
+    }
+
+    /** Return my current setting as an index into my alphabet. */
+    int posn() {
+        return _posn;
     }
 
     /** Set setting() to POSN.  */
     void set(int posn) {
-        _setting = permutation().alphabet().toChar(permutation().wrap(posn));
+        _posn = permutation().wrap(posn);
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
-        _setting = cposn;
+        _posn = alphabet().toInt(cposn);
+    }
+
+    /** Return my ring setting: the offset of the letters on my ring (and
+     *  so of my notches) relative to my wiring, as an index into my
+     *  alphabet. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Set ring() to RING. */
+    void setRing(int ring) {
+        _ring = permutation().wrap(ring);
     }
 
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int setting = permutation().alphabet().toInt(_setting);
+        int setting = _posn;
         int contact = permutation().wrap(p + setting);
         int result = permutation().permute(contact);
         result = permutation().wrap(result - setting);
@@ -79,7 +91,7 @@ class Rotor {
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int setting = permutation().alphabet().toInt(_setting);
+        int setting = _posn;
         int contact = permutation().wrap(e + setting);
         int result = permutation().invert(contact);
         result = permutation().wrap(result - setting);
@@ -89,18 +101,12 @@ class Rotor {
         return result;
     }
 
-    /** Returns the positions of the notches, as a string giving the letters
-     *  on the ring at which they occur. */
+    /** Returns the positions of the notches, as a string giving the
+     *  settings at which they occur under my current ring setting. */
     String notches() {
         return "";
     }
 
-    /** Returns the old positions of the notches, as a string giving the letters
-     *  on the ring at which they occur. */
-    String old() {
-        return "";
-    }
-
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
@@ -111,6 +117,15 @@ class Rotor {
     void advance() {
     }
 
+    /** Return a new rotor with my name, permutation and current state, which
+     *  may then be moved independently of me. */
+    Rotor copy() {
+        Rotor result = new Rotor(_name, _permutation);
+        result._posn = _posn;
+        result._ring = _ring;
+        return result;
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -122,6 +137,9 @@ class Rotor {
     /** The permutation implemented by this rotor in its 0 position. */
     private Permutation _permutation;
 
-    /** The setting of this rotor. */
-    private char _setting;
+    /** The setting of this rotor, as an index into its alphabet. */
+    private int _posn;
+
+    /** The ring setting of this rotor, as an index into its alphabet. */
+    private int _ring;
 }
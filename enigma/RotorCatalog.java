@@ -0,0 +1,195 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors available to a machine, indexed by name.  A rotor read from
+ *  a configuration is recorded as its kind, notches and the text of its
+ *  cycles, and its wiring is only parsed into a Permutation when the rotor
+ *  is first asked for, so that a library of many thousands of rotors
+ *  costs little more than a scan to load.  Errors in the cycles of a
+ *  rotor are accordingly reported only when it is used.  Parsed wirings
+ *  are shared with copies of the catalog; the Rotor objects, which hold
+ *  settings, are not.
+ *  @author Yash Pansari
+ */
+final class RotorCatalog {
+
+    /** An empty catalog of rotors over ALPHABET. */
+    RotorCatalog(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _entries = new LinkedHashMap<>();
+    }
+
+    /** A catalog containing ROTORS, all over ALPHABET. */
+    RotorCatalog(Alphabet alphabet, Collection<Rotor> rotors) {
+        this(alphabet);
+        for (Rotor rotor : rotors) {
+            add(rotor);
+        }
+    }
+
+    /** A catalog over ALPHABET with the descriptions ENTRIES. */
+    private RotorCatalog(Alphabet alphabet,
+                         LinkedHashMap<String, Entry> entries) {
+        _alphabet = alphabet;
+        _entries = entries;
+    }
+
+    /** Add a rotor named NAME of kind KIND ('M' moving, 'N' fixed or 'R'
+     *  reflector), with notches at the letters NOTCHES (if moving), whose
+     *  permutation is given by the cycles CYCLES.  CYCLES is not parsed
+     *  until the rotor is first used.  Replaces any rotor of the same
+     *  name. */
+    void add(String name, char kind, String notches, String cycles) {
+        if (kind != 'M' && kind != 'N' && kind != 'R') {
+            throw error("type invalid");
+        }
+        unshare();
+        _entries.put(name, new Entry(name, kind, notches, cycles));
+        _rotors.remove(name);
+    }
+
+    /** Add ROTOR, replacing any rotor of the same name. */
+    void add(Rotor rotor) {
+        unshare();
+        _entries.put(rotor.name(), new Entry(rotor));
+        _rotors.put(rotor.name(), rotor);
+    }
+
+    /** Return my rotor named NAME, or null if there is none.  May report
+     *  errors in the description of that rotor. */
+    Rotor get(String name) {
+        Rotor result = _rotors.get(name);
+        if (result == null) {
+            Entry entry = _entries.get(name);
+            if (entry == null) {
+                return null;
+            }
+            result = entry.build(_alphabet);
+            _rotors.put(name, result);
+        }
+        return result;
+    }
+
+    /** Return the number of rotors. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** Return the names of my rotors, in the order they were added. */
+    List<String> names() {
+        return Collections.unmodifiableList(new ArrayList<>(_entries
+                                                            .keySet()));
+    }
+
+    /** Return true iff the rotor named NAME is a reflector. */
+    boolean reflecting(String name) {
+        return _entries.get(name)._kind == 'R';
+    }
+
+    /** Return true iff the rotor named NAME rotates. */
+    boolean rotates(String name) {
+        return _entries.get(name)._kind == 'M';
+    }
+
+    /** Return a catalog of the same rotors, with copies of those I have
+     *  built in their current settings. */
+    RotorCatalog copy() {
+        RotorCatalog result = new RotorCatalog(_alphabet, _entries);
+        _shared = result._shared = true;
+        for (Map.Entry<String, Rotor> built : _rotors.entrySet()) {
+            result._rotors.put(built.getKey(), built.getValue().copy());
+        }
+        return result;
+    }
+
+    /** Give me my own copy of _entries if I share it, so that I may
+     *  modify it. */
+    private void unshare() {
+        if (_shared) {
+            _entries = new LinkedHashMap<>(_entries);
+            _shared = false;
+        }
+    }
+
+    /** The description of one rotor. */
+    private static final class Entry {
+
+        /** A rotor named NAME of kind KIND with NOTCHES and the
+         *  cycles CYCLES. */
+        Entry(String name, char kind, String notches, String cycles) {
+            _name = name;
+            _kind = kind;
+            _notches = notches;
+            _cycles = cycles;
+        }
+
+        /** The description of ROTOR, which is never built, since the
+         *  catalog holds ROTOR itself. */
+        Entry(Rotor rotor) {
+            this(rotor.name(), rotor.reflecting() ? 'R'
+                 : rotor.rotates() ? 'M' : 'N', null, null);
+        }
+
+        /** Return a new rotor as I describe, over ALPHABET, at setting 0. */
+        Rotor build(Alphabet alphabet) {
+            Permutation perm = permutation(alphabet);
+            switch (_kind) {
+            case 'M':
+                return new MovingRotor(_name, perm, _notches);
+            case 'N':
+                return new FixedRotor(_name, perm);
+            default:
+                return new Reflector(_name, perm);
+            }
+        }
+
+        /** Return my permutation over ALPHABET, parsing it the first
+         *  time. */
+        private synchronized Permutation permutation(Alphabet alphabet) {
+            if (_permutation == null) {
+                Permutation perm = new Permutation(_cycles, alphabet);
+                if (_kind == 'R' && !perm.derangement()) {
+                    throw new EnigmaException("R always derangement");
+                }
+                _permutation = perm;
+            }
+            return _permutation;
+        }
+
+        /** The rotor's name. */
+        private final String _name;
+
+        /** The rotor's kind, as for add. */
+        private final char _kind;
+
+        /** The rotor's notches. */
+        private final String _notches;
+
+        /** The rotor's cycles, or null if given a permutation. */
+        private final String _cycles;
+
+        /** The rotor's permutation, or null if not yet parsed. */
+        private Permutation _permutation;
+    }
+
+    /** The alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Descriptions of my rotors by name, in the order added. */
+    private LinkedHashMap<String, Entry> _entries;
+
+    /** True iff _entries may be shared with a copy of me. */
+    private boolean _shared;
+
+    /** The rotors built so far, by name. */
+    private final HashMap<String, Rotor> _rotors = new HashMap<>();
+}
@@ -0,0 +1,137 @@
+package enigma;
+
+/** The rotors of a machine with many slots, other than its fast rotor,
+ *  kept as a segment tree of composed permutations.  Each leaf holds the
+ *  forward permutation of one rotor at its current setting, and each
+ *  interior node the composition of its children, so that the root maps a
+ *  character entering the slowest of these rotors from the fast rotor to
+ *  the contact at which it reaches the reflector.  Conjugating the
+ *  reflector by the root gives one effective reflector for the whole
+ *  stack.  When K rotors move, only the O(K log N) nodes above them are
+ *  recomputed; as the slow rotors rarely move, converting a character
+ *  costs one lookup plus the fast rotor, amortized.
+ *  @author Yash Pansari
+ */
+final class RotorTree {
+
+    /** A tree for ROTORS, the rotors of a machine in slot order (ROTORS[0]
+     *  being its reflector), over an alphabet of SIZE characters. */
+    RotorTree(Rotor[] rotors, int size) {
+        _rotors = rotors;
+        _size = size;
+        int leaves = 1;
+        while (leaves < rotors.length - 2) {
+            leaves *= 2;
+        }
+        _leaves = leaves;
+        _nodes = new int[2 * _leaves][];
+        _dirty = new boolean[2 * _leaves];
+        for (int k = 1; k < _nodes.length; k += 1) {
+            _nodes[k] = new int[size];
+            if (k >= _leaves) {
+                for (int c = 0; c < size; c += 1) {
+                    _nodes[k][c] = c;
+                }
+            } else {
+                _dirty[k] = true;
+            }
+        }
+        _inverse = new int[size];
+        _effective = new int[size];
+        invalidate();
+    }
+
+    /** Record that the settings of any of my rotors may have changed. */
+    void invalidate() {
+        _stale = true;
+        for (int slot = 1; slot < _rotors.length - 1; slot += 1) {
+            moved(slot);
+        }
+    }
+
+    /** Record that the rotor in slot SLOT (0 < SLOT < number of slots - 1)
+     *  has moved. */
+    void moved(int slot) {
+        int k = _leaves + slot - 1;
+        _stale = true;
+        while (k > 0 && !_dirty[k]) {
+            _dirty[k] = true;
+            k /= 2;
+        }
+    }
+
+    /** Return the result of passing C (an index in the range 0..size - 1)
+     *  from the fast rotor through the other rotors to the reflector and
+     *  back. */
+    int reflect(int c) {
+        if (_stale) {
+            refresh();
+        }
+        return _effective[c];
+    }
+
+    /** Recompute the dirty nodes and the effective reflector. */
+    private void refresh() {
+        update(1);
+        int[] root = _nodes[1];
+        for (int c = 0; c < _size; c += 1) {
+            _inverse[root[c]] = c;
+        }
+        Rotor reflector = _rotors[0];
+        for (int c = 0; c < _size; c += 1) {
+            _effective[c] = _inverse[reflector.convertForward(root[c])];
+        }
+        _stale = false;
+    }
+
+    /** Recompute node K and its dirty descendants. */
+    private void update(int k) {
+        if (!_dirty[k]) {
+            return;
+        }
+        _dirty[k] = false;
+        int[] node = _nodes[k];
+        if (k >= _leaves) {
+            Rotor rotor = _rotors[k - _leaves + 1];
+            for (int c = 0; c < _size; c += 1) {
+                node[c] = rotor.convertForward(c);
+            }
+            return;
+        }
+        update(2 * k);
+        update(2 * k + 1);
+        int[] slower = _nodes[2 * k], faster = _nodes[2 * k + 1];
+        for (int c = 0; c < _size; c += 1) {
+            node[c] = slower[faster[c]];
+        }
+    }
+
+    /** The rotors of my machine, in slot order. */
+    private final Rotor[] _rotors;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of leaves: the least power of two at least the number of
+     *  rotors other than the reflector and fast rotor.  Leaf k (node
+     *  _leaves + k) holds the rotor in slot k + 1; unused leaves hold the
+     *  identity. */
+    private final int _leaves;
+
+    /** Node k maps a character entering the fastest rotor it covers to the
+     *  character leaving the slowest.  Node 1 is the root, and the
+     *  children of node k are 2k (slower rotors) and 2k + 1. */
+    private final int[][] _nodes;
+
+    /** True for nodes that must be recomputed. */
+    private final boolean[] _dirty;
+
+    /** The inverse of the root. */
+    private final int[] _inverse;
+
+    /** The effective reflector. */
+    private final int[] _effective;
+
+    /** True iff _effective must be recomputed. */
+    private boolean _stale;
+}
@@ -0,0 +1,141 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** Random-access conversion of part of a file written by Main, using the
+ *  CheckpointIndex written alongside it.  Conversion starts at the
+ *  nearest checkpoint at or before the requested range rather than at the
+ *  start of the message.
+ *  @author Yash Pansari
+ */
+public final class Seek {
+
+    /** Convert bytes FROM (inclusive) to TO (exclusive) of a file, where
+     *  ARGS is CONFIG FILE INDEX FROM TO: CONFIG is the configuration used
+     *  to write FILE, and INDEX the index written with it.  The converted
+     *  characters are printed without grouping, one output line per line
+     *  of FILE.  Exits normally if there are no errors, and otherwise with
+     *  code 1. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options = new CommandArgs("--=(.*){5}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Seek CONFIG FILE INDEX "
+                            + "FROM TO");
+            }
+            List<String> names = options.get("--");
+            long from, to;
+            try {
+                from = Long.parseLong(names.get(3));
+                to = Long.parseLong(names.get(4));
+            } catch (NumberFormatException excp) {
+                throw error("offsets must be integers");
+            }
+            Machine machine = Main.readConfig(names.get(0));
+            seek(machine, names.get(1), CheckpointIndex.read(names.get(2)),
+                 from, to, System.out);
+            System.out.flush();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Print to OUT the conversion by MACHINE of bytes FROM (inclusive) to
+     *  TO (exclusive) of the file named NAME, whose index has ENTRIES. */
+    static void seek(Machine machine, String name,
+                     List<CheckpointIndex.Entry> entries, long from, long to,
+                     PrintStream out) {
+        int start = -1;
+        for (int k = 0; k < entries.size(); k += 1) {
+            if (entries.get(k).offset <= from) {
+                start = k;
+            }
+        }
+        int settings = start;
+        while (settings >= 0 && entries.get(settings).type != 'S') {
+            settings -= 1;
+        }
+        if (settings < 0) {
+            throw error("no checkpoint at or before offset %d", from);
+        }
+        Main.setUp(machine, entries.get(settings).data);
+        CheckpointIndex.Entry checkpoint = entries.get(start);
+        if (checkpoint.type == 'C') {
+            machine.setRotors(checkpoint.data);
+        }
+
+        Charset charset = Charset.defaultCharset();
+        String text = read(name, checkpoint.offset, to, charset);
+        Alphabet alphabet = machine.alphabet();
+        StringBuilder line = new StringBuilder();
+        long pos = checkpoint.offset;
+        int next = start + 1;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                if (pos >= from) {
+                    out.print(line);
+                    out.print("\r\n");
+                }
+                line.setLength(0);
+            } else if (c != ' ' && c != '\r') {
+                while (next < entries.size()
+                       && entries.get(next).offset <= pos) {
+                    if (entries.get(next).type == 'S') {
+                        Main.setUp(machine, entries.get(next).data);
+                    }
+                    next += 1;
+                }
+                if (!alphabet.contains(c)) {
+                    throw error("character at offset %d not in alphabet",
+                                pos);
+                }
+                char result =
+                    alphabet.toChar(machine.convert(alphabet.toInt(c)));
+                if (pos >= from) {
+                    line.append(result);
+                }
+            }
+            pos += c < ASCII_LIMIT ? 1
+                : String.valueOf(c).getBytes(charset).length;
+        }
+        if (line.length() > 0) {
+            out.print(line);
+            out.print("\r\n");
+        }
+    }
+
+    /** Return bytes FROM (inclusive) to TO (exclusive) of the file named
+     *  NAME, decoded with CHARSET.  Stops early at the end of the file. */
+    private static String read(String name, long from, long to,
+                               Charset charset) {
+        if (name.endsWith(Main.GZIP_SUFFIX)) {
+            throw error("cannot seek in compressed file %s", name);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+            long end = Math.min(to, file.length());
+            if (end - from > Integer.MAX_VALUE) {
+                throw error("range too large");
+            }
+            byte[] data = new byte[(int) Math.max(0, end - from)];
+            file.seek(from);
+            file.readFully(data);
+            return new String(data, charset);
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Characters below this are encoded as single bytes. */
+    private static final int ASCII_LIMIT = 0x80;
+}
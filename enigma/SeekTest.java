@@ -0,0 +1,133 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Seek class, and the
+ *  CheckpointIndex it reads.
+ *  @author Yash Pansari
+ */
+public class SeekTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    /** Return an unset machine with the rotors B, C, Beta and I-V. */
+    private Machine machine() {
+        return TestUtils.navalMachine(5, 3, "B", "C", "Beta", "I", "II",
+                                      "III", "IV", "V");
+    }
+
+    /** Return LINES lines of input: settings lines and message lines of
+     *  random letters and blanks, some much longer than others, drawn
+     *  from RANDOM. */
+    private List<String> input(Random random, int lines) {
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "* C Beta I II V BCDE (AQ)",
+        };
+        ArrayList<String> result = new ArrayList<>();
+        for (int k = 0; k < lines; k += 1) {
+            if (k % 10 == 0) {
+                result.add(settings[k / 10 % settings.length]);
+                continue;
+            }
+            StringBuilder line = new StringBuilder();
+            int n = random.nextInt(k % 4 == 0 ? 400 : 40);
+            for (int i = 0; i < n; i += 1) {
+                line.append(random.nextInt(8) == 0 ? ' '
+                            : (char) ('A' + random.nextInt(26)));
+            }
+            result.add(line.toString());
+        }
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File output = File.createTempFile("enigma", ".out");
+        output.deleteOnExit();
+        File index = File.createTempFile("enigma", ".idx");
+        index.deleteOnExit();
+        try {
+            checkRoundTrip(output, index);
+        } finally {
+            output.delete();
+            index.delete();
+        }
+    }
+
+    /** Convert some input to OUTPUT, indexing it in INDEX as Main does
+     *  with --index, and check that Seek recovers ranges of it. */
+    private void checkRoundTrip(File output, File index) throws IOException {
+        List<String> lines = input(new Random(30), 120);
+        PrintStream out = new PrintStream(output);
+        GroupFormatter formatter =
+            new GroupFormatter(out, 4, 23, Charset.defaultCharset());
+        CheckpointIndex checkpoints =
+            new CheckpointIndex(index.getPath(), formatter, 7);
+        Session session = new Session(machine());
+        session.setIndex(checkpoints);
+        StringBuilder plain = new StringBuilder();
+        for (String line : lines) {
+            String answer = session.processLine(line);
+            if (answer != null) {
+                formatter.writeLine(answer);
+                plain.append(line.replaceAll("\\s", ""));
+            }
+        }
+        formatter.flush();
+        out.close();
+        checkpoints.close();
+
+        String text = Files.readString(output.toPath());
+        List<CheckpointIndex.Entry> entries =
+            CheckpointIndex.read(index.getPath());
+        assertTrue(entries.size() > plain.length() / 7);
+        Random random = new Random(31);
+        for (int k = 0; k < 50; k += 1) {
+            int from = random.nextInt(text.length());
+            int to = from + random.nextInt(text.length() - from + 1);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream seeking = new PrintStream(bytes);
+            Seek.seek(machine(), output.getPath(), entries, from, to,
+                      seeking);
+            seeking.flush();
+            assertEquals("bytes " + from + " to " + to,
+                         plain(text, plain, from, to),
+                         bytes.toString().replaceAll("\\s", ""));
+        }
+    }
+
+    /** Return the letters of PLAIN that were converted to the letters in
+     *  TEXT[FROM .. TO), the converted text of PLAIN written in
+     *  groups. */
+    private String plain(String text, CharSequence plain, int from, int to) {
+        StringBuilder result = new StringBuilder();
+        int letters = 0;
+        for (int i = 0; i < to; i += 1) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                if (i >= from) {
+                    result.append(plain.charAt(letters));
+                }
+                letters += 1;
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,188 @@
+package enigma;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Processes an input whose settings lines divide it into independent
+ *  segments, converting the segments concurrently.  Each settings line
+ *  sets up the machine completely, so the segment it starts depends on
+ *  nothing before it.  Consecutive segments are grouped into batches of
+ *  at least BATCH_LINES lines, each converted by a pool thread with its
+ *  own copy of the machine.  Results are written strictly in input order,
+ *  and the first error in input order is reported after everything
+ *  before it has been written, as by a single Session.
+ *  @author Yash Pansari
+ */
+final class Segments {
+
+    /** Segments of INPUT, processed by THREADS threads.  The first segment
+     *  is converted with SESSION, which has not yet been set up, and the
+     *  others with sessions on copies of its machine.  Each non-null
+     *  result is passed to OUTPUT. */
+    Segments(Scanner input, Session session, int threads,
+             Consumer<String> output) {
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        _input = input;
+        _first = session;
+        Machine machine = session.machine().copy();
+        _sessions = ThreadLocal.withInitial(() -> new Session(machine.copy()));
+        _threads = threads;
+        _output = output;
+    }
+
+    /** Process all remaining input.  Any exception thrown while reading
+     *  or converting is rethrown here, after the results of all
+     *  preceding lines have been written. */
+    void run() {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads, task -> {
+            Thread thread = new Thread(task, "enigma-segments");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+        RuntimeException readError = null;
+        try {
+            Batch batch = new Batch(_first);
+            boolean keyed = false, rekeyed = false;
+            while (true) {
+                String line;
+                try {
+                    if (!_input.hasNextLine()) {
+                        break;
+                    }
+                    line = _input.nextLine();
+                } catch (RuntimeException excp) {
+                    readError = excp;
+                    break;
+                }
+                boolean settings = !rekeyed && line.startsWith("*");
+                if (settings) {
+                    rekeyed = keyed;
+                    keyed = true;
+                    if (batch.lines.size() >= BATCH_LINES) {
+                        pending.add(pool.submit(batch::convert));
+                        batch = new Batch(null);
+                        if (pending.size() >= _threads * BATCHES_PER_THREAD) {
+                            write(pending.remove());
+                        }
+                    }
+                } else {
+                    rekeyed = false;
+                }
+                batch.lines.add(line);
+            }
+            if (!batch.lines.isEmpty()) {
+                pending.add(pool.submit(batch::convert));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.remove());
+            }
+            if (readError != null) {
+                throw readError;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Write the results of the batch that RESULT will deliver, and then
+     *  rethrow its error, if any. */
+    private void write(Future<Batch> result) {
+        Batch batch;
+        try {
+            batch = result.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof Error) {
+                throw (Error) excp.getCause();
+            }
+            throw (RuntimeException) excp.getCause();
+        }
+        for (String answer : batch.results) {
+            if (answer != null) {
+                _output.accept(answer);
+            }
+        }
+        if (batch.error != null) {
+            throw batch.error;
+        }
+    }
+
+    /** A run of consecutive lines of the input, starting with a settings
+     *  line that begins a segment unless it is the first batch. */
+    private final class Batch {
+
+        /** A batch to be converted with SESSION, or with the converting
+         *  thread's own session if SESSION is null. */
+        Batch(Session session) {
+            this.session = session;
+        }
+
+        /** Convert my lines, recording the results up to the first error
+         *  and that error.  Returns this batch. */
+        Batch convert() {
+            Session s = session;
+            if (s == null) {
+                s = _sessions.get();
+                s.resume();
+            }
+            try {
+                for (String line : lines) {
+                    results.add(s.processLine(line));
+                }
+            } catch (RuntimeException excp) {
+                error = excp;
+            } finally {
+                s.finish();
+            }
+            return this;
+        }
+
+        /** The session that converts me, or null for a pool thread's. */
+        final Session session;
+
+        /** My input lines. */
+        final ArrayList<String> lines = new ArrayList<>();
+
+        /** The conversions of my lines up to the first error (null for
+         *  lines with no output). */
+        final ArrayList<String> results = new ArrayList<>();
+
+        /** The exception that ended my conversion, or null. */
+        RuntimeException error;
+    }
+
+    /** Minimum number of lines in a batch. */
+    static final int BATCH_LINES = 256;
+
+    /** Number of batches queued or in progress per thread. */
+    private static final int BATCHES_PER_THREAD = 4;
+
+    /** Source of input lines. */
+    private final Scanner _input;
+
+    /** The session converting the first segment. */
+    private final Session _first;
+
+    /** The sessions of the pool threads, each on its own copy of the
+     *  machine. */
+    private final ThreadLocal<Session> _sessions;
+
+    /** Number of pool threads. */
+    private final int _threads;
+
+    /** Destination of converted lines. */
+    private final Consumer<String> _output;
+}
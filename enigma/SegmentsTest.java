@@ -0,0 +1,128 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Segments class.
+ *  @author Yash Pansari
+ */
+public class SegmentsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    private static final Alphabet AZ = new Alphabet(TestUtils.UPPER_STRING);
+
+    /** Return a five-slot machine with three pawls, not yet set up, whose
+     *  reflectors are B, C and REFLECTOR, if not null. */
+    private Machine machine(Rotor reflector) {
+        ArrayList<Rotor> rotors =
+            TestUtils.navalRotors("B", "C", "Beta", "I", "II", "III", "IV",
+                                  "V");
+        if (reflector != null) {
+            rotors.add(reflector);
+        }
+        return new Machine(AZ, 5, 3, rotors);
+    }
+
+    /** Return the results of converting LINES with Segments on THREADS
+     *  threads and MACHINE, followed by the message of the error that
+     *  stopped it, if any. */
+    private List<String> segments(Machine machine, List<String> lines,
+                                  int threads) {
+        ArrayList<String> result = new ArrayList<>();
+        Scanner input = new Scanner(String.join("\n", lines));
+        try {
+            new Segments(input, new Session(machine), threads,
+                         result::add).run();
+        } catch (EnigmaException excp) {
+            result.add("error: " + excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Check that Segments on 1, 2 and 4 threads converts LINES as a
+     *  single Session does. */
+    private void checkSegments(List<String> lines) {
+        List<String> expected = TestUtils.serial(machine(null), lines);
+        for (int threads : new int[] {1, 2, 4}) {
+            assertEquals("threads=" + threads, expected,
+                         segments(machine(null), lines, threads));
+        }
+    }
+
+    @Test
+    public void testMatchesSerial() {
+        Random random = new Random(44);
+        checkSegments(TestUtils.input(random, 5000, 3));
+        checkSegments(TestUtils.input(random, 3000, 200));
+        checkSegments(TestUtils.input(random, 10, 3));
+    }
+
+    @Test
+    public void testFirstErrorWins() {
+        Random random = new Random(45);
+        List<String> lines = TestUtils.input(random, 4000, 5);
+        int later = lines.size() - 500;
+        while (!lines.get(later).startsWith("*")) {
+            later += 1;
+        }
+        lines.set(later, lines.get(later).replace("Beta", "Gamma"));
+        List<String> expected = TestUtils.serial(machine(null), lines);
+        assertTrue(expected.get(expected.size() - 1).startsWith("error:"));
+        checkSegments(lines);
+
+        int earlier = 2 * Segments.BATCH_LINES + 7;
+        lines.set(earlier, lines.get(earlier) + "?");
+        expected = TestUtils.serial(machine(null), lines);
+        assertEquals("error: message not in alphabet",
+                     expected.get(expected.size() - 1));
+        assertTrue(expected.size() < later / 2);
+        checkSegments(lines);
+    }
+
+    @Test
+    public void testRepeatedSettingsLine() {
+        Random random = new Random(46);
+        List<String> lines = TestUtils.input(random, 3000, 4);
+        int k = Segments.BATCH_LINES + 50;
+        while (!lines.get(k).startsWith("*")) {
+            k += 1;
+        }
+        lines.add(k + 1, lines.get(k));
+        List<String> expected = TestUtils.serial(machine(null), lines);
+        assertEquals("error: message not in alphabet",
+                     expected.get(expected.size() - 1));
+        checkSegments(lines);
+    }
+
+    @Test
+    public void testWorkerErrorRethrown() {
+        Rotor broken = new Reflector("X",
+            new Permutation(TestUtils.NAVALA.get("B"), AZ)) {
+                @Override
+                int convertForward(int p) {
+                    throw new AssertionError("broken reflector");
+                }
+            };
+        List<String> lines = new ArrayList<>();
+        lines.add("* X Beta I II III AAAA");
+        lines.add("HELLOWORLD");
+        try {
+            segments(machine(broken), lines, 2);
+            fail("error not rethrown");
+        } catch (AssertionError excp) {
+            assertEquals("broken reflector", excp.getMessage());
+        }
+    }
+}
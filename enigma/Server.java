@@ -0,0 +1,297 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+import static enigma.Metrics.METRICS;
+
+/** A resident Enigma process.  It reads its configuration files once and
+ *  then serves any number of concurrent connections on a local TCP port
+ *  or Unix-domain socket.  Each connection is a separate Session with its
+ *  own copy of a configured machine, and accepts exactly the settings and
+ *  message lines that Main does, answering each message line with its
+ *  conversion in groups of five.  If its first line has the form
+ *  "@ NAME", the connection uses the configuration file named NAME
+ *  (either as given to the server or by its last path component), and
+ *  otherwise the first one.  An error is reported as a final line
+ *  "Error: MESSAGE", after which the server closes the connection.
+ *  Connections are served on virtual threads when the Java runtime
+ *  provides them, and otherwise on a pool of platform threads.
+ *  @author Yash Pansari
+ */
+public final class Server {
+
+    /** Serve the configuration files named in ARGS.  The option
+     *  --port=N listens on TCP port N of the loopback interface, and
+     *  --socket=PATH on the Unix-domain socket PATH; exactly one must be
+     *  given. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--port=(\\d+) --socket=(.+) --=(.+){1,}",
+                                args);
+            if (!options.ok()
+                || options.contains("--port") == options.contains("--socket")) {
+                throw error("Usage: java enigma.Server (--port=N | "
+                            + "--socket=PATH) CONFIG...");
+            }
+            Server server = new Server(options.get("--"));
+            if (options.contains("--port")) {
+                server.serve(server.listen(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), port(options))));
+            } else {
+                server.serve(server.listen(UnixDomainSocketAddress.of(
+                    options.get("--socket").get(0))));
+            }
+            return;
+        } catch (EnigmaException excp) {
+            METRICS.reported(excp);
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A server for the configuration files named CONFIGS. */
+    Server(List<String> configs) {
+        for (String name : configs) {
+            Machine machine = Main.readConfig(name);
+            if (_configs.isEmpty()) {
+                _default = machine;
+            }
+            _configs.put(name, machine);
+            _configs.putIfAbsent(new File(name).getName(), machine);
+        }
+        if (_default == null) {
+            throw error("no configurations to serve");
+        }
+    }
+
+    /** Return the TCP port given by the --port option of OPTIONS. */
+    static int port(CommandArgs options) {
+        String port = options.get("--port").get(0);
+        try {
+            int result = Integer.parseInt(port);
+            if (result <= MAX_PORT) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Reported below. */
+        }
+        throw error("port %s out of range", port);
+    }
+
+    /** Return a channel listening at ADDRESS.  A Unix-domain socket left
+     *  at ADDRESS by a server that has exited is replaced, and removed
+     *  again when this process exits; any other file there is an
+     *  error. */
+    ServerSocketChannel listen(SocketAddress address) {
+        try {
+            ServerSocketChannel listener;
+            if (address instanceof UnixDomainSocketAddress) {
+                Path path = ((UnixDomainSocketAddress) address).getPath();
+                removeStale((UnixDomainSocketAddress) address);
+                listener =
+                    ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                listener.bind(address, BACKLOG);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        if (isSocket(path)) {
+                            Files.delete(path);
+                        }
+                    } catch (IOException excp) {
+                        return;
+                    }
+                }));
+            } else {
+                listener = ServerSocketChannel.open();
+                listener.bind(address, BACKLOG);
+            }
+            return listener;
+        } catch (IOException excp) {
+            throw error("could not listen on %s: %s", address,
+                        excp.getMessage());
+        }
+    }
+
+    /** Remove the file at ADDRESS, if any, provided it is a socket on
+     *  which no server is listening. */
+    private static void removeStale(UnixDomainSocketAddress address)
+        throws IOException {
+        Path path = address.getPath();
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (!isSocket(path)) {
+            throw error("%s exists and is not a socket", path);
+        }
+        try (SocketChannel probe =
+                 SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            probe.connect(address);
+            throw error("a server is already listening on %s", path);
+        } catch (IOException excp) {
+            Files.delete(path);
+        }
+    }
+
+    /** Return true iff PATH is a socket (or another special file), and not
+     *  a link. */
+    private static boolean isSocket(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class,
+                                    LinkOption.NOFOLLOW_LINKS).isOther();
+    }
+
+    /** Accept and serve connections on LISTENER until it is closed. */
+    void serve(ServerSocketChannel listener) {
+        try {
+            System.err.printf("Serving on %s%n", listener.getLocalAddress());
+        } catch (IOException excp) {
+            return;
+        }
+        ExecutorService sessions = sessionExecutor();
+        while (listener.isOpen()) {
+            try {
+                SocketChannel connection = listener.accept();
+                sessions.execute(() -> converse(connection));
+            } catch (IOException excp) {
+                if (listener.isOpen()) {
+                    System.err.printf("Error: %s%n", excp.getMessage());
+                }
+            }
+        }
+        sessions.shutdown();
+    }
+
+    /** Serve the single connection CONNECTION until its client finishes
+     *  sending or an error occurs, and then close it.  After an error, I
+     *  wait for the client to close its side first. */
+    void converse(SocketChannel connection) {
+        try (connection) {
+            Charset charset = Charset.defaultCharset();
+            Scanner input =
+                new Scanner(Channels.newInputStream(connection), charset);
+            OutputStream output = Channels.newOutputStream(connection);
+            GroupFormatter formatter =
+                new GroupFormatter(output, GroupFormatter.DEFAULT_GROUP_SIZE,
+                                   0, charset);
+            Session session = null;
+            try {
+                while (input.hasNextLine()) {
+                    String line = input.nextLine();
+                    if (session == null) {
+                        if (line.startsWith(SELECT)) {
+                            session = new Session(
+                                config(line.substring(1).trim()).copy());
+                            continue;
+                        }
+                        session = new Session(_default.copy());
+                    }
+                    String answer = session.processLine(line);
+                    if (answer != null) {
+                        formatter.writeLine(answer);
+                        formatter.flush();
+                    }
+                }
+                formatter.flush();
+            } catch (EnigmaException excp) {
+                METRICS.reported(excp);
+                formatter.flush();
+                output.write(String.format("Error: %s\r\n",
+                                           excp.getMessage())
+                             .getBytes(charset));
+                connection.shutdownOutput();
+                discard(connection);
+            } finally {
+                if (session != null) {
+                    session.finish();
+                }
+            }
+        } catch (IOException | EnigmaException excp) {
+            return;
+        }
+    }
+
+    /** Read and discard the rest of the input from CONNECTION, so that
+     *  closing it does not reset it before its client has read my last
+     *  reply. */
+    private static void discard(SocketChannel connection)
+        throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(DISCARD_SIZE);
+        while (connection.read(buffer) >= 0) {
+            buffer.clear();
+        }
+    }
+
+    /** Return the configured machine named NAME. */
+    private Machine config(String name) {
+        Machine result = _configs.get(name);
+        if (result == null) {
+            throw error("no configuration named %s", name);
+        }
+        return result;
+    }
+
+    /** Return an executor that runs each task in a new virtual thread if
+     *  this runtime supports them, and otherwise in a pooled daemon
+     *  thread. */
+    private static ExecutorService sessionExecutor() {
+        try {
+            Method virtual =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(null, task, "enigma-session",
+                                           SESSION_STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Prefix of a line selecting a configuration. */
+    static final String SELECT = "@";
+
+    /** Size of the buffer for discarded input. */
+    private static final int DISCARD_SIZE = 1 << 12;
+
+    /** Largest TCP port number. */
+    private static final int MAX_PORT = 65535;
+
+    /** Maximum number of pending connections. */
+    private static final int BACKLOG = 4096;
+
+    /** Stack size requested for platform session threads, which keeps
+     *  large numbers of concurrent sessions affordable. */
+    private static final long SESSION_STACK_SIZE = 256 * 1024;
+
+    /** Configured machines (not yet set up), by configuration name. */
+    private final LinkedHashMap<String, Machine> _configs =
+        new LinkedHashMap<>();
+
+    /** The machine used by sessions that do not select one. */
+    private Machine _default;
+}
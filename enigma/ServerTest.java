@@ -0,0 +1,174 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Server and Client classes.
+ *  @author Yash Pansari
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    /** A configuration with the rotors used by the tests. */
+    private static final String CONFIG = String.join("\n",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        " 5 3",
+        " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+        " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+        " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)",
+        " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+        " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+        "           (RX) (SZ) (TV)", "");
+
+    /** Two settings lines. */
+    private static final String
+        FIRST = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        SECOND = "* B Beta I II III BCDE (AQ)";
+
+    /** Return the expected replies of a server configured by the file
+     *  CONFIG to LINES. */
+    private String expected(String config, List<String> lines) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupFormatter formatter = new GroupFormatter(bytes);
+        Session session = new Session(Main.readConfig(config));
+        for (String line : lines) {
+            String answer = session.processLine(line);
+            if (answer != null) {
+                formatter.writeLine(answer);
+            }
+        }
+        formatter.flush();
+        return bytes.toString();
+    }
+
+    /** Return an input stream holding LINES. */
+    private InputStream input(String... lines) {
+        return new ByteArrayInputStream((String.join("\n", lines) + "\n")
+                                        .getBytes(Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testSessions() throws Exception {
+        File config = File.createTempFile("enigma", ".conf");
+        config.deleteOnExit();
+        Files.writeString(config.toPath(), CONFIG);
+        Server server = new Server(Arrays.asList(config.getPath()));
+        ServerSocketChannel listener = server.listen(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread serving = new Thread(() -> server.serve(listener));
+        serving.start();
+        try {
+            checkSessions(config.getPath(), listener);
+        } finally {
+            listener.close();
+            serving.join(5000);
+            config.delete();
+        }
+        assertFalse("server still accepting", serving.isAlive());
+    }
+
+    /** Check the sessions of a server configured by the file CONFIG and
+     *  listening on LISTENER. */
+    private void checkSessions(String config, ServerSocketChannel listener)
+        throws IOException {
+        List<String> lines = Arrays.asList(FIRST, "FROM HIS SHOULDER",
+                                           "HIAWATHA", SECOND, "TOOK THE");
+        SocketChannel held = SocketChannel.open(listener.getLocalAddress());
+        held.write(ByteBuffer.wrap((FIRST + "\n")
+                                   .getBytes(Charset.defaultCharset())));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertTrue(Client.run(SocketChannel.open(),
+                              listener.getLocalAddress(), null,
+                              input(lines.toArray(new String[0])),
+                              new PrintStream(out), new PrintStream(err)));
+        assertEquals(expected(config, lines), out.toString());
+        assertEquals("", err.toString());
+
+        out.reset();
+        assertFalse(Client.run(SocketChannel.open(),
+                               listener.getLocalAddress(),
+                               new File(config).getName(),
+                               input(SECOND, "TOOK THE", "camera", "OF"),
+                               new PrintStream(out), new PrintStream(err)));
+        assertEquals(expected(config, Arrays.asList(SECOND, "TOOK THE")),
+                     out.toString());
+        assertEquals("Error: message not in alphabet",
+                     err.toString().trim());
+
+        err.reset();
+        assertFalse(Client.run(SocketChannel.open(),
+                               listener.getLocalAddress(), null,
+                               input("HIAWATHA"), new PrintStream(out),
+                               new PrintStream(err)));
+        assertEquals("Error: no rotors in machine", err.toString().trim());
+
+        err.reset();
+        assertFalse(Client.run(SocketChannel.open(),
+                               listener.getLocalAddress(), "nosuch",
+                               input(FIRST), new PrintStream(out),
+                               new PrintStream(err)));
+        assertEquals("Error: no configuration named nosuch",
+                     err.toString().trim());
+
+        held.write(ByteBuffer.wrap("FROM HIS SHOULDER\n"
+                                   .getBytes(Charset.defaultCharset())));
+        held.shutdownOutput();
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        while (held.read(buffer) >= 0) {
+            reply.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        held.close();
+        assertEquals(expected(config, Arrays.asList(FIRST,
+                                                    "FROM HIS SHOULDER")),
+                     reply.toString());
+    }
+
+    @Test
+    public void testSocketOverFile() throws Exception {
+        File victim = File.createTempFile("enigma", ".txt");
+        victim.deleteOnExit();
+        Files.writeString(victim.toPath(), "keep me");
+        File config = File.createTempFile("enigma", ".conf");
+        config.deleteOnExit();
+        Files.writeString(config.toPath(), CONFIG);
+        try {
+            new Server(Arrays.asList(config.getPath()))
+                .listen(UnixDomainSocketAddress.of(victim.getPath()));
+            fail("ordinary file replaced by a socket");
+        } catch (EnigmaException excp) {
+            assertEquals("keep me", Files.readString(victim.toPath()));
+        } finally {
+            victim.delete();
+            config.delete();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package enigma;
+
+import java.nio.CharBuffer;
+
+import static enigma.Metrics.METRICS;
+
+/** One stream of settings and message lines applied, in order, to a
+ *  machine: the lines of an input file, or of one client's connection to
+ *  a Server.
+ *  @author Yash Pansari
+ */
+final class Session {
+
+    /** A session converting messages with MACHINE, which has not yet been
+     *  set up. */
+    Session(Machine machine) {
+        _machine = machine;
+        _settings = new SettingsCache(machine);
+        if (Main.crossCheck() > 0 && !Main.verbose()) {
+            _check = new CrossCheck(machine, Main.crossCheck());
+        }
+    }
+
+    /** Record settings lines and checkpoints of my output in INDEX. */
+    void setIndex(CheckpointIndex index) {
+        _index = index;
+    }
+
+    /** Continue as if I had processed the lines before LINE, the
+     *  settings line that starts a later segment of the same input (see
+     *  Segments): that is, as a session that has already been set up. */
+    void resume() {
+        _keyed = true;
+        _rekeyed = false;
+    }
+
+    /** Return my machine. */
+    Machine machine() {
+        return _machine;
+    }
+
+    /** Apply LINE, my next line, to my machine.  The first line and any
+     *  later '*' line that does not immediately follow such a line are
+     *  settings lines, which set up the machine and yield null.  All other
+     *  lines are messages, whose conversion is returned. */
+    String processLine(String line) {
+        if (!_rekeyed && line.startsWith("*")) {
+            finish();
+            _rekeyed = _keyed;
+            _settings.apply(line);
+            _keyed = true;
+            if (_index != null) {
+                _index.settings(line);
+            }
+            return null;
+        }
+        if (!_keyed) {
+            throw new EnigmaException("no rotors in machine");
+        }
+        _rekeyed = false;
+        if (_batch == null) {
+            _batch = new Events.Convert();
+            _batch.begin();
+        }
+        String[] words = line.split("\s+");
+        if (_index != null) {
+            return convertIndexed(words);
+        }
+        long start = System.nanoTime();
+        Alphabet alphabet = _machine.alphabet();
+        String answer = "";
+        for (String word : words) {
+            for (char ch : word.toCharArray()) {
+                if (!alphabet.contains(ch)) {
+                    throw new EnigmaException("message not in alphabet");
+                }
+            }
+            answer += convert(word);
+        }
+        METRICS.record(Metrics.Stage.CONVERT, start);
+        METRICS.lineProcessed();
+        batched(answer.length(), start);
+        return answer;
+    }
+
+    /** Convert, in place, the message TEXT[0 .. N), whose characters
+     *  are all in my machine's alphabet.  The same as processLine for a
+     *  message line without white space, but making no Strings unless I
+     *  am cross-checking. */
+    void processMessage(char[] text, int n) {
+        if (!_keyed) {
+            throw new EnigmaException("no rotors in machine");
+        }
+        _rekeyed = false;
+        if (_batch == null) {
+            _batch = new Events.Convert();
+            _batch.begin();
+        }
+        long start = System.nanoTime();
+        if (_check == null) {
+            _machine.convert(text, 0, n);
+        } else {
+            _check.convert(new String(text, 0, n)).getChars(0, n, text, 0);
+        }
+        METRICS.record(Metrics.Stage.CONVERT, start);
+        METRICS.lineProcessed();
+        batched(n, start);
+    }
+
+    /** Return the conversion of WORD by my machine, checked if I am
+     *  cross-checking. */
+    private String convert(String word) {
+        if (_check == null) {
+            return _machine.convert(word);
+        }
+        return _check.convert(word);
+    }
+
+    /** Commit the Convert event for the messages processed since the
+     *  last settings line or batch, if any.  Called when no more lines
+     *  will be processed. */
+    void finish() {
+        if (_batch != null) {
+            _batch.commit();
+            _batch = null;
+        }
+    }
+
+    /** Add a message of N characters, whose conversion started at START,
+     *  to the current Convert event, committing it once it is a full
+     *  batch. */
+    private void batched(int n, long start) {
+        _batch.lines += 1;
+        _batch.characters += n;
+        _batch.conversionTime += System.nanoTime() - start;
+        if (_batch.characters >= Events.BATCH) {
+            finish();
+        }
+    }
+
+    /** Return the conversion of the message consisting of WORDS,
+     *  recording checkpoints in _index.  The characters between
+     *  checkpoints are converted together. */
+    private String convertIndexed(String[] words) {
+        long start = System.nanoTime();
+        Alphabet alphabet = _machine.alphabet();
+        int n = 0;
+        for (String word : words) {
+            for (char ch : word.toCharArray()) {
+                if (!alphabet.contains(ch)) {
+                    throw new EnigmaException("message not in alphabet");
+                }
+            }
+            n += word.length();
+        }
+        char[] text = new char[n];
+        int done = 0;
+        for (String word : words) {
+            word.getChars(0, word.length(), text, done);
+            done += word.length();
+        }
+        done = 0;
+        while (done < n) {
+            int k = _index.characters(_machine,
+                                      CharBuffer.wrap(text, 0, done), n,
+                                      n - done);
+            if (_check == null) {
+                _machine.convert(text, done, done + k);
+            } else {
+                _check.convert(new String(text, done, k))
+                    .getChars(0, k, text, done);
+            }
+            done += k;
+        }
+        String answer = new String(text);
+        _index.line(answer);
+        METRICS.record(Metrics.Stage.CONVERT, start);
+        METRICS.lineProcessed();
+        batched(n, start);
+        return answer;
+    }
+
+    /** The machine I set up and apply. */
+    private final Machine _machine;
+
+    /** The settings lines applied to my machine. */
+    private final SettingsCache _settings;
+
+    /** True iff my previous line was a settings line other than the
+     *  first. */
+    private boolean _rekeyed;
+
+    /** True once my machine has been set up by a settings line. */
+    private boolean _keyed;
+
+    /** Checks my machine's conversions, or null. */
+    private CrossCheck _check;
+
+    /** Flight recorder event for my current batch of messages, or
+     *  null. */
+    private Events.Convert _batch;
+
+    /** Index of my output, or null. */
+    private CheckpointIndex _index;
+}
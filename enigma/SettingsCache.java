@@ -0,0 +1,121 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.Metrics.METRICS;
+
+/** The settings lines most recently applied to a machine, each compiled
+ *  to the rotors, settings, ring settings and plugboard it selects.  The
+ *  first time a line is seen it is checked and applied in full by
+ *  Main.setUp; after that, until it is evicted as the least recently used
+ *  of CAPACITY lines, applying it again only resets the machine's state.
+ *  @author Yash Pansari
+ */
+final class SettingsCache {
+
+    /** A cache of the settings lines applied to MACHINE. */
+    SettingsCache(Machine machine) {
+        _machine = machine;
+    }
+
+    /** Set up my machine according to the settings line LINE, as for
+     *  Main.setUp. */
+    void apply(String line) {
+        Events.Rekey event = new Events.Rekey();
+        event.begin();
+        String key = normalize(line);
+        Settings settings = _cache.get(key);
+        if (settings == null) {
+            Main.setUp(_machine, line);
+            _cache.put(key, new Settings(_machine));
+        } else {
+            long start = System.nanoTime();
+            settings.apply(_machine);
+            METRICS.rekeyed();
+            METRICS.record(Metrics.Stage.SETUP, start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.slots = _machine.numRotors();
+            event.cached = settings != null;
+            event.commit();
+        }
+    }
+
+    /** Return LINE with each run of spaces replaced by one space and
+     *  trailing spaces removed; Main.setUp treats the results alike.
+     *  Lines containing other white space are returned unchanged. */
+    static String normalize(String line) {
+        StringBuilder result = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c != ' ' && Character.isWhitespace(c)) {
+                return line;
+            }
+            if (c != ' ' || (i + 1 < line.length()
+                             && line.charAt(i + 1) != ' ')) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** A settings line compiled for my machine. */
+    private static final class Settings {
+
+        /** The settings of MACHINE, which has just been set up. */
+        Settings(Machine machine) {
+            int n = machine.numRotors();
+            _rotors = new Rotor[n];
+            _posns = new int[n];
+            _rings = new int[n];
+            for (int i = 0; i < n; i += 1) {
+                _rotors[i] = machine.getRotor(i);
+                _posns[i] = _rotors[i].posn();
+                _rings[i] = _rotors[i].ring();
+            }
+            _plugboard = machine.plugboard();
+        }
+
+        /** Set MACHINE to my settings, re-inserting rotors only if its
+         *  rotor order differs from mine. */
+        void apply(Machine machine) {
+            boolean same = machine.hasRotors();
+            for (int i = 0; same && i < _rotors.length; i += 1) {
+                same = machine.getRotor(i) == _rotors[i];
+            }
+            if (!same) {
+                machine.insertRotors(_rotors);
+            }
+            machine.setRotors(_posns, _rings);
+            machine.setPlugboard(_plugboard);
+        }
+
+        /** Rotors in each slot. */
+        private final Rotor[] _rotors;
+
+        /** Settings and ring settings of the rotors in each slot. */
+        private final int[] _posns, _rings;
+
+        /** The plugboard. */
+        private final Permutation _plugboard;
+    }
+
+    /** Number of settings lines kept. */
+    static final int CAPACITY = 64;
+
+    /** The machine I set up. */
+    private final Machine _machine;
+
+    /** Compiled settings by normalized line, least recently used
+     *  first. */
+    private final LinkedHashMap<String, Settings> _cache =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                Settings> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+}
@@ -0,0 +1,215 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** A rule for which rotors of a machine advance before each character,
+ *  given which of them are at notches.  A rule is stated once, over
+ *  arrays indexed by slot, and compiled for a particular arrangement of
+ *  rotating rotors into a Program: a table from the notch states of those
+ *  rotors to the set that advances, so that each key press costs a single
+ *  lookup however complicated the rule.
+ *  @author Yash Pansari
+ */
+abstract class Stepping {
+
+    /** Enigma stepping: the fast rotor always advances, and each rotating
+     *  rotor advances when its right neighbour is at a notch, carrying
+     *  that neighbour with it (the "double step") unless the neighbour is
+     *  the fast rotor.  With several notches per rotor, this is also how
+     *  the Typex steps. */
+    static final Stepping ENIGMA = new Stepping("enigma") {
+        @Override
+        void steps(boolean[] rotates, boolean[] notched, boolean[] result) {
+            int n = result.length;
+            Arrays.fill(result, false);
+            for (int i = 1; i < n - 1; i += 1) {
+                if (notched[i + 1] && !result[i] && rotates[i]) {
+                    result[i] = true;
+                    if (i != n - 2 && rotates[i + 1]) {
+                        result[i + 1] = true;
+                    }
+                }
+            }
+            result[n - 1] = rotates[n - 1];
+        }
+    };
+
+    /** Odometer stepping: the fast rotor always advances, and each other
+     *  rotating rotor advances exactly when its right neighbour advances
+     *  from a notch. */
+    static final Stepping ODOMETER = new Stepping("odometer") {
+        @Override
+        void steps(boolean[] rotates, boolean[] notched, boolean[] result) {
+            int n = result.length;
+            Arrays.fill(result, false);
+            result[n - 1] = rotates[n - 1];
+            for (int i = n - 2; i > 0; i -= 1) {
+                result[i] = rotates[i] && result[i + 1] && notched[i + 1];
+            }
+        }
+    };
+
+    /** Cam stepping, as in Hebern-style machines: the fast rotor always
+     *  advances, and each other rotating rotor advances whenever a cam
+     *  (notch) of its right neighbour is raised, whether or not that
+     *  neighbour moves, and without carrying it along. */
+    static final Stepping CAM = new Stepping("cam") {
+        @Override
+        void steps(boolean[] rotates, boolean[] notched, boolean[] result) {
+            int n = result.length;
+            Arrays.fill(result, false);
+            for (int i = 1; i < n - 1; i += 1) {
+                result[i] = rotates[i] && notched[i + 1];
+            }
+            result[n - 1] = rotates[n - 1];
+        }
+    };
+
+    /** A rule named NAME. */
+    private Stepping(String name) {
+        _name = name;
+    }
+
+    /** Return the rule named NAME. */
+    static Stepping forName(String name) {
+        for (Stepping rule : RULES) {
+            if (rule.name().equals(name)) {
+                return rule;
+            }
+        }
+        throw error("unknown stepping %s", name);
+    }
+
+    /** Return my name, as used in configuration files. */
+    String name() {
+        return _name;
+    }
+
+    /** Set RESULT[i] to true iff the rotor in slot i (0 < i) of a machine
+     *  advances when ROTATES[i] is true for its rotating rotors and
+     *  NOTCHED[i] for those at notches, and to false otherwise.  All three
+     *  arrays have one element per slot; element 0, the reflector, is
+     *  ignored. */
+    abstract void steps(boolean[] rotates, boolean[] notched,
+                        boolean[] result);
+
+    /** Return my rule compiled for a machine whose slots contain rotating
+     *  rotors where ROTATES is true. */
+    Program compile(boolean[] rotates) {
+        return new Program(this, rotates);
+    }
+
+    /** A Stepping compiled for one arrangement of rotating rotors.  Their
+     *  states are given as bit sets, in which bit k stands for the k-th
+     *  rotating rotor counting from the fast end (slot(k)). */
+    static final class Program {
+
+        /** RULE compiled for a machine whose rotating rotors are in the
+         *  slots where ROTATES is true. */
+        private Program(Stepping rule, boolean[] rotates) {
+            _rule = rule;
+            _rotates = rotates.clone();
+            int p = 0;
+            for (int i = 1; i < rotates.length; i += 1) {
+                p += rotates[i] ? 1 : 0;
+            }
+            if (p > MAX_PAWLS) {
+                throw error("at most %d rotating rotors allowed", MAX_PAWLS);
+            }
+            _slots = new int[p];
+            for (int i = rotates.length - 1, k = 0; i > 0; i -= 1) {
+                if (rotates[i]) {
+                    _slots[k] = i;
+                    k += 1;
+                }
+            }
+            _notched = new boolean[rotates.length];
+            _result = new boolean[rotates.length];
+            _idle = evaluate(0);
+            if (p <= TABLE_BITS) {
+                _table = new long[1 << p];
+                for (int b = 0; b < _table.length; b += 1) {
+                    _table[b] = evaluate(b);
+                }
+            } else {
+                _table = null;
+            }
+        }
+
+        /** Return the number of rotating rotors. */
+        int pawls() {
+            return _slots.length;
+        }
+
+        /** Return the slot of rotating rotor K. */
+        int slot(int k) {
+            return _slots[k];
+        }
+
+        /** Return true iff I was compiled for the arrangement ROTATES. */
+        boolean compiledFor(boolean[] rotates) {
+            return Arrays.equals(_rotates, rotates);
+        }
+
+        /** Return the set of rotating rotors that advance when those in
+         *  NOTCHED are at notches. */
+        long steps(long notched) {
+            if (_table != null) {
+                return _table[(int) notched];
+            }
+            if (notched == 0) {
+                return _idle;
+            }
+            return evaluate(notched);
+        }
+
+        /** Return the set of rotating rotors that my rule advances when
+         *  those in NOTCHED are at notches. */
+        private long evaluate(long notched) {
+            for (int k = 0; k < _slots.length; k += 1) {
+                _notched[_slots[k]] = (notched & (1L << k)) != 0;
+            }
+            _rule.steps(_rotates, _notched, _result);
+            long mask = 0;
+            for (int k = 0; k < _slots.length; k += 1) {
+                if (_result[_slots[k]]) {
+                    mask |= 1L << k;
+                }
+            }
+            return mask;
+        }
+
+        /** The rule I implement. */
+        private final Stepping _rule;
+
+        /** Which slots hold rotating rotors. */
+        private final boolean[] _rotates;
+
+        /** Slots of the rotating rotors, fastest first. */
+        private final int[] _slots;
+
+        /** The rotors that advance for each set of notched rotors, or null
+         *  if there are too many rotating rotors for a table. */
+        private final long[] _table;
+
+        /** The rotors that advance when none is at a notch. */
+        private final long _idle;
+
+        /** Scratch arrays for evaluate, by slot. */
+        private final boolean[] _notched, _result;
+    }
+
+    /** The available rules. */
+    private static final Stepping[] RULES = { ENIGMA, ODOMETER, CAM };
+
+    /** Programs for at most this many rotating rotors are tables. */
+    private static final int TABLE_BITS = 12;
+
+    /** Maximum number of rotating rotors. */
+    static final int MAX_PAWLS = 63;
+
+    /** My name. */
+    private final String _name;
+}
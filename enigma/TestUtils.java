@@ -1,6 +1,9 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -126,4 +129,121 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** The notches of the naval rotors that rotate. */
+    static final HashMap<String, String> NAVAL_NOTCHES = new HashMap<>();
+    static {
+        NAVAL_NOTCHES.put("I", "Q");
+        NAVAL_NOTCHES.put("II", "E");
+        NAVAL_NOTCHES.put("III", "V");
+        NAVAL_NOTCHES.put("IV", "J");
+        NAVAL_NOTCHES.put("V", "Z");
+        NAVAL_NOTCHES.put("VI", "ZM");
+        NAVAL_NOTCHES.put("VII", "ZM");
+        NAVAL_NOTCHES.put("VIII", "ZM");
+    }
+
+    /** Return the naval rotor NAME in the A setting: a reflector (B or
+     *  C), a fixed rotor (Beta or Gamma) or a moving rotor with its usual
+     *  notches. */
+    static Rotor navalRotor(String name) {
+        Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+        if (name.equals("B") || name.equals("C")) {
+            return new Reflector(name, perm);
+        } else if (NAVAL_NOTCHES.containsKey(name)) {
+            return new MovingRotor(name, perm, NAVAL_NOTCHES.get(name));
+        }
+        return new FixedRotor(name, perm);
+    }
+
+    /** Return a list of the naval rotors NAMES. */
+    static ArrayList<Rotor> navalRotors(String... names) {
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (String name : names) {
+            result.add(navalRotor(name));
+        }
+        return result;
+    }
+
+    /** Return a machine with NUMROTORS slots and PAWLS pawls, not yet set
+     *  up, whose available rotors are the naval rotors NAMES. */
+    static Machine navalMachine(int numRotors, int pawls, String... names) {
+        return new Machine(UPPER, numRotors, pawls, navalRotors(names));
+    }
+
+    /** Return a machine with NUMROTORS slots and PAWLS pawls, with rotors
+     *  inserted but not set: reflector B and then rotors R1, R2, ...,
+     *  wired in turn as naval rotors I to V, all fixed but the last PAWLS,
+     *  which have notches NOTCHES. */
+    static Machine wideMachine(int numRotors, int pawls, String notches) {
+        String[] wheels = {"I", "II", "III", "IV", "V"};
+        String[] names = new String[numRotors];
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        names[0] = "B";
+        rotors.add(navalRotor("B"));
+        for (int i = 1; i < numRotors; i += 1) {
+            names[i] = "R" + i;
+            Permutation perm =
+                new Permutation(NAVALA.get(wheels[i % wheels.length]),
+                                UPPER);
+            rotors.add(i < numRotors - pawls
+                       ? new FixedRotor(names[i], perm)
+                       : new MovingRotor(names[i], perm, notches));
+        }
+        Machine result = new Machine(UPPER, numRotors, pawls, rotors);
+        result.insertRotors(names);
+        return result;
+    }
+
+    /** Return LINES random lines of input for a machine made by
+     *  navalMachine from B, C, Beta and I-V, starting with a settings line
+     *  and with a settings line before about every SPACING others, drawn
+     *  from RANDOM. */
+    static List<String> input(Random random, int lines, int spacing) {
+        String[] wheels = {"I", "II", "III", "IV", "V"};
+        ArrayList<String> result = new ArrayList<>();
+        while (result.size() < lines) {
+            if (result.isEmpty() || random.nextInt(spacing) == 0) {
+                StringBuilder line = new StringBuilder("* ");
+                line.append(random.nextBoolean() ? "B" : "C").append(" Beta");
+                int first = random.nextInt(wheels.length);
+                for (int k = 0; k < 3; k += 1) {
+                    line.append(' ')
+                        .append(wheels[(first + k) % wheels.length]);
+                }
+                line.append(' ');
+                for (int k = 0; k < 4; k += 1) {
+                    line.append(UPPER.toChar(random.nextInt(UPPER.size())));
+                }
+                line.append(" (AQ) (EX)");
+                result.add(line.toString());
+            }
+            StringBuilder line = new StringBuilder();
+            int n = random.nextInt(60);
+            for (int k = 0; k < n; k += 1) {
+                line.append(k % 7 == 6 ? ' '
+                            : UPPER.toChar(random.nextInt(UPPER.size())));
+            }
+            result.add(line.toString());
+        }
+        return result;
+    }
+
+    /** Return the results of converting LINES with a single Session on
+     *  MACHINE, followed by the message of the error that stopped it, if
+     *  any. */
+    static List<String> serial(Machine machine, List<String> lines) {
+        ArrayList<String> result = new ArrayList<>();
+        Session session = new Session(machine);
+        try {
+            for (String line : lines) {
+                String answer = session.processLine(line);
+                if (answer != null) {
+                    result.add(answer);
+                }
+            }
+        } catch (EnigmaException excp) {
+            result.add("error: " + excp.getMessage());
+        }
+        return result;
+    }
 }
@@ -0,0 +1,363 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+import static enigma.Metrics.METRICS;
+
+/** An end-to-end throughput regression suite for Main.  Each standard
+ *  Workload is generated (once) into a working directory and run through
+ *  Main in a fresh JVM several times, recording the best characters per
+ *  second, peak resident memory, GC time and bytes allocated per
+ *  character.  The results are compared with a baseline file in the same
+ *  directory, written by a run with --record or, if there is none, by
+ *  the first run.  A baseline holds only for the machine and JVM noted
+ *  in it.
+ *  @author Yash Pansari
+ */
+public final class Throughput {
+
+    /** Run the suite as described by ARGS: [--record] [--scale=N]
+     *  [--runs=N] [--tolerance=PERCENT] DIR.  --scale multiplies the
+     *  length of each workload (the default, 1, is a few million
+     *  characters each; a scale of a few hundred gives gigabyte inputs).
+     *  Exits normally if no measurement regresses past the baseline by
+     *  more than the tolerance (default 15%), or if there was no baseline,
+     *  in which case the results are recorded as the baseline.  Otherwise,
+     *  exits with code 1. */
+    public static void main(String... args) {
+        if (args.length > 0 && args[0].equals(CHILD)) {
+            child(args[1], args[2], args[3]);
+            return;
+        }
+        try {
+            CommandArgs options =
+                new CommandArgs("--record --scale=(\\d+) --runs=(\\d+) "
+                                + "--tolerance=(\\d+) --=(.*)", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Throughput [--record] "
+                            + "[--scale=N] [--runs=N] [--tolerance=PERCENT] "
+                            + "DIR");
+            }
+            int scale = intOption(options, "--scale", 1);
+            int runs = intOption(options, "--runs", DEFAULT_RUNS);
+            double tolerance =
+                intOption(options, "--tolerance", DEFAULT_TOLERANCE) / 100.0;
+            File dir = new File(options.get("--").get(0));
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw error("could not create %s", dir);
+            }
+            Throughput suite = new Throughput(dir, scale, runs);
+            suite.run();
+            if (options.contains("--record")) {
+                suite.record();
+                return;
+            }
+            if (!suite.baseline().exists()) {
+                System.out.printf("no baseline in %s; recording this run "
+                                  + "as the baseline%n", dir);
+                suite.record();
+                return;
+            }
+            if (suite.compare(tolerance)) {
+                return;
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A suite working in DIR, with workloads lengthened by SCALE, and
+     *  each run RUNS times. */
+    Throughput(File dir, int scale, int runs) {
+        if (scale < 1 || runs < 1) {
+            throw error("scale and runs must be positive");
+        }
+        _dir = dir;
+        _scale = scale;
+        _runs = runs;
+    }
+
+    /** Generate any missing workloads and measure each of them. */
+    void run() {
+        System.out.printf("%-8s %12s %10s %8s %10s%n", "workload",
+                          "chars/s", "rss (KiB)", "gc (ms)", "alloc/char");
+        for (Map.Entry<String, Workload> entry : workloads().entrySet()) {
+            String name = entry.getKey() + "-" + _scale;
+            String config = new File(_dir, name + ".conf").getPath();
+            String input = new File(_dir, name + ".in").getPath();
+            if (!new File(config).exists() || !new File(input).exists()) {
+                entry.getValue().write(config, input);
+            }
+            String output = new File(_dir, name + ".out").getPath();
+            double[] best = null;
+            for (int k = 0; k < _runs; k += 1) {
+                double[] sample = measure(config, input, output);
+                if (best == null) {
+                    best = sample;
+                } else {
+                    best[RATE] = Math.max(best[RATE], sample[RATE]);
+                    for (int i = RATE + 1; i < FIELDS; i += 1) {
+                        best[i] = Math.min(best[i], sample[i]);
+                    }
+                }
+            }
+            new File(output).delete();
+            result(entry.getKey(), best);
+            System.out.printf("%-8s %12.0f %10.0f %8.0f %10.2f%n",
+                              entry.getKey(), best[RATE], best[RSS],
+                              best[GC], best[ALLOC]);
+        }
+    }
+
+    /** Record MEASUREMENTS, indexed by RATE, RSS, GC and ALLOC, as my
+     *  result for the workload NAME. */
+    void result(String name, double... measurements) {
+        if (measurements.length != FIELDS) {
+            throw error("a result has %d measurements", FIELDS);
+        }
+        _results.put(name, measurements);
+    }
+
+    /** Write my results as the baseline. */
+    void record() {
+        try (PrintStream out = new PrintStream(baseline())) {
+            out.printf("# enigma throughput baseline, scale %d%n", _scale);
+            out.printf("# %s %s on %s %s, %d processors%n",
+                       System.getProperty("java.vm.name"),
+                       System.getProperty("java.version"),
+                       System.getProperty("os.name"),
+                       System.getProperty("os.arch"),
+                       Runtime.getRuntime().availableProcessors());
+            for (Map.Entry<String, double[]> entry : _results.entrySet()) {
+                double[] r = entry.getValue();
+                out.printf(Locale.ROOT, "%s %.0f %.0f %.0f %.2f%n",
+                           entry.getKey(), r[RATE], r[RSS], r[GC], r[ALLOC]);
+            }
+        } catch (FileNotFoundException excp) {
+            throw error("could not write %s", baseline());
+        }
+        System.out.printf("baseline written to %s%n", baseline());
+    }
+
+    /** Compare my results with the baseline, reporting each measurement
+     *  that is worse by more than the fraction TOLERANCE.  Returns true iff
+     *  there are none. */
+    boolean compare(double tolerance) {
+        Map<String, double[]> base = readBaseline();
+        boolean ok = true;
+        for (Map.Entry<String, double[]> entry : _results.entrySet()) {
+            double[] old = base.get(entry.getKey());
+            double[] now = entry.getValue();
+            if (old == null) {
+                System.out.printf("%s: no baseline%n", entry.getKey());
+                continue;
+            }
+            if (now[RATE] < old[RATE] * (1 - tolerance)) {
+                ok = regression(entry.getKey(), "chars/s", old[RATE],
+                                now[RATE]);
+            }
+            for (int i = RATE + 1; i < FIELDS; i += 1) {
+                if (now[i] > old[i] * (1 + tolerance) + SLACK[i]) {
+                    ok = regression(entry.getKey(), NAMES[i], old[i], now[i]);
+                }
+            }
+        }
+        System.out.println(ok ? "no regressions" : "REGRESSIONS FOUND");
+        return ok;
+    }
+
+    /** Report that measurement WHAT of workload NAME has gone from OLD to
+     *  NOW, and return false. */
+    private static boolean regression(String name, String what, double old,
+                                      double now) {
+        System.out.printf("%s: %s regressed from %.2f to %.2f%n", name, what,
+                          old, now);
+        return false;
+    }
+
+    /** Return the measurements of one run of Main on CONFIG, INPUT and
+     *  OUTPUT in a fresh JVM, indexed by RATE, RSS, GC and ALLOC. */
+    private double[] measure(String config, String input, String output) {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java")
+            .toString();
+        ProcessBuilder builder =
+            new ProcessBuilder(java, "-cp",
+                               System.getProperty("java.class.path"),
+                               Throughput.class.getName(), CHILD, config,
+                               input, output);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        try {
+            Process child = builder.start();
+            String line;
+            try (BufferedReader out = new BufferedReader(
+                     new InputStreamReader(child.getInputStream()))) {
+                line = out.readLine();
+            }
+            if (child.waitFor() != 0 || line == null) {
+                throw error("Main failed on %s", input);
+            }
+            Scanner fields = new Scanner(line).useLocale(Locale.ROOT);
+            double[] result = new double[FIELDS];
+            for (int i = 0; i < FIELDS; i += 1) {
+                result[i] = fields.nextDouble();
+            }
+            return result;
+        } catch (IOException excp) {
+            throw error("could not run %s: %s", java, excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+    }
+
+    /** Run Main on CONFIG, INPUT and OUTPUT in this JVM and print its
+     *  measurements on one line of the standard output. */
+    private static void child(String config, String input, String output) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        Main.main(config, input, output);
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        long gc = 0;
+        for (GarbageCollectorMXBean bean
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc += Math.max(0, bean.getCollectionTime());
+        }
+        long chars = Math.max(1, METRICS.getCharactersConverted());
+        System.out.printf(Locale.ROOT, "%.0f %d %d %.3f%n",
+                          chars * 1e9 / Math.max(1, elapsed), peakRss(), gc,
+                          (double) allocated / chars);
+    }
+
+    /** Return the peak resident set size of this process in KiB, or 0 if
+     *  it is not available. */
+    private static long peakRss() {
+        try {
+            for (String line
+                     : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            return 0;
+        }
+        return 0;
+    }
+
+    /** Return the standard workloads at my scale, by name. */
+    private Map<String, Workload> workloads() {
+        long chars = BASE_CHARS * _scale;
+        LinkedHashMap<String, Workload> result = new LinkedHashMap<>();
+        result.put("long", new Workload(1, 26, 5, chars, 4000, 0));
+        result.put("rekey", new Workload(2, 26, 5, chars / 4, 60, 1));
+        result.put("wide", new Workload(3, 90, 5, chars, 60, 100));
+        result.put("slots", new Workload(4, 26, 64, chars / 4, 60, 100));
+        return result;
+    }
+
+    /** Return the measurements in my baseline, by workload name. */
+    private Map<String, double[]> readBaseline() {
+        LinkedHashMap<String, double[]> result = new LinkedHashMap<>();
+        try (Scanner in = new Scanner(baseline()).useLocale(Locale.ROOT)) {
+            while (in.hasNextLine()) {
+                String line = in.nextLine();
+                if (line.startsWith("#") || line.isBlank()) {
+                    continue;
+                }
+                Scanner fields = new Scanner(line).useLocale(Locale.ROOT);
+                String name = fields.next();
+                double[] values = new double[FIELDS];
+                for (int i = 0; i < FIELDS; i += 1) {
+                    values[i] = fields.nextDouble();
+                }
+                result.put(name, values);
+            }
+        } catch (FileNotFoundException excp) {
+            throw error("no baseline in %s; run with --record first", _dir);
+        } catch (java.util.NoSuchElementException excp) {
+            throw error("malformed baseline %s", baseline());
+        }
+        return result;
+    }
+
+    /** Return my baseline file. */
+    private File baseline() {
+        return new File(_dir, "baseline-" + _scale + ".txt");
+    }
+
+    /** Return the value of the integer option NAME in OPTIONS, or DFLT if
+     *  it is absent. */
+    private static int intOption(CommandArgs options, String name, int dflt) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        try {
+            return Integer.parseInt(options.get(name).get(0));
+        } catch (NumberFormatException excp) {
+            throw error("%s is too large", name);
+        }
+    }
+
+    /** First argument marking a run of Main in a child JVM. */
+    private static final String CHILD = "--child";
+
+    /** Indices of the measurements: characters per second, peak RSS in
+     *  KiB, GC time in milliseconds and bytes allocated per character. */
+    private static final int RATE = 0, RSS = 1, GC = 2, ALLOC = 3;
+
+    /** Number of measurements. */
+    private static final int FIELDS = 4;
+
+    /** Names of the measurements. */
+    private static final String[] NAMES = {
+        "chars/s", "rss (KiB)", "gc (ms)", "alloc/char"
+    };
+
+    /** Absolute allowances added to the tolerance for the measurements
+     *  other than RATE, so that small values do not fail on noise. */
+    private static final double[] SLACK = { 0, 8192, 20, 1 };
+
+    /** Characters in a workload at scale 1. */
+    private static final long BASE_CHARS = 4_000_000;
+
+    /** Default number of runs of each workload. */
+    private static final int DEFAULT_RUNS = 3;
+
+    /** Default tolerance, in percent. */
+    private static final int DEFAULT_TOLERANCE = 15;
+
+    /** Directory holding workloads and the baseline. */
+    private final File _dir;
+
+    /** Multiplier of workload lengths. */
+    private final int _scale;
+
+    /** Runs of each workload. */
+    private final int _runs;
+
+    /** Best measurements of each workload, by name. */
+    private final LinkedHashMap<String, double[]> _results =
+        new LinkedHashMap<>();
+}
@@ -0,0 +1,84 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Throughput class's comparisons
+ *  with its baseline.
+ *  @author Yash Pansari
+ */
+public class ThroughputTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    /** Return a suite in DIR whose results for the workload "long" are
+     *  MEASUREMENTS. */
+    private Throughput suite(File dir, double... measurements) {
+        Throughput result = new Throughput(dir, 1, 1);
+        result.result("long", measurements);
+        return result;
+    }
+
+    @Test
+    public void testCompare() throws IOException {
+        File dir = Files.createTempDirectory("enigma-perf").toFile();
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed));
+        try {
+            checkCompare(dir);
+        } finally {
+            System.setOut(stdout);
+            new File(dir, "baseline-1.txt").delete();
+            dir.delete();
+        }
+        assertTrue(printed.toString(),
+                   printed.toString().contains(
+                       "long: chars/s regressed from 1000000.00 to "
+                       + "800000.00"));
+    }
+
+    /** Record a baseline in DIR and compare results with it. */
+    private void checkCompare(File dir) {
+        suite(dir, 1e6, 50000, 10, 2).record();
+        double tolerance = 0.15;
+        assertTrue(suite(dir, 1e6, 50000, 10, 2).compare(tolerance));
+        assertTrue(suite(dir, 9e5, 50000, 10, 2).compare(tolerance));
+        assertFalse(suite(dir, 8e5, 50000, 10, 2).compare(tolerance));
+        assertTrue(suite(dir, 2e6, 60000, 30, 3.2).compare(tolerance));
+        assertFalse(suite(dir, 1e6, 50000, 10, 3.4).compare(tolerance));
+        assertFalse(suite(dir, 1e6, 80000, 10, 2).compare(tolerance));
+        Throughput other = new Throughput(dir, 1, 1);
+        other.result("wide", 1, 1, 1, 1);
+        assertTrue(other.compare(tolerance));
+    }
+
+    @Test
+    public void testBadSuite() {
+        File dir = new File(".");
+        try {
+            new Throughput(dir, 0, 1);
+            fail("zero scale accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new Throughput(dir, 1, 1).result("long", 1, 2, 3);
+            fail("short result accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
@@ -16,7 +16,22 @@ public class UnitTest {
         }
         System.exit(textui.runClasses(PermutationTest.class,
                 MovingRotorTest.class,
-                MachineTest.class));
+                MachineTest.class,
+                MetricsTest.class,
+                GroupFormatterTest.class,
+                KeySpaceTest.class,
+                CipherProcessorTest.class,
+                PackedTest.class,
+                ReadAheadTest.class,
+                SegmentsTest.class,
+                BatchTest.class,
+                ServerTest.class,
+                KeySearchTest.class,
+                SeekTest.class,
+                CharacteristicsTest.class,
+                PipelineTest.class,
+                WorkloadTest.class,
+                ThroughputTest.class));
     }
 
 }
@@ -0,0 +1,294 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import ucb.util.CommandArgs;
+
+import static enigma.EnigmaException.*;
+
+/** A deterministic generator of configuration and input files for
+ *  measuring Main: random rotors over an alphabet of a chosen size, and
+ *  random messages of a chosen length, re-keyed at a chosen rate.  The
+ *  same parameters always produce the same files.
+ *  @author Yash Pansari
+ */
+public final class Workload {
+
+    /** Write a configuration file and input file as described by ARGS:
+     *  [--seed=N] [--alphabet=N] [--slots=N] [--chars=N] [--line=N]
+     *  [--rekey=N] CONFIG INPUT.  See the constructor for the meanings of
+     *  the options. */
+    public static void main(String... args) {
+        try {
+            CommandArgs options =
+                new CommandArgs("--seed=(\\d+) --alphabet=(\\d+) "
+                                + "--slots=(\\d+) --chars=(\\d+) "
+                                + "--line=(\\d+) --rekey=(\\d+) "
+                                + "--=(.*){2}", args);
+            if (!options.ok()) {
+                throw error("Usage: java enigma.Workload [--seed=N] "
+                            + "[--alphabet=N] [--slots=N] [--chars=N] "
+                            + "[--line=N] [--rekey=N] CONFIG INPUT");
+            }
+            Workload workload =
+                new Workload(option(options, "--seed", 1),
+                             (int) option(options, "--alphabet", 26),
+                             (int) option(options, "--slots", 5),
+                             option(options, "--chars", 1 << 20),
+                             (int) option(options, "--line", 60),
+                             (int) option(options, "--rekey", 0));
+            List<String> names = options.get("--");
+            workload.write(names.get(0), names.get(1));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A workload generated from SEED for a machine with ALPHABET
+     *  characters (an even number from 2 to MAX_ALPHABET) and SLOTS
+     *  rotor slots (at least 2), with CHARS message characters in lines of
+     *  LINE characters, and a settings line before every REKEY message
+     *  lines (only at the start if REKEY is 0). */
+    Workload(long seed, int alphabet, int slots, long chars, int line,
+             int rekey) {
+        if (alphabet < 2 || alphabet > MAX_ALPHABET || alphabet % 2 != 0) {
+            throw error("alphabet size must be even and from 2 to %d",
+                        MAX_ALPHABET);
+        }
+        if (slots < 2) {
+            throw error("a machine needs at least 2 slots");
+        }
+        if (line < 1 || chars < 0 || rekey < 0) {
+            throw error("bad workload size");
+        }
+        _seed = seed;
+        _alphabet = CHARS.substring(0, alphabet);
+        _slots = slots;
+        _pawls = Math.max(1, slots - 2);
+        _chars = chars;
+        _line = line;
+        _rekey = rekey;
+    }
+
+    /** Write my configuration to the file named CONFIG and my input to the
+     *  file named INPUT. */
+    void write(String config, String input) {
+        Random random = new Random(_seed);
+        try (Writer out = open(config)) {
+            writeConfig(out, random);
+        } catch (IOException excp) {
+            throw error("could not write %s", config);
+        }
+        try (Writer out = open(input)) {
+            writeInput(out, random);
+        } catch (IOException excp) {
+            throw error("could not write %s", input);
+        }
+    }
+
+    /** Return the number of message characters I generate. */
+    long chars() {
+        return _chars;
+    }
+
+    /** Write a configuration to OUT with RANDOM: two more rotors of each
+     *  kind than one machine uses, so that settings lines may vary. */
+    private void writeConfig(Writer out, Random random) throws IOException {
+        out.write(_alphabet + "\n");
+        out.write(String.format(" %d %d%n", _slots, _pawls));
+        int size = _alphabet.length();
+        for (int k = 0; k < SPARES; k += 1) {
+            int[] perm = shuffled(random);
+            StringBuilder cycles = new StringBuilder();
+            for (int i = 0; i < size; i += 2) {
+                cycles.append(" (").append(_alphabet.charAt(perm[i]))
+                    .append(_alphabet.charAt(perm[i + 1])).append(")");
+            }
+            out.write(String.format(" R%d R%s%n", k, cycles));
+        }
+        for (int k = 0; k < fixed() + SPARES; k += 1) {
+            out.write(String.format(" N%d N%s%n", k, cycles(random)));
+        }
+        for (int k = 0; k < _pawls + SPARES; k += 1) {
+            String notch =
+                String.valueOf(_alphabet.charAt(random.nextInt(size)));
+            out.write(String.format(" M%d M%s%s%n", k, notch,
+                                    cycles(random)));
+        }
+    }
+
+    /** Write my input to OUT with RANDOM. */
+    private void writeInput(Writer out, Random random) throws IOException {
+        char[] alphabet = _alphabet.toCharArray();
+        char[] line = new char[_line + _line / GROUP + 1];
+        long left = _chars;
+        long lines = 0;
+        do {
+            if (lines == 0 || (_rekey > 0 && lines % _rekey == 0)) {
+                out.write(settings(random));
+                out.write('\n');
+            }
+            int n = (int) Math.min(left, _line);
+            int k = 0;
+            for (int i = 0; i < n; i += 1) {
+                if (i > 0 && i % GROUP == 0) {
+                    line[k++] = ' ';
+                }
+                line[k++] = alphabet[random.nextInt(alphabet.length)];
+            }
+            line[k++] = '\n';
+            out.write(line, 0, k);
+            left -= n;
+            lines += 1;
+        } while (left > 0);
+    }
+
+    /** Return a random settings line chosen with RANDOM. */
+    private String settings(Random random) {
+        StringBuilder result = new StringBuilder("*");
+        result.append(" R").append(random.nextInt(SPARES));
+        for (String name : pick(random, "N", fixed() + SPARES, fixed())) {
+            result.append(' ').append(name);
+        }
+        for (String name : pick(random, "M", _pawls + SPARES, _pawls)) {
+            result.append(' ').append(name);
+        }
+        int size = _alphabet.length();
+        result.append(' ');
+        for (int i = 1; i < _slots; i += 1) {
+            result.append(_alphabet.charAt(random.nextInt(size)));
+        }
+        if (random.nextBoolean()) {
+            result.append(' ');
+            for (int i = 1; i < _slots; i += 1) {
+                result.append(_alphabet.charAt(random.nextInt(size)));
+            }
+        }
+        int[] perm = shuffled(random);
+        int pairs = Math.min(PLUGS, size / 2);
+        for (int i = 0; i < 2 * pairs; i += 2) {
+            result.append(" (").append(_alphabet.charAt(perm[i]))
+                .append(_alphabet.charAt(perm[i + 1])).append(')');
+        }
+        return result.toString();
+    }
+
+    /** Return the names of K distinct rotors chosen with RANDOM from those
+     *  named PREFIX0 .. PREFIX(N-1), in random order. */
+    private List<String> pick(Random random, String prefix, int n, int k) {
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            names.add(prefix + i);
+        }
+        Collections.shuffle(names, random);
+        return names.subList(0, k);
+    }
+
+    /** Return the cycles of a random permutation of my alphabet chosen
+     *  with RANDOM, each preceded by a blank. */
+    private String cycles(Random random) {
+        int[] perm = shuffled(random);
+        boolean[] seen = new boolean[perm.length];
+        StringBuilder result = new StringBuilder();
+        for (int start = 0; start < perm.length; start += 1) {
+            if (!seen[start]) {
+                result.append(" (");
+                for (int c = start; !seen[c]; c = perm[c]) {
+                    seen[c] = true;
+                    result.append(_alphabet.charAt(c));
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return a random permutation of the indices of my alphabet, chosen
+     *  with RANDOM. */
+    private int[] shuffled(Random random) {
+        int[] result = new int[_alphabet.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            int j = random.nextInt(i + 1);
+            result[i] = result[j];
+            result[j] = i;
+        }
+        return result;
+    }
+
+    /** Return the number of non-moving rotors other than the reflector in
+     *  each machine. */
+    private int fixed() {
+        return _slots - 1 - _pawls;
+    }
+
+    /** Return a buffered writer on the file named NAME. */
+    private static Writer open(String name) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(name), StandardCharsets.US_ASCII), 1 << 16);
+    }
+
+    /** Return the value of the numeric option NAME in OPTIONS, or DFLT if
+     *  it is absent. */
+    private static long option(CommandArgs options, String name, long dflt) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        try {
+            return Long.parseLong(options.get(name).get(0));
+        } catch (NumberFormatException excp) {
+            throw error("%s is too large", name);
+        }
+    }
+
+    /** Characters available for alphabets, in the order used: everything
+     *  printable in ASCII but blanks and the characters with special
+     *  meanings in configurations and input. */
+    static final String CHARS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+        + "!\"#$%&'+,-./:;<=>?@[\\]^_`{|}~";
+
+    /** The largest alphabet: the greatest even number of CHARS, since
+     *  reflectors pair up all their characters. */
+    static final int MAX_ALPHABET = CHARS.length() & ~1;
+
+    /** Number of spare rotors of each kind in a configuration. */
+    private static final int SPARES = 2;
+
+    /** Letters per group in messages. */
+    private static final int GROUP = 5;
+
+    /** Maximum number of plugboard pairs. */
+    private static final int PLUGS = 10;
+
+    /** Seed of my random choices. */
+    private final long _seed;
+
+    /** Characters of my alphabet. */
+    private final String _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Number of message characters. */
+    private final long _chars;
+
+    /** Message characters per line. */
+    private final int _line;
+
+    /** Message lines per settings line, or 0. */
+    private final int _rekey;
+}
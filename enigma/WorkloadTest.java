@@ -0,0 +1,115 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+/** The suite of all JUnit tests for the Workload class.
+ *  @author Yash Pansari
+ */
+public class WorkloadTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    /** Remove DIR and everything in it. */
+    private static void remove(File dir) {
+        File[] files = dir.listFiles();
+        for (int k = 0; files != null && k < files.length; k += 1) {
+            remove(files[k]);
+        }
+        dir.delete();
+    }
+
+    /** Write WORKLOAD into DIR as the files NAME.conf and NAME.in, and
+     *  return their paths. */
+    private Path[] write(Path dir, String name, Workload workload) {
+        Path[] result = {
+            dir.resolve(name + ".conf"), dir.resolve(name + ".in")
+        };
+        workload.write(result[0].toString(), result[1].toString());
+        return result;
+    }
+
+    @Test
+    public void testWorkload() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-workload");
+        try {
+            checkWorkload(dir);
+        } finally {
+            remove(dir.toFile());
+        }
+    }
+
+    /** Generate workloads into DIR and check them. */
+    private void checkWorkload(Path dir) throws IOException {
+        Path[] first = write(dir, "a", new Workload(7, 90, 6, 10000, 37, 4));
+        Path[] again = write(dir, "b", new Workload(7, 90, 6, 10000, 37, 4));
+        Path[] other = write(dir, "c", new Workload(8, 90, 6, 10000, 37, 4));
+        for (int i = 0; i < 2; i += 1) {
+            assertTrue(Arrays.equals(Files.readAllBytes(first[i]),
+                                     Files.readAllBytes(again[i])));
+            assertFalse(Arrays.equals(Files.readAllBytes(first[i]),
+                                      Files.readAllBytes(other[i])));
+        }
+
+        Session session =
+            new Session(Main.readConfig(first[0].toString()));
+        List<String> lines = Files.readAllLines(first[1]);
+        int settings = 0;
+        long chars = 0;
+        for (String line : lines) {
+            String answer = session.processLine(line);
+            if (line.startsWith("*")) {
+                settings += 1;
+            } else {
+                assertTrue(line, line.replace(" ", "").length() <= 37);
+                chars += answer.replace(" ", "").length();
+            }
+        }
+        assertEquals(10000, chars);
+        assertEquals((lines.size() - settings + 3) / 4, settings);
+    }
+
+    @Test
+    public void testEmptyWorkload() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-workload");
+        try {
+            Path[] files = write(dir, "a", new Workload(1, 2, 2, 0, 60, 0));
+            List<String> lines = Files.readAllLines(files[1]);
+            assertEquals(2, lines.size());
+            assertTrue(lines.get(0).startsWith("*"));
+            assertEquals("", lines.get(1));
+        } finally {
+            remove(dir.toFile());
+        }
+    }
+
+    @Test
+    public void testBadWorkload() {
+        assertEquals(90, Workload.MAX_ALPHABET);
+        int[][] bad = {
+            {0, 5, 60, 0}, {27, 5, 60, 0}, {92, 5, 60, 0}, {26, 1, 60, 0},
+            {26, 5, 0, 0}, {26, 5, 60, -1},
+        };
+        for (int[] args : bad) {
+            try {
+                new Workload(1, args[0], args[1], 100, args[2], args[3]);
+                fail("accepted " + Arrays.toString(args));
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+}